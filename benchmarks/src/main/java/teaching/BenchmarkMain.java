@@ -0,0 +1,26 @@
+package teaching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Startet die JMH-Messungen. Ohne eigene Angaben zum Ergebnisformat werden
+ * die Ergebnisse zusätzlich maschinenlesbar in jmh-result.json abgelegt, damit
+ * Läufe verschiedener Stände verglichen werden können.
+ * Alle übrigen Argumente werden an org.openjdk.jmh.Main weitergereicht.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        ArrayList a = new ArrayList(Arrays.asList(args));
+        if(!a.contains("-rf")) {
+            a.add("-rf");
+            a.add("json");
+        }
+        if(!a.contains("-rff")) {
+            a.add("-rff");
+            a.add("jmh-result.json");
+        }
+        org.openjdk.jmh.Main.main((String[]) a.toArray(new String[a.size()]));
+    }
+}
@@ -0,0 +1,36 @@
+package teaching;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Kosten der vollständigen Neuberechnung der Ränder (recomputeBounds ohne
+ * Argumente) bei wachsender Größe der Zeichenfläche.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundsBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean rotated;
+
+    private WhiteBoard wb;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        Scenes.fill(wb, size, rotated, 1);
+    }
+
+    @Benchmark
+    public boolean recomputeBounds() {
+        return wb.recomputeBoundsLocked();
+    }
+}
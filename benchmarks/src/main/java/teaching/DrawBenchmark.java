@@ -0,0 +1,57 @@
+package teaching;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Durchsatz der Zeichenmethoden je Art des Zeichenelements, einschließlich
+ * der Übernahme in die Szene (räumlicher Index, Ränder, Kacheln).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark {
+
+    /** Zeichenelemente je Aufruf */
+    static final int BATCH = 1024;
+
+    @Param({"line", "arc", "point", "ellipse", "rectangle", "polygon", "plotPoint", "plotSegment"})
+    public String kind;
+
+    @Param({"false", "true"})
+    public boolean rotated;
+
+    private WhiteBoard wb;
+    private Random r;
+    private int k;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        r = new Random(42);
+        String[] kinds = { "line", "arc", "point", "ellipse", "rectangle", "polygon" };
+        k = java.util.Arrays.asList(kinds).indexOf(kind);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void draw() {
+        double e = Scenes.extent(1000000);
+        for(int i = 0; i < BATCH; i++) {
+            if(k >= 0) {
+                Scenes.draw(wb, k, r, e, rotated);
+            } else if(kind.equals("plotPoint")) {
+                wb.plotPoint(r.nextDouble() * e, r.nextDouble() * e, Color.BLACK);
+            } else {
+                double x = r.nextDouble() * e, y = r.nextDouble() * e;
+                wb.plotSegment(x, y, x + 10, y + 10, Color.BLACK);
+            }
+        }
+        wb.settle();
+    }
+}
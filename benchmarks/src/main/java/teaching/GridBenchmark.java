@@ -0,0 +1,100 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Auswahl der Zeichenelemente unter einer Kachel: räumlicher Index gegen
+ * Durchlauf aller Elemente. grid und fullScan messen nur die Auswahl,
+ * repaint und fullScanRepaint das Neuzeichnen eines ungültigen Bereichs von
+ * der Größe einer Kachel, einmal über WhiteBoard.renderImage mit dem Index,
+ * einmal mit Prüfung aller Elemente in Einfügereihenfolge.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private WhiteBoard wb;
+    private ShapeGrid grid;
+    private WhiteBoard.AttributedShape[] all;
+    private Random r;
+    private double extent;
+    private final ArrayList out = new ArrayList();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        Object[] o = Scenes.fill(wb, size, true, 1);
+        all = new WhiteBoard.AttributedShape[o.length];
+        // die Zeichenelemente merken sich danach ihre Plätze in diesem Raster;
+        // wb ändert sie nicht mehr, sein eigener Index wird nur abgefragt
+        grid = new ShapeGrid();
+        for(int i = 0; i < o.length; i++) {
+            all[i] = (WhiteBoard.AttributedShape) o[i];
+            grid.add(all[i]);
+        }
+        extent = Scenes.extent(size);
+        r = new Random(3);
+    }
+
+    @Benchmark
+    public int grid() {
+        double x = r.nextDouble() * extent, y = r.nextDouble() * extent;
+        out.clear();
+        grid.query(x, y, x + TileCache.TILE_SIZE, y + TileCache.TILE_SIZE, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public BufferedImage repaint() {
+        double x = r.nextDouble() * extent, y = r.nextDouble() * extent;
+        return wb.renderImage(new Rectangle2D.Double(x, y, TileCache.TILE_SIZE, TileCache.TILE_SIZE));
+    }
+
+    @Benchmark
+    public BufferedImage fullScanRepaint() {
+        double x1 = Math.floor(r.nextDouble() * extent), y2 = Math.ceil(r.nextDouble() * extent);
+        double x2 = x1 + TileCache.TILE_SIZE, y1 = y2 - TileCache.TILE_SIZE;
+        BufferedImage img = new BufferedImage(TileCache.TILE_SIZE, TileCache.TILE_SIZE,
+                                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = img.createGraphics();
+        try {
+            // dieselbe Darstellung wie renderImage
+            g2.setPaint(Color.WHITE);
+            g2.fillRect(0, 0, TileCache.TILE_SIZE, TileCache.TILE_SIZE);
+            g2.scale(1.0, -1.0);
+            g2.translate(-x1, -y2);
+            for(int i = 0; i < all.length; i++) {
+                WhiteBoard.AttributedShape as = all[i];
+                if(as.x2 >= x1 - 1 && as.x1 <= x2 + 1 && as.y2 >= y1 - 1 && as.y1 <= y2 + 1) as.draw(g2);
+            }
+        } finally {
+            g2.dispose();
+        }
+        return img;
+    }
+
+    @Benchmark
+    public int fullScan() {
+        double x1 = r.nextDouble() * extent, y1 = r.nextDouble() * extent;
+        double x2 = x1 + TileCache.TILE_SIZE, y2 = y1 + TileCache.TILE_SIZE;
+        out.clear();
+        for(int i = 0; i < all.length; i++) {
+            WhiteBoard.AttributedShape as = all[i];
+            if(as.x2 >= x1 && as.x1 <= x2 && as.y2 >= y1 && as.y1 <= y2) out.add(as);
+        }
+        return out.size();
+    }
+}
@@ -0,0 +1,64 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Darstellung in ein BufferedImage ohne Fenster.
+ * rasterize rastert einen Ausschnitt von 1024 x 1024 vollständig neu,
+ * paint misst DrawingArea.paint mit fertig gerasterten Kacheln, also den
+ * Fall, den das Fenster bei jedem Bild durchläuft.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaintBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean rotated;
+
+    private WhiteBoard wb;
+    private BufferedImage target;
+    private Rectangle2D area;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        Scenes.fill(wb, size, rotated, 1);
+        double e = Scenes.extent(size);
+        area = new Rectangle2D.Double(e / 2 - 512, e / 2 - 512, 1024, 1024);
+        target = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_ARGB);
+        // alle Kacheln des Ausschnitts rastern lassen
+        for(int i = 0; i < 3; i++) {
+            paint();
+            ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage rasterize() {
+        return wb.renderImage(area);
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setClip(0, 0, 1024, 1024);
+            wb.paintTo(g);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+}
@@ -0,0 +1,50 @@
+package teaching;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Speicherbedarf je Punkt: drawPoint legt Objekte an, plotPoint schreibt in
+ * den spaltenweisen Speicher. Aussagekräftig mit dem Profiler für die
+ * Speicherbereinigung (-prof gc), der die angelegten Byte je Punkt
+ * (gc.alloc.rate.norm) ausweist.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointHeapBenchmark {
+
+    static final int BATCH = 4096;
+
+    private WhiteBoard wb;
+    private double x;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        x = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void drawPoint() {
+        for(int i = 0; i < BATCH; i++) {
+            wb.drawPoint(x, i, Color.BLACK);
+        }
+        x += 3;
+        wb.settle();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void plotPoint() {
+        for(int i = 0; i < BATCH; i++) {
+            wb.plotPoint(x, i, Color.BLACK);
+        }
+        x += 3;
+    }
+}
@@ -0,0 +1,48 @@
+package teaching;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Darstellung eines Linienzugs mit bis zu 10 Millionen Stützpunkten über die
+ * volle Breite eines Ausschnitts von 1024 Pixeln; die Dauer soll mit der
+ * Breite, nicht mit der Anzahl der Punkte wachsen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PolylineBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int vertices;
+
+    private WhiteBoard wb;
+    private Rectangle2D area;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        double[] x = new double[vertices], y = new double[vertices];
+        Random r = new Random(5);
+        double v = 0;
+        for(int i = 0; i < vertices; i++) {
+            x[i] = i * 1024.0 / vertices;
+            v += r.nextGaussian();
+            y[i] = 500 + v * 300 / Math.sqrt(vertices);
+        }
+        wb.drawPolyline(x, y, Color.BLACK);
+        wb.settle();
+        area = new Rectangle2D.Double(0, 0, 1024, 1024);
+    }
+
+    @Benchmark
+    public Object paint() {
+        return wb.renderImage(area);
+    }
+}
@@ -0,0 +1,66 @@
+package teaching;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Mehrere Threads zeichnen gleichzeitig auf dieselbe Zeichenfläche, während
+ * ein weiterer Thread fortlaufend darstellt. Jeder zeichnende Thread hält
+ * seine letzten WINDOW Linien und entfernt die älteste, damit die Szene nicht
+ * unbegrenzt wächst. Die zeichnenden Threads stellen nur ein und warten nie
+ * auf die Darstellung; ausstehende Operationen übernimmt der darstellende
+ * Thread oder die Zeichenfläche selbst im Hintergrund.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProducerStressBenchmark {
+
+    /** Anzahl der Linien, die jeder zeichnende Thread stehen lässt */
+    static final int WINDOW = 10000;
+
+    private WhiteBoard wb;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+    }
+
+    /** Zustand je zeichnendem Thread */
+    @State(Scope.Thread)
+    public static class Producer {
+        double x, y;
+        int id = -1;
+        final Object[] drawn = new Object[WINDOW];
+        int next;
+    }
+
+    @Benchmark
+    @Group("stress")
+    @GroupThreads(4)
+    public Object drawLine(Producer p) {
+        if(p.id < 0) p.id = threads.getAndIncrement();
+        double nx = p.x + 1, ny = p.y + ((p.id & 1) == 0 ? 1 : -1);
+        Object o = wb.drawLine(p.x, p.y + 100 * p.id, nx, ny + 100 * p.id, Color.BLACK);
+        p.x = nx % 5000;
+        p.y = ny % 1000;
+        if(p.drawn[p.next] != null) wb.removeShape(p.drawn[p.next]);
+        p.drawn[p.next] = o;
+        p.next = (p.next + 1) % WINDOW;
+        return o;
+    }
+
+    @Benchmark
+    @Group("stress")
+    @GroupThreads(1)
+    public Object render() {
+        wb.settle();
+        return wb.renderImage(new java.awt.geom.Rectangle2D.Double(0, -200, 256, 1024));
+    }
+}
@@ -0,0 +1,64 @@
+package teaching;
+
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Erzeugt reproduzierbare Szenen für die Messungen.
+ */
+class Scenes {
+
+    /** Farben der Zeichenelemente */
+    static final Color[] COLORS = { Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE };
+
+    /** Kantenlänge der Fläche, auf der n Zeichenelemente verteilt werden,
+     * so dass die Dichte unabhängig von n etwa gleich bleibt
+     */
+    static double extent(int n) {
+        return 20 * Math.sqrt(n) + 100;
+    }
+
+    /** Zeichnet n Zeichenelemente aller Arten und übernimmt sie in die Szene.
+     * @param wb Zeichenfläche
+     * @param n Anzahl
+     * @param rotated true, wenn die Elemente gedreht sein sollen
+     * @param seed Startwert des Zufallsgenerators
+     * @return Referenzen auf die Zeichenelemente
+     */
+    static Object[] fill(WhiteBoard wb, int n, boolean rotated, long seed) {
+        Random r = new Random(seed);
+        double e = extent(n);
+        Object[] all = new Object[n];
+        wb.beginBatch();
+        try {
+            for(int i = 0; i < n; i++) {
+                all[i] = draw(wb, i % 6, r, e, rotated);
+                if((i & 0xffff) == 0xffff) wb.settle();
+            }
+        } finally {
+            wb.endBatch();
+        }
+        wb.settle();
+        return all;
+    }
+
+    /** Zeichnet ein zufälliges Zeichenelement einer Art.
+     * @param kind 0 Linie, 1 Bogen, 2 Punkt, 3 Ellipse, 4 Rechteck, 5 Polygon
+     */
+    static Object draw(WhiteBoard wb, int kind, Random r, double e, boolean rotated) {
+        double x = r.nextDouble() * e, y = r.nextDouble() * e;
+        double w = 5 + r.nextDouble() * 25, h = 5 + r.nextDouble() * 25;
+        double rot = rotated ? r.nextDouble() * Math.PI : 0.0;
+        Color c = COLORS[r.nextInt(COLORS.length)];
+        switch(kind) {
+            case 0: return wb.drawLine(x, y, x + w, y + h, c);
+            case 1: return wb.drawArc(x, y, x + w, y, 0.5, c, false);
+            case 2: return wb.drawPoint(x, y, c);
+            case 3: return wb.drawEllipse(x, y, w, h, c, r.nextBoolean(), rot);
+            case 4: return wb.drawRectangle(x, y, w, h, c, r.nextBoolean(), rot);
+            default:
+                return wb.drawPolygon(new double[] { x, x + w, x + w / 2 },
+                                      new double[] { y, y, y + h }, c, false, rot);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package teaching;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Kosten von wipeShape samt Neuberechnung der Ränder bei wachsender Größe
+ * der Zeichenfläche. Jeder Aufruf löscht ein Element und zeichnet ein neues,
+ * damit die Größe konstant bleibt; gelöscht wird abwechselnd ein beliebiges
+ * und das äußerste Element.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WipeBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean rotated;
+
+    private WhiteBoard wb;
+    private Object[] live;
+    private Random r;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        wb = new WhiteBoard(true);
+        live = Scenes.fill(wb, size, rotated, 1);
+        r = new Random(7);
+    }
+
+    @Benchmark
+    public void wipeAndRedraw() {
+        int i = r.nextInt(live.length);
+        wb.wipeShape(live[i]);
+        live[i] = Scenes.draw(wb, next++ % 6, r, Scenes.extent(size), rotated);
+        wb.settle();
+    }
+}
@@ -0,0 +1,97 @@
+package teaching;
+
+import jdk.jfr.*;
+
+/**
+ * Ereignisse eines WhiteBoard für den Java Flight Recorder.
+ *
+ * Die Ereignisse kosten nur etwas, solange eine Aufzeichnung sie anfordert.
+ * Aufzeichnen zum Beispiel mit
+ * java -XX:StartFlightRecording:filename=wb.jfr ...
+ * und auswerten mit jfr print --categories WhiteBoard wb.jfr.
+ */
+final class BoardEvents {
+
+    private BoardEvents() {
+    }
+
+    @Name("teaching.Paint")
+    @Label("WhiteBoard Paint")
+    @Category("WhiteBoard")
+    @Description("Darstellung der Zeichenfläche im Fenster")
+    static class Paint extends Event {
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+    }
+
+    @Name("teaching.Raster")
+    @Label("WhiteBoard Raster")
+    @Category("WhiteBoard")
+    @Description("Rastern eines Ausschnitts der Szene, einer Kachel oder eines Bildes")
+    static class Raster extends Event {
+        @Label("Shapes Drawn")
+        int drawn;
+        @Label("Shapes Skipped")
+        @Description("Zeichenelemente außerhalb des Ausschnitts")
+        int skipped;
+    }
+
+    @Name("teaching.SceneLock")
+    @Label("WhiteBoard Scene Lock")
+    @Category("WhiteBoard")
+    @Description("Warten auf und Halten der Sperre der Szene, die Dauer umfasst beides")
+    @Threshold("1 ms")
+    static class SceneLock extends Event {
+        @Label("Exclusive")
+        boolean exclusive;
+        @Label("Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long waited;
+    }
+
+    @Name("teaching.Apply")
+    @Label("WhiteBoard Apply Pending")
+    @Category("WhiteBoard")
+    @Description("Übernahme anstehender Änderungen in die Szene")
+    static class Apply extends Event {
+        @Label("Shapes Added")
+        int added;
+        @Label("Shapes Removed")
+        int removed;
+        @Label("Shapes Changed")
+        int changed;
+    }
+
+    @Name("teaching.Bounds")
+    @Label("WhiteBoard Bounds")
+    @Category("WhiteBoard")
+    @Description("Neuberechnung der Ränder der Zeichenfläche")
+    static class Bounds extends Event {
+        @Label("Changed")
+        boolean changed;
+    }
+
+    @Name("teaching.Revalidate")
+    @Label("WhiteBoard Revalidate")
+    @Category("WhiteBoard")
+    @Description("Anpassung der Fenstergröße an die Zeichenfläche")
+    static class Revalidate extends Event {
+    }
+
+    @Name("teaching.Quality")
+    @Label("WhiteBoard Quality")
+    @Category("WhiteBoard")
+    @Description("Wechsel der Qualitätsstufe der Darstellung")
+    static class Quality extends Event {
+        @Label("From Tier")
+        int from;
+        @Label("To Tier")
+        int to;
+        @Label("Frame Raster Time")
+        @Description("Messung, die den Wechsel ausgelöst hat, 0 nach Ruhe")
+        @Timespan(Timespan.NANOSECONDS)
+        long frameTime;
+    }
+}
@@ -0,0 +1,239 @@
+package teaching;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+/**
+ * Laufzeitmessungen eines WhiteBoard: Zähler für Zeichenelemente und
+ * Größenanpassungen sowie Verteilungen der Dauer von Darstellung, Rastern,
+ * Randberechnung und Sperre der Szene.
+ *
+ * Die Messung ist zunächst aus, außer die Systemeigenschaft teaching.metrics
+ * ist true. Ausgeschaltet kostet jede Messstelle nur das Lesen eines
+ * volatile-Felds. Mit {@link #register(String)} werden die Messungen über
+ * JMX veröffentlicht, jede Verteilung als eigene MBean. Unabhängig davon
+ * schreibt das WhiteBoard die Ereignisse aus {@link BoardEvents}, sobald eine
+ * Aufzeichnung des Java Flight Recorder sie anfordert.
+ * Alle Methoden sind threadsicher.
+ */
+public class BoardMetrics implements BoardMetricsMBean {
+
+    /** Domäne der JMX-Namen */
+    public static final String DOMAIN = "teaching";
+
+    private final WhiteBoard board;
+    private volatile boolean enabled = Boolean.getBoolean("teaching.metrics");
+
+    private final AtomicLong shapesAdded = new AtomicLong();
+    private final AtomicLong shapesRemoved = new AtomicLong();
+    private final AtomicLong shapesChanged = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong boundsRecomputations = new AtomicLong();
+
+    /** Dauer von paint */
+    private final Histogram paintTime = new Histogram("ns");
+    /** Dauer des Rasterns eines Ausschnitts */
+    private final Histogram rasterTime = new Histogram("ns");
+    /** gezeichnete Zeichenelemente je gerastertem Ausschnitt */
+    private final Histogram shapesDrawn = new Histogram("shapes");
+    /** übergangene Zeichenelemente je gerastertem Ausschnitt */
+    private final Histogram shapesSkipped = new Histogram("shapes");
+    /** Wartezeit auf die Sperre der Szene */
+    private final Histogram lockWait = new Histogram("ns");
+    /** Haltezeit der Sperre der Szene */
+    private final Histogram lockHold = new Histogram("ns");
+    /** Dauer der Neuberechnung der Ränder */
+    private final Histogram boundsTime = new Histogram("ns");
+
+    /** JMX-Name, solange registriert */
+    private ObjectName name;
+
+    BoardMetrics(WhiteBoard board) {
+        this.board = board;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getShapesAdded() {
+        return shapesAdded.get();
+    }
+
+    public long getShapesRemoved() {
+        return shapesRemoved.get();
+    }
+
+    public long getShapesChanged() {
+        return shapesChanged.get();
+    }
+
+    public int getPendingOperations() {
+        return board.pendingOperations();
+    }
+
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public long getBoundsRecomputations() {
+        return boundsRecomputations.get();
+    }
+
+    public int getQualityTier() {
+        return board.getQualityGovernor().getTier();
+    }
+
+    /** @return Dauer von paint in Nanosekunden */
+    public Histogram getPaintTime() {
+        return paintTime;
+    }
+
+    /** @return Dauer des Rasterns je Kachel oder Bild in Nanosekunden */
+    public Histogram getRasterTime() {
+        return rasterTime;
+    }
+
+    /** @return gezeichnete Zeichenelemente je Kachel oder Bild */
+    public Histogram getShapesDrawn() {
+        return shapesDrawn;
+    }
+
+    /** @return Zeichenelemente je Kachel oder Bild, die der räumliche Index
+     * als außerhalb übergangen hat
+     */
+    public Histogram getShapesSkipped() {
+        return shapesSkipped;
+    }
+
+    /** @return Wartezeit auf die Sperre der Szene in Nanosekunden */
+    public Histogram getLockWait() {
+        return lockWait;
+    }
+
+    /** @return Haltezeit der Sperre der Szene in Nanosekunden */
+    public Histogram getLockHold() {
+        return lockHold;
+    }
+
+    /** @return Dauer der Neuberechnung der Ränder in Nanosekunden */
+    public Histogram getBoundsTime() {
+        return boundsTime;
+    }
+
+    public void reset() {
+        shapesAdded.set(0);
+        shapesRemoved.set(0);
+        shapesChanged.set(0);
+        revalidations.set(0);
+        boundsRecomputations.set(0);
+        Histogram[] h = histograms();
+        for(int i = 0; i < h.length; i++) h[i].reset();
+    }
+
+    /** Veröffentlicht die Messungen beim MBeanServer der Plattform unter
+     * teaching:type=WhiteBoard,name=<i>name</i>, die Verteilungen zusätzlich
+     * mit dem Schlüssel histogram. Eine frühere Registrierung wird aufgehoben.
+     * @param name Name des WhiteBoard, wird falls nötig in Anführungszeichen gesetzt
+     * @throws JMException wenn der Name vergeben oder ungültig ist
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String base = DOMAIN + ":type=WhiteBoard,name=" + quote(name);
+        ObjectName on = new ObjectName(base);
+        server.registerMBean(this, on);
+        Histogram[] h = histograms();
+        String[] keys = histogramNames();
+        try {
+            for(int i = 0; i < h.length; i++) {
+                server.registerMBean(h[i], new ObjectName(base + ",histogram=" + keys[i]));
+            }
+        } catch(JMException e) {
+            this.name = on;
+            unregister();
+            throw e;
+        }
+        this.name = on;
+    }
+
+    /** Hebt die Registrierung bei JMX auf, sofern vorhanden */
+    public synchronized void unregister() throws JMException {
+        if(name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String[] keys = histogramNames();
+        ObjectName on = name;
+        name = null;
+        for(int i = 0; i < keys.length; i++) {
+            ObjectName hn = new ObjectName(on.getCanonicalName() + ",histogram=" + keys[i]);
+            if(server.isRegistered(hn)) server.unregisterMBean(hn);
+        }
+        if(server.isRegistered(on)) server.unregisterMBean(on);
+    }
+
+    private Histogram[] histograms() {
+        return new Histogram[] {paintTime, rasterTime, shapesDrawn, shapesSkipped,
+                                lockWait, lockHold, boundsTime};
+    }
+
+    private static String[] histogramNames() {
+        return new String[] {"paintTime", "rasterTime", "shapesDrawn", "shapesSkipped",
+                             "lockWait", "lockHold", "boundsTime"};
+    }
+
+    private static String quote(String s) {
+        for(int i = 0; i < s.length(); i++) {
+            if(",=:*?\"\n".indexOf(s.charAt(i)) >= 0) return ObjectName.quote(s);
+        }
+        return s;
+    }
+
+    /** Vermerkt übernommene Änderungen, nur bei eingeschalteter Messung */
+    void applied(int added, int removed, int changed) {
+        if(added != 0) shapesAdded.addAndGet(added);
+        if(removed != 0) shapesRemoved.addAndGet(removed);
+        if(changed != 0) shapesChanged.addAndGet(changed);
+    }
+
+    void revalidated() {
+        revalidations.incrementAndGet();
+    }
+
+    void painted(long nanos) {
+        paintTime.record(nanos);
+    }
+
+    void rasterized(long nanos, int drawn, int skipped) {
+        rasterTime.record(nanos);
+        shapesDrawn.record(drawn);
+        shapesSkipped.record(skipped);
+    }
+
+    void locked(long waitNanos) {
+        lockWait.record(waitNanos);
+    }
+
+    void unlocked(long holdNanos) {
+        lockHold.record(holdNanos);
+    }
+
+    void boundsRecomputed(long nanos) {
+        boundsRecomputations.incrementAndGet();
+        boundsTime.record(nanos);
+    }
+
+    public String toString() {
+        return "added=" + getShapesAdded() + " removed=" + getShapesRemoved()
+            + " changed=" + getShapesChanged() + " revalidations=" + getRevalidations()
+            + " quality=" + getQualityTier()
+            + "\npaint " + paintTime + "\nraster " + rasterTime
+            + "\ndrawn " + shapesDrawn + "\nskipped " + shapesSkipped
+            + "\nlock wait " + lockWait + "\nlock hold " + lockHold
+            + "\nbounds " + boundsTime;
+    }
+}
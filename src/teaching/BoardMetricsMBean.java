@@ -0,0 +1,37 @@
+package teaching;
+
+/**
+ * Verwaltungsschnittstelle der {@link BoardMetrics} für JMX.
+ */
+public interface BoardMetricsMBean {
+
+    /** @return true, wenn gemessen wird */
+    boolean isEnabled();
+
+    /** Schaltet die Messung ein oder aus */
+    void setEnabled(boolean enabled);
+
+    /** @return Anzahl der in die Szene übernommenen Zeichenelemente */
+    long getShapesAdded();
+
+    /** @return Anzahl der aus der Szene entfernten Zeichenelemente */
+    long getShapesRemoved();
+
+    /** @return Anzahl der verschobenen, gedrehten oder umgefärbten Zeichenelemente */
+    long getShapesChanged();
+
+    /** @return Anzahl der noch nicht übernommenen Änderungen, auch ohne Messung */
+    int getPendingOperations();
+
+    /** @return Anzahl der Anpassungen der Fenstergröße */
+    long getRevalidations();
+
+    /** @return Anzahl der Neuberechnungen der Ränder */
+    long getBoundsRecomputations();
+
+    /** @return Qualitätsstufe der Darstellung, 0 ist volle Qualität */
+    int getQualityTier();
+
+    /** Setzt alle Zähler und Verteilungen zurück */
+    void reset();
+}
@@ -0,0 +1,183 @@
+package teaching;
+
+/**
+ * Verfolgt die äußeren Randkoordinaten aller Zeichenelemente eines WhiteBoard.
+ *
+ * Für jeden der vier Ränder wird ein Heap der Extremwerte geführt. Entfernte
+ * Elemente werden nicht sofort aus den Heaps gelöscht, sondern erst, wenn sie
+ * an der Spitze auftauchen. Ein Rand kann daher ohne erneuten Durchlauf aller
+ * Elemente in logarithmischer Zeit bestimmt werden.
+ * Der Tracker ist nicht synchronisiert, der Aufrufer muss den Zugriff schützen.
+ */
+class BoundsTracker extends EdgeTracker {
+
+    private ExtremeHeap left = new ExtremeHeap(ExtremeHeap.LEFT);
+    private ExtremeHeap bottom = new ExtremeHeap(ExtremeHeap.BOTTOM);
+    private ExtremeHeap right = new ExtremeHeap(ExtremeHeap.RIGHT);
+    private ExtremeHeap top = new ExtremeHeap(ExtremeHeap.TOP);
+    /** Anzahl der verfolgten, nicht entfernten Elemente */
+    private int live = 0;
+
+    /** Nimmt ein Element mit seinen aktuellen Randkoordinaten auf.
+     * @param as Zeichenelement
+     */
+    void add(WhiteBoard.AttributedShape as) {
+        live++;
+        left.push(as, live);
+        bottom.push(as, live);
+        right.push(as, live);
+        top.push(as, live);
+    }
+
+    /** Nimmt ein bereits verfolgtes Element mit geänderten Randkoordinaten neu
+     * auf. Die alten Einträge veralten dadurch von selbst.
+     * @param as verschobenes oder gedrehtes Zeichenelement
+     */
+    void update(WhiteBoard.AttributedShape as) {
+        left.push(as, live);
+        bottom.push(as, live);
+        right.push(as, live);
+        top.push(as, live);
+    }
+
+    /** Vermerkt, dass ein Element entfernt wurde. Das Element muss bereits als
+     * entfernt gekennzeichnet sein (slot &lt; 0).
+     */
+    void removed() {
+        live--;
+    }
+
+    /** @return true, wenn keine Elemente verfolgt werden */
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    /** @return kleinste x Koordinate, undefiniert wenn isEmpty() */
+    double minX() {
+        return left.top();
+    }
+
+    /** @return kleinste y Koordinate, undefiniert wenn isEmpty() */
+    double minY() {
+        return bottom.top();
+    }
+
+    /** @return größte x Koordinate, undefiniert wenn isEmpty() */
+    double maxX() {
+        return -right.top();
+    }
+
+    /** @return größte y Koordinate, undefiniert wenn isEmpty() */
+    double maxY() {
+        return -top.top();
+    }
+
+    /**
+     * Binärer Min-Heap über einen Rand der Zeichenelemente. Maxima werden mit
+     * negiertem Schlüssel abgelegt. Ein Eintrag ist veraltet, wenn sein Element
+     * entfernt wurde oder sich der Rand des Elements inzwischen geändert hat.
+     */
+    private static class ExtremeHeap {
+        static final int LEFT = 0, BOTTOM = 1, RIGHT = 2, TOP = 3;
+
+        private final int edge;
+        private double[] keys = new double[16];
+        private WhiteBoard.AttributedShape[] refs = new WhiteBoard.AttributedShape[16];
+        private int size = 0;
+
+        ExtremeHeap(int edge) {
+            this.edge = edge;
+        }
+
+        void push(WhiteBoard.AttributedShape as, int live) {
+            if(size == keys.length) {
+                if(size > 2 * live + 16) {
+                    purge();
+                } else {
+                    double[] k = new double[size * 2];
+                    WhiteBoard.AttributedShape[] r = new WhiteBoard.AttributedShape[size * 2];
+                    System.arraycopy(keys, 0, k, 0, size);
+                    System.arraycopy(refs, 0, r, 0, size);
+                    keys = k;
+                    refs = r;
+                }
+            }
+            keys[size] = key(as);
+            refs[size] = as;
+            siftUp(size++);
+        }
+
+        /** @return kleinster gültiger Schlüssel, +unendlich wenn leer */
+        double top() {
+            while(size > 0 && isStale(0)) {
+                size--;
+                keys[0] = keys[size];
+                refs[0] = refs[size];
+                refs[size] = null;
+                siftDown(0);
+            }
+            return size > 0 ? keys[0] : Double.POSITIVE_INFINITY;
+        }
+
+        private double key(WhiteBoard.AttributedShape as) {
+            switch(edge) {
+                case LEFT: return as.x1;
+                case BOTTOM: return as.y1;
+                case RIGHT: return -as.x2;
+                default: return -as.y2;
+            }
+        }
+
+        private boolean isStale(int i) {
+            WhiteBoard.AttributedShape as = refs[i];
+            return as.slot < 0 || key(as) != keys[i];
+        }
+
+        /** Entfernt alle veralteten Einträge und baut den Heap neu auf */
+        private void purge() {
+            int j = 0;
+            for(int i = 0; i < size; i++) {
+                if(isStale(i)) continue;
+                keys[j] = keys[i];
+                refs[j++] = refs[i];
+            }
+            for(int i = j; i < size; i++) {
+                refs[i] = null;
+            }
+            size = j;
+            for(int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        private void siftUp(int i) {
+            double k = keys[i];
+            WhiteBoard.AttributedShape r = refs[i];
+            while(i > 0) {
+                int p = (i - 1) >> 1;
+                if(keys[p] <= k) break;
+                keys[i] = keys[p];
+                refs[i] = refs[p];
+                i = p;
+            }
+            keys[i] = k;
+            refs[i] = r;
+        }
+
+        private void siftDown(int i) {
+            double k = keys[i];
+            WhiteBoard.AttributedShape r = refs[i];
+            int half = size >> 1;
+            while(i < half) {
+                int c = 2 * i + 1;
+                if(c + 1 < size && keys[c + 1] < keys[c]) c++;
+                if(k <= keys[c]) break;
+                keys[i] = keys[c];
+                refs[i] = refs[c];
+                i = c;
+            }
+            keys[i] = k;
+            refs[i] = r;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package teaching;
+
+/**
+ * Nachgeführte äußere Randkoordinaten der Zeichenelemente eines WhiteBoard.
+ *
+ * Die Ränder werden beim Eintragen, Ändern und Entfernen einzelner Elemente
+ * fortgeschrieben, ohne alle Elemente erneut zu durchlaufen: unbegrenzt im
+ * {@link BoundsTracker}, im begrenzten Modus im {@link ShapeWindow}.
+ * Implementierungen sind nicht synchronisiert, der Aufrufer muss den Zugriff
+ * schützen.
+ */
+abstract class EdgeTracker {
+
+    /** Nimmt ein Element mit seinen aktuellen Randkoordinaten auf.
+     * @param as Zeichenelement
+     */
+    abstract void add(WhiteBoard.AttributedShape as);
+
+    /** Nimmt ein bereits verfolgtes Element mit geänderten Randkoordinaten neu
+     * auf.
+     * @param as verschobenes oder gedrehtes Zeichenelement
+     */
+    abstract void update(WhiteBoard.AttributedShape as);
+
+    /** Vermerkt, dass ein Element entfernt wurde. Das Element muss bereits als
+     * entfernt gekennzeichnet sein (slot &lt; 0).
+     */
+    abstract void removed();
+
+    /** @return true, wenn keine Elemente verfolgt werden */
+    abstract boolean isEmpty();
+
+    /** @return kleinste x Koordinate, undefiniert wenn isEmpty() */
+    abstract double minX();
+
+    /** @return kleinste y Koordinate, undefiniert wenn isEmpty() */
+    abstract double minY();
+
+    /** @return größte x Koordinate, undefiniert wenn isEmpty() */
+    abstract double maxX();
+
+    /** @return größte y Koordinate, undefiniert wenn isEmpty() */
+    abstract double maxY();
+}
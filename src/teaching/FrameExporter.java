@@ -0,0 +1,117 @@
+package teaching;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Schreibt eine Folge von Bildern eines WhiteBoard, z.B. für Animationen,
+ * die ohne Bildschirm erzeugt werden.
+ *
+ * Jedes Bild wird im aufrufenden Thread gerastert und dann von einem festen
+ * Satz von Hintergrundthreads kodiert und geschrieben. Die Warteschlange ist
+ * begrenzt; ist sie voll, kodiert der aufrufende Thread selbst und wird
+ * dadurch gebremst. Endet das Namensmuster auf ".rgba", werden die Pixel
+ * unkodiert als RGBA-Bytes geschrieben, sonst als PNG.
+ *
+ * <pre>
+ * FrameExporter out = new FrameExporter(wb, dir, "frame-%06d.png", 8);
+ * try {
+ *     for(...) { ... zeichnen ...; out.exportFrame(); }
+ * } finally {
+ *     out.close();
+ * }
+ * </pre>
+ */
+public class FrameExporter {
+
+    private final WhiteBoard board;
+    private final File directory;
+    private final String namePattern;
+    private final boolean raw;
+    private final ThreadPoolExecutor encoders;
+    /** Nummer des nächsten Bilds */
+    private int frameNumber = 0;
+    /** erster Fehler eines Hintergrundthreads */
+    private volatile IOException failure;
+
+    /** Legt einen Exporter an.
+     * @param board Quelle der Bilder
+     * @param directory Zielverzeichnis
+     * @param namePattern Dateiname mit Platzhalter für die Bildnummer, z.B. "frame-%06d.png"
+     * @param threads Anzahl der Kodier-Threads
+     */
+    public FrameExporter(WhiteBoard board, File directory, String namePattern, int threads) {
+        this.board = board;
+        this.directory = directory;
+        this.namePattern = namePattern;
+        this.raw = namePattern.endsWith(".rgba");
+        final AtomicInteger count = new AtomicInteger();
+        encoders = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue(2 * threads), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "WhiteBoard-Export-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /** Rastert den aktuellen Zustand des WhiteBoard und stellt das Bild zum
+     * Schreiben ein.
+     * @return Datei, in die das Bild geschrieben wird
+     * @throws IOException wenn ein früheres Bild nicht geschrieben werden konnte
+     */
+    public synchronized File exportFrame() throws IOException {
+        checkFailure();
+        final BufferedImage img = board.renderImage();
+        final File file = new File(directory, String.format(namePattern, Integer.valueOf(frameNumber++)));
+        encoders.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(img, file);
+                } catch(IOException e) {
+                    if(failure == null) failure = e;
+                }
+            }
+        });
+        return file;
+    }
+
+    /** Wartet, bis alle eingestellten Bilder geschrieben sind, und beendet
+     * die Kodier-Threads.
+     * @throws IOException wenn ein Bild nicht geschrieben werden konnte
+     */
+    public void close() throws IOException {
+        encoders.shutdown();
+        try {
+            while(!encoders.awaitTermination(1, TimeUnit.SECONDS)) {
+                // weiter warten
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Warten auf Kodier-Threads unterbrochen");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if(e != null) throw e;
+    }
+
+    private void write(BufferedImage img, File file) throws IOException {
+        if(!raw) {
+            if(!ImageIO.write(img, "png", file)) throw new IOException("kein PNG-Encoder verfügbar");
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(new RasterFrame(img).rgba);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package teaching;
+
+import java.util.Arrays;
+
+/**
+ * Laufzeitmessung der Darstellungen eines WhiteBoard.
+ *
+ * Für die letzten WINDOW Darstellungen werden Beginn und Dauer festgehalten.
+ * Daraus werden die erreichte Bildrate der letzten Sekunde und Perzentile der
+ * Darstellungsdauer berechnet. Alle Methoden sind threadsicher.
+ */
+public class FrameStats {
+
+    /** Anzahl der Darstellungen, über die ausgewertet wird */
+    static final int WINDOW = 512;
+
+    /** Beginn der Darstellungen in Nanosekunden, als Ringpuffer */
+    private final long[] starts = new long[WINDOW];
+    /** Dauer der Darstellungen in Nanosekunden, als Ringpuffer */
+    private final long[] durations = new long[WINDOW];
+    /** Anzahl aller gemessenen Darstellungen */
+    private long frames = 0;
+
+    /** Hält eine Darstellung fest.
+     * @param start Beginn nach System.nanoTime()
+     * @param duration Dauer in Nanosekunden
+     */
+    synchronized void record(long start, long duration) {
+        int i = (int) (frames % WINDOW);
+        starts[i] = start;
+        durations[i] = duration;
+        frames++;
+    }
+
+    /** @return Anzahl aller gemessenen Darstellungen */
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    /** Erreichte Bildrate, bezogen auf die Darstellungen der letzten Sekunde
+     * vor der jüngsten Darstellung.
+     * @return Darstellungen pro Sekunde, 0 wenn weniger als zwei gemessen wurden
+     */
+    public synchronized double getFramesPerSecond() {
+        int n = (int) Math.min(frames, WINDOW);
+        if(n < 2) return 0.0;
+        int newest = (int) ((frames - 1) % WINDOW);
+        long last = starts[newest], first = last;
+        int k = 1;
+        for(int j = 1; j < n; j++) {
+            long t = starts[(newest - j + WINDOW) % WINDOW];
+            if(last - t > 1000000000L) break;
+            first = t;
+            k++;
+        }
+        if(k < 2 || last == first) return 0.0;
+        return (k - 1) * 1e9 / (last - first);
+    }
+
+    /** Perzentil der Darstellungsdauer über die letzten WINDOW Darstellungen.
+     * @param p Perzentil zwischen 0 und 100, etwa 50, 95 oder 99
+     * @return Dauer in Millisekunden, 0 wenn noch nichts gemessen wurde
+     */
+    public synchronized double getFrameTimePercentile(double p) {
+        int n = (int) Math.min(frames, WINDOW);
+        if(n == 0) return 0.0;
+        long[] d = new long[n];
+        System.arraycopy(durations, 0, d, 0, n);
+        Arrays.sort(d);
+        int i = (int) Math.ceil(Math.max(0.0, Math.min(100.0, p)) / 100.0 * n) - 1;
+        return d[Math.max(0, i)] / 1e6;
+    }
+
+    /** Verwirft alle Messungen */
+    public synchronized void reset() {
+        frames = 0;
+    }
+
+    public String toString() {
+        return "FrameStats[" + getFrameCount() + " Darstellungen, "
+            + Math.round(getFramesPerSecond() * 10) / 10.0 + " fps, p50 "
+            + Math.round(getFrameTimePercentile(50) * 100) / 100.0 + " ms, p95 "
+            + Math.round(getFrameTimePercentile(95) * 100) / 100.0 + " ms, p99 "
+            + Math.round(getFrameTimePercentile(99) * 100) / 100.0 + " ms]";
+    }
+}
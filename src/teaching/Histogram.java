@@ -0,0 +1,122 @@
+package teaching;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Häufigkeitsverteilung nicht negativer Messwerte mit fester Größe.
+ *
+ * Werte unter 16 werden genau gezählt, größere in Fächern, die je eine
+ * Zweierpotenz in acht gleiche Teile teilen. Perzentile sind damit auf etwa
+ * 12 % genau, unabhängig von der Anzahl der Werte. Alle Methoden sind
+ * threadsicher und kommen ohne Sperre aus.
+ */
+public class Histogram implements HistogramMBean {
+
+    /** Anzahl der Fächer, genug für alle Werte bis Long.MAX_VALUE */
+    static final int BUCKETS = 496;
+
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** @param unit Einheit der Werte, nur zur Anzeige */
+    Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    /** Zählt einen Messwert, negative Werte zählen als 0 */
+    void record(long v) {
+        if(v < 0) v = 0;
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while(v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // erneut versuchen
+        }
+    }
+
+    /** @return Fach eines Werts */
+    static int bucket(long v) {
+        if(v < 16) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        return ((e - 2) << 3) | (int) ((v >>> (e - 3)) & 7);
+    }
+
+    /** @return größter Wert eines Fachs */
+    static long upperBound(int b) {
+        if(b < 16) return b;
+        int shift = (b >>> 3) - 1;
+        long lower = (long) (8 + (b & 7)) << shift;
+        return lower + ((1L << shift) - 1);
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getPercentile50() {
+        return getPercentile(50);
+    }
+
+    public long getPercentile90() {
+        return getPercentile(90);
+    }
+
+    public long getPercentile99() {
+        return getPercentile(99);
+    }
+
+    /** Perzentil der Werte, nach oben auf die Fachgrenze gerundet, höchstens
+     * das Maximum.
+     * @param p Prozentsatz zwischen 0 und 100
+     * @return Wert, unter dem p Prozent der Werte liegen, 0 ohne Werte
+     */
+    public long getPercentile(double p) {
+        long n = 0;
+        long[] c = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            c[i] = counts.get(i);
+            n += c[i];
+        }
+        if(n == 0) return 0;
+        long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, p)) / 100.0 * n);
+        if(rank < 1) rank = 1;
+        for(int i = 0; i < BUCKETS; i++) {
+            rank -= c[i];
+            if(rank <= 0) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Setzt die Verteilung zurück. Gleichzeitig gezählte Werte können
+     * teilweise erhalten bleiben.
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public String toString() {
+        return "n=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getPercentile50()
+            + " p99=" + getPercentile99() + " max=" + getMax() + " " + unit;
+    }
+}
@@ -0,0 +1,31 @@
+package teaching;
+
+/**
+ * Verwaltungsschnittstelle einer {@link Histogram} für JMX.
+ */
+public interface HistogramMBean {
+
+    /** @return Einheit der Werte */
+    String getUnit();
+
+    /** @return Anzahl der Werte */
+    long getCount();
+
+    /** @return Mittelwert, 0 ohne Werte */
+    double getMean();
+
+    /** @return größter Wert */
+    long getMax();
+
+    /** @return Median */
+    long getPercentile50();
+
+    /** @return 90. Perzentil */
+    long getPercentile90();
+
+    /** @return 99. Perzentil */
+    long getPercentile99();
+
+    /** Setzt die Verteilung zurück */
+    void reset();
+}
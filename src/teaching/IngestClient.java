@@ -0,0 +1,182 @@
+package teaching;
+
+import java.awt.Color;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Sendet Zeichenbefehle an einen {@link IngestServer}.
+ *
+ * Befehle werden gesammelt und als Rahmen verschickt, sobald der Puffer voll
+ * ist oder flush aufgerufen wird. Zeichenelemente werden in der Reihenfolge
+ * ihres Sendens ab 0 nummeriert, diese Nummer liefern die draw-Methoden.
+ * Der Client ist nicht threadsicher.
+ * Mit main kann ein Lasttest gestartet werden.
+ */
+public class IngestClient {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final ByteBuffer buffer;
+    private long nextId = 0;
+
+    /** Verbindet mit einem Ingest-Server auf diesem Rechner.
+     * @param port Port des Servers
+     * @param frameSize Größe eines Rahmens in Byte
+     * @throws IOException wenn keine Verbindung zustande kommt
+     */
+    public IngestClient(int port, int frameSize) throws IOException {
+        socket = new Socket(InetAddress.getByName(null), port);
+        socket.setTcpNoDelay(true);
+        out = new BufferedOutputStream(socket.getOutputStream(), frameSize + 4);
+        buffer = ByteBuffer.allocate(Math.max(frameSize, 64)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Zeichnet eine Linie.
+     * @return Nummer des Zeichenelements
+     */
+    public long drawLine(double xfrom, double yfrom, double xto, double yto, Color color)
+        throws IOException {
+        head(SceneFile.LINE, color, false, 0.0, 32);
+        buffer.putDouble(xfrom);
+        buffer.putDouble(yfrom);
+        buffer.putDouble(xto);
+        buffer.putDouble(yto);
+        return nextId++;
+    }
+
+    /** Zeichnet einen Punkt.
+     * @return Nummer des Zeichenelements
+     */
+    public long drawPoint(double x, double y, Color color) throws IOException {
+        head(SceneFile.POINT, color, true, 0.0, 16);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+        return nextId++;
+    }
+
+    /** Zeichnet ein Rechteck.
+     * @return Nummer des Zeichenelements
+     */
+    public long drawRectangle(double x, double y, double hx, double hy, Color color,
+                              boolean solid, double rotation) throws IOException {
+        head(SceneFile.RECTANGLE, color, solid, rotation, 32);
+        buffer.putDouble(x - hx);
+        buffer.putDouble(y - hy);
+        buffer.putDouble(2 * hx);
+        buffer.putDouble(2 * hy);
+        return nextId++;
+    }
+
+    /** Entfernt ein Zeichenelement wie {@link WhiteBoard#wipeShape(Object)}.
+     * @param id Nummer des Zeichenelements
+     */
+    public void wipeShape(long id) throws IOException {
+        need(9);
+        buffer.put(Journal.WIPE);
+        buffer.putLong(id);
+    }
+
+    /** Verschiebt ein Zeichenelement.
+     * @param id Nummer des Zeichenelements
+     */
+    public void moveShape(long id, double dx, double dy) throws IOException {
+        need(25);
+        buffer.put(Journal.MOVE);
+        buffer.putLong(id);
+        buffer.putDouble(dx);
+        buffer.putDouble(dy);
+    }
+
+    /** Plottet einen Punkt wie {@link WhiteBoard#plotPoint(double, double, Color)} */
+    public void plotPoint(double x, double y, Color color) throws IOException {
+        need(21);
+        buffer.put(Journal.POINT);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+        buffer.putInt(color.getRGB());
+    }
+
+    /** Verschickt alle gesammelten Befehle. */
+    public void flush() throws IOException {
+        send();
+        out.flush();
+    }
+
+    /** Verschickt die gesammelten Befehle und trennt die Verbindung. */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void head(byte kind, Color color, boolean solid, double rotation, int extra)
+        throws IOException {
+        need(15 + extra);
+        buffer.put(Journal.SHAPE);
+        buffer.put(kind);
+        buffer.put(solid ? SceneFile.FILLED : 0);
+        buffer.putInt(color.getRGB());
+        buffer.putDouble(rotation);
+    }
+
+    private void need(int n) throws IOException {
+        if(buffer.remaining() < n) send();
+    }
+
+    /** Schreibt den Puffer als einen Rahmen */
+    private void send() throws IOException {
+        int n = buffer.position();
+        if(n == 0) return;
+        out.write(n);
+        out.write(n >>> 8);
+        out.write(n >>> 16);
+        out.write(n >>> 24);
+        out.write(buffer.array(), 0, n);
+        buffer.clear();
+    }
+
+    /** Lasttest: sendet Linien an einen Ingest-Server und misst den Durchsatz.
+     * Ohne Port wird ein Server mit einer Zeichenfläche ohne Fenster in
+     * diesem Prozess gestartet.
+     * Aufruf: IngestClient [Anzahl [Rahmengröße [Port]]]
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        int frameSize = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 16;
+        IngestServer server = null;
+        int port;
+        if(args.length > 2) {
+            port = Integer.parseInt(args[2]);
+        } else {
+            server = new IngestServer(new WhiteBoard(true), 0, 64, IngestServer.BLOCK);
+            port = server.getPort();
+        }
+        IngestClient c = new IngestClient(port, frameSize);
+        double x = 0, y = 0;
+        java.util.Random r = new java.util.Random(1);
+        long t0 = System.nanoTime();
+        for(int i = 0; i < count; i++) {
+            double nx = x + r.nextGaussian(), ny = y + r.nextGaussian();
+            c.drawLine(x, y, nx, ny, Color.BLACK);
+            x = nx;
+            y = ny;
+        }
+        c.close();
+        long t1 = System.nanoTime();
+        System.out.println(count + " Befehle gesendet in " + (t1 - t0) / 1000000 + " ms, "
+                           + Math.round(count * 1e9 / (t1 - t0)) + " pro Sekunde");
+        if(server != null) {
+            while(server.getApplied() + server.getDropped() + server.getRejected() < count) Thread.sleep(1);
+            long t2 = System.nanoTime();
+            System.out.println(server.getApplied() + " übernommen, " + server.getDropped()
+                               + " verworfen in " + (t2 - t0) / 1000000 + " ms, "
+                               + Math.round(server.getApplied() * 1e9 / (t2 - t0)) + " pro Sekunde");
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package teaching;
+
+import java.awt.Color;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nimmt Zeichenbefehle anderer Prozesse über einen lokalen Socket entgegen.
+ *
+ * Das Protokoll besteht aus Rahmen: eine Länge als int, gefolgt von so vielen
+ * Byte mit Befehlen in der Kodierung des Journals (Operationscode, dann die
+ * Daten), alles little endian. Zeichenelemente werden je Verbindung in der
+ * Reihenfolge ihres Eingangs ab 0 nummeriert; Befehle wie REMOVE oder MOVE
+ * verweisen mit dieser Nummer auf sie.
+ * Jede Verbindung wird von einem eigenen Thread gelesen und dekodiert, die
+ * Rahmen kommen in einen Ringpuffer fester Größe. Ein einzelner Thread
+ * übernimmt sie von dort blockweise in das WhiteBoard und wartet dabei, bis die
+ * Szene die Änderungen aufgenommen hat. Ist der Ringpuffer voll, wird je nach
+ * Verfahren das Lesen angehalten, so dass der Produzent über TCP gebremst wird
+ * (BLOCK), oder der Rahmen verworfen und gezählt (DROP). Die Zeichenelemente
+ * eines verworfenen Rahmens behalten ihre Nummern, Befehle, die auf sie oder
+ * auf bereits entfernte Elemente verweisen, werden abgewiesen und gezählt.
+ * Eine Gegenstelle zum Senden und für Lasttests ist {@link IngestClient}.
+ */
+public class IngestServer {
+
+    /** Verfahren bei vollem Ringpuffer: Lesen anhalten */
+    public static final int BLOCK = 0;
+    /** Verfahren bei vollem Ringpuffer: Rahmen verwerfen */
+    public static final int DROP = 1;
+
+    /** größte zulässige Rahmenlänge */
+    static final int MAX_FRAME = 1 << 24;
+    /** Anzahl Rahmen, die höchstens auf einmal übernommen werden */
+    private static final int MAX_BATCH = 64;
+
+    private final WhiteBoard wb;
+    private final int policy;
+    private final ServerSocket server;
+    private final ArrayBlockingQueue ring;
+    private final ArrayList connections = new ArrayList();
+    private final Thread acceptor, applier;
+    private volatile boolean running = true;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /** Startet einen Ingest-Server auf der Loopback-Schnittstelle.
+     * @param wb Zeichenfläche, auf die gezeichnet wird
+     * @param port Port, 0 für einen freien Port
+     * @param capacity Größe des Ringpuffers in Rahmen
+     * @param policy BLOCK oder DROP
+     * @throws IOException wenn der Port nicht geöffnet werden kann
+     */
+    public IngestServer(WhiteBoard wb, int port, int capacity, int policy) throws IOException {
+        if(policy != BLOCK && policy != DROP) throw new IllegalArgumentException("Verfahren " + policy);
+        this.wb = wb;
+        this.policy = policy;
+        ring = new ArrayBlockingQueue(capacity);
+        server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "WhiteBoard-ingest-accept");
+        applier = new Thread(new Runnable() {
+            public void run() {
+                apply();
+            }
+        }, "WhiteBoard-ingest-apply");
+        acceptor.setDaemon(true);
+        applier.setDaemon(true);
+        acceptor.start();
+        applier.start();
+    }
+
+    /** @return Port, auf dem Verbindungen angenommen werden */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** @return Anzahl empfangener Befehle */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /** @return Anzahl übernommener Befehle */
+    public long getApplied() {
+        return applied.get();
+    }
+
+    /** @return Anzahl bei vollem Ringpuffer verworfener Befehle */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** @return Anzahl abgewiesener Befehle, die auf ein verworfenes oder
+     * bereits entferntes Zeichenelement verweisen
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Schließt den Server und alle Verbindungen. Bereits empfangene Rahmen
+     * werden noch übernommen.
+     */
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        synchronized(connections) {
+            for(int i = 0; i < connections.size(); i++) {
+                try {
+                    ((Socket) connections.get(i)).close();
+                } catch(IOException e) {
+                    // schließen wir ohnehin
+                }
+            }
+        }
+        try {
+            applier.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while(running) {
+            final Socket s;
+            try {
+                s = server.accept();
+            } catch(IOException e) {
+                return;
+            }
+            synchronized(connections) {
+                connections.add(s);
+            }
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    read(s);
+                }
+            }, "WhiteBoard-ingest-" + s.getPort());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /** Liest und dekodiert die Rahmen einer Verbindung */
+    private void read(Socket s) {
+        Handles handles = new Handles();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            byte[] bytes = new byte[1 << 16];
+            byte[] len = new byte[4];
+            while(running) {
+                try {
+                    in.readFully(len);
+                } catch(EOFException e) {
+                    return;
+                }
+                int n = (len[0] & 0xff) | (len[1] & 0xff) << 8 | (len[2] & 0xff) << 16 | (len[3] & 0xff) << 24;
+                if(n < 0 || n > MAX_FRAME) throw new IOException("ungültige Rahmenlänge " + n);
+                if(n > bytes.length) bytes = new byte[n];
+                in.readFully(bytes, 0, n);
+                Frame f = decode(ByteBuffer.wrap(bytes, 0, n).order(ByteOrder.LITTLE_ENDIAN), handles);
+                received.addAndGet(f.commands + f.rejected);
+                rejected.addAndGet(f.rejected);
+                boolean queued = true;
+                if(policy == DROP) {
+                    queued = ring.offer(f);
+                    if(!queued) dropped.addAndGet(f.commands);
+                } else {
+                    ring.put(f);
+                }
+                handles.commit(f, queued);
+            }
+        } catch(IOException e) {
+            // fehlerhafte oder abgebrochene Verbindung, nur diese wird beendet
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                s.close();
+            } catch(IOException e) {
+                // bereits geschlossen
+            }
+            synchronized(connections) {
+                connections.remove(s);
+            }
+        }
+    }
+
+    /** Dekodiert einen Rahmen. Aufeinanderfolgende Zeichenelemente werden
+     * zu einem Feld zusammengefasst, das in einem Schritt übernommen wird.
+     * Die Nummern der Verbindung werden erst mit {@link Handles#commit} fortgeschrieben.
+     */
+    private Frame decode(final ByteBuffer b, Handles handles) throws IOException {
+        SceneFile.Source in = new SceneFile.Source() {
+            ByteBuffer need(int n) throws IOException {
+                if(b.remaining() < n) throw new EOFException("Befehl über Rahmengrenze");
+                return b;
+            }
+        };
+        ArrayList items = new ArrayList();
+        ArrayList shapes = new ArrayList();
+        Frame f = new Frame();
+        while(b.hasRemaining()) {
+            byte op = b.get();
+            f.commands++;
+            if(op == Journal.SHAPE) {
+                WhiteBoard.AttributedShape as = SceneFile.readShape(in, wb);
+                f.added.add(as);
+                shapes.add(as);
+                continue;
+            }
+            if(!shapes.isEmpty()) {
+                items.add(shapes.toArray(new WhiteBoard.AttributedShape[shapes.size()]));
+                shapes.clear();
+            }
+            switch(op) {
+                case Journal.REMOVE:
+                case Journal.WIPE: {
+                    long id = in.need(8).getLong();
+                    Object target = handles.target(f, id);
+                    if(target != null) {
+                        items.add(new Command(op, target));
+                        handles.remove(f, id);
+                    } else {
+                        f.reject();
+                    }
+                    break;
+                }
+                case Journal.MOVE: {
+                    Object target = handles.target(f, in.need(8).getLong());
+                    Command c = new Command(op, target);
+                    c.a = in.need(16).getDouble();
+                    c.b = b.getDouble();
+                    if(target != null) items.add(c);
+                    else f.reject();
+                    break;
+                }
+                case Journal.ROTATE: {
+                    Object target = handles.target(f, in.need(8).getLong());
+                    Command c = new Command(op, target);
+                    c.a = in.need(8).getDouble();
+                    if(target != null) items.add(c);
+                    else f.reject();
+                    break;
+                }
+                case Journal.COLOR: {
+                    Object target = handles.target(f, in.need(8).getLong());
+                    Command c = new Command(op, target);
+                    c.color = in.color(in.need(4).getInt());
+                    if(target != null) items.add(c);
+                    else f.reject();
+                    break;
+                }
+                case Journal.POINT:
+                case Journal.SEGMENT: {
+                    int k = op == Journal.POINT ? 1 : 2;
+                    Command c = new Command(op == Journal.POINT ? Journal.POINTS : Journal.SEGMENTS, null);
+                    c.xs = new double[k];
+                    c.ys = new double[k];
+                    in.need(16 * k + 4);
+                    for(int i = 0; i < k; i++) {
+                        c.xs[i] = b.getDouble();
+                        c.ys[i] = b.getDouble();
+                    }
+                    c.color = in.color(b.getInt());
+                    items.add(c);
+                    break;
+                }
+                case Journal.POINTS:
+                case Journal.SEGMENTS: {
+                    Command c = new Command(op, null);
+                    int n = in.need(8).getInt();
+                    c.color = in.color(b.getInt());
+                    if(n < 0) throw new IOException("ungültige Anzahl " + n);
+                    in.need(16 * n);
+                    c.xs = new double[n];
+                    c.ys = new double[n];
+                    for(int i = 0; i < n; i++) {
+                        c.xs[i] = b.getDouble();
+                        c.ys[i] = b.getDouble();
+                    }
+                    items.add(c);
+                    break;
+                }
+                case Journal.ERASE_POINT:
+                case Journal.ERASE_SEGMENT: {
+                    Command c = new Command(op, null);
+                    c.handle = in.need(4).getInt();
+                    items.add(c);
+                    break;
+                }
+                default:
+                    throw new IOException("unbekannter Befehl " + op);
+            }
+        }
+        if(!shapes.isEmpty()) {
+            items.add(shapes.toArray(new WhiteBoard.AttributedShape[shapes.size()]));
+        }
+        f.items = items.toArray();
+        return f;
+    }
+
+    /** Übernimmt Rahmen aus dem Ringpuffer blockweise in das WhiteBoard */
+    private void apply() {
+        ArrayList batch = new ArrayList();
+        while(running || !ring.isEmpty()) {
+            Object first;
+            try {
+                first = ring.poll(100, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                return;
+            }
+            if(first == null) continue;
+            batch.clear();
+            batch.add(first);
+            ring.drainTo(batch, MAX_BATCH - 1);
+            long n = 0;
+            wb.beginBatch();
+            try {
+                for(int i = 0; i < batch.size(); i++) {
+                    Frame f = (Frame) batch.get(i);
+                    for(int j = 0; j < f.items.length; j++) {
+                        Object item = f.items[j];
+                        if(item instanceof WhiteBoard.AttributedShape[]) {
+                            wb.addShapes((WhiteBoard.AttributedShape[]) item);
+                        } else {
+                            ((Command) item).apply(wb);
+                        }
+                    }
+                    n += f.commands;
+                }
+            } finally {
+                wb.endBatch();
+            }
+            // erst weiterlesen, wenn die Szene mitgekommen ist
+            wb.settle();
+            applied.addAndGet(n);
+        }
+    }
+
+    /** Dekodierter Rahmen */
+    private static class Frame {
+        /** Felder von Zeichenelementen und Befehle in Eingangsreihenfolge */
+        Object[] items;
+        /** Anzahl der enthaltenen, nicht abgewiesenen Befehle */
+        int commands;
+        /** Anzahl der abgewiesenen Befehle */
+        int rejected;
+        /** neue Zeichenelemente in Reihenfolge ihrer Nummern, null wenn im
+         * selben Rahmen wieder entfernt
+         */
+        final ArrayList added = new ArrayList();
+        /** Nummern der entfernten Zeichenelemente (Long) */
+        final HashSet removed = new HashSet();
+
+        void reject() {
+            commands--;
+            rejected++;
+        }
+    }
+
+    /** Nummern der Zeichenelemente einer Verbindung. Gehalten werden nur die
+     * übernommenen und noch nicht entfernten Elemente, die Tabelle wächst
+     * also nicht mit der Dauer der Verbindung. Nur vom lesenden Thread
+     * verwendet.
+     */
+    private static class Handles {
+        /** Zeichenelemente nach Nummer (Long) */
+        private final HashMap live = new HashMap();
+        /** Nummer des ersten Zeichenelements des nächsten Rahmens */
+        private long next = 0;
+
+        /** Sucht das Zeichenelement zu einer Nummer, auch unter den neuen
+         * Elementen des Rahmens.
+         * @return Zeichenelement oder null, wenn es verworfen oder schon
+         * entfernt wurde
+         * @throws IOException wenn die Nummer noch nicht vergeben wurde
+         */
+        Object target(Frame f, long id) throws IOException {
+            if(id < 0 || id >= next + f.added.size()) throw new IOException("unbekanntes Zeichenelement " + id);
+            if(id >= next) return f.added.get((int) (id - next));
+            Long key = Long.valueOf(id);
+            return f.removed.contains(key) ? null : live.get(key);
+        }
+
+        /** Vermerkt das Entfernen eines Zeichenelements im Rahmen */
+        void remove(Frame f, long id) {
+            if(id >= next) f.added.set((int) (id - next), null);
+            else f.removed.add(Long.valueOf(id));
+        }
+
+        /** Schreibt die Nummern nach einem Rahmen fort. Die Elemente eines
+         * verworfenen Rahmens behalten ihre Nummern, werden aber nicht
+         * gehalten, seine Entfernungen gelten nicht.
+         * @param f dekodierter Rahmen
+         * @param queued true, wenn der Rahmen in den Ringpuffer kam
+         */
+        void commit(Frame f, boolean queued) {
+            if(queued) {
+                for(int i = 0; i < f.added.size(); i++) {
+                    Object as = f.added.get(i);
+                    if(as != null) live.put(Long.valueOf(next + i), as);
+                }
+                for(java.util.Iterator it = f.removed.iterator(); it.hasNext(); ) {
+                    live.remove(it.next());
+                }
+            }
+            next += f.added.size();
+        }
+    }
+
+    /** Dekodierter Befehl außer dem Zeichnen neuer Elemente */
+    private static class Command {
+        final byte op;
+        /** betroffenes Zeichenelement, null bei Punkten und Linien */
+        final Object target;
+        double a, b;
+        Color color;
+        double[] xs, ys;
+        int handle;
+
+        Command(byte op, Object target) {
+            this.op = op;
+            this.target = target;
+        }
+
+        void apply(WhiteBoard wb) {
+            switch(op) {
+                case Journal.REMOVE: wb.removeShape(target); break;
+                case Journal.WIPE: wb.wipeShape(target); break;
+                case Journal.MOVE: wb.moveShape(target, a, b); break;
+                case Journal.ROTATE: wb.setRotation(target, a); break;
+                case Journal.COLOR: wb.setColor(target, color); break;
+                case Journal.POINTS: wb.plotPoints(xs, ys, color); break;
+                case Journal.SEGMENTS: wb.plotSegments(xs, ys, color); break;
+                case Journal.ERASE_POINT: wb.erasePoint(handle); break;
+                default: wb.eraseSegment(handle);
+            }
+        }
+    }
+}
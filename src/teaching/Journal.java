@@ -0,0 +1,544 @@
+package teaching;
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Journal der Zeichenoperationen eines WhiteBoard, das nur angehängt wird.
+ *
+ * Jede Operation wird als Eintrag aus Operationscode und Daten abgelegt, neue
+ * Zeichenelemente in der Kodierung von SceneFile. Zeichenelemente erhalten in
+ * der Reihenfolge ihres Eintrags fortlaufende Nummern, über die spätere
+ * Operationen auf sie verweisen. Ebenso erhalten Ebenen ab Version 2 beim
+ * Anlegen oder Laden einen Eintrag mit Name, Höhe, Sichtbarkeit und
+ * Deckkraft und mit jedem Eintrag eine neue Nummer, die den Zeichenelementen
+ * auf ihnen vorangestellt wird. Einträge werden gepuffert und blockweise an
+ * die Datei angehängt; nach einem Absturz endet die Datei daher höchstens mit
+ * einem unvollständigen Eintrag, der beim Einspielen übergangen wird.
+ * Alle Methoden sind threadsicher. Schreibfehler werden vermerkt und beim
+ * nächsten sync oder close geworfen, die Zeichenmethoden selbst werfen nicht.
+ */
+class Journal {
+
+    /** Kennung "WBJL" am Dateianfang */
+    static final int MAGIC = 0x57424a4c;
+    static final int VERSION = 2;
+
+    /** Operationscodes */
+    static final byte SHAPE = 1, REMOVE = 2, WIPE = 3, MOVE = 4, ROTATE = 5, COLOR = 6,
+        POINT = 7, SEGMENT = 8, POINTS = 9, SEGMENTS = 10, ERASE_POINT = 11, ERASE_SEGMENT = 12,
+        LAYER = 13, LAYER_Z = 14, TEMPLATE = 15, STAMPS = 16, ERASE_STAMP = 17,
+        LAYER_VISIBLE = 18, LAYER_OPACITY = 19;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private final SceneFile.Sink sink = new SceneFile.Sink() {
+        ByteBuffer need(int n) throws IOException {
+            if(buffer.remaining() < n) flush();
+            return buffer;
+        }
+    };
+    /** Nummer des nächsten Zeichenelements */
+    private long nextId;
+    /** jeweils letzte Nummer der bereits vermerkten Ebenen nach ihrem Namen */
+    private final HashMap layerIds = new HashMap();
+    /** Nummer des nächsten Ebeneneintrags */
+    private int nextLayer;
+    /** erster Schreibfehler, danach wird nichts mehr geschrieben */
+    private IOException failure;
+    private boolean closed = false;
+
+    /** Öffnet ein Journal zum Anhängen. Ein vorhandener Inhalt ab der Länge
+     * valid wird abgeschnitten.
+     * @param file Journaldatei
+     * @param valid Länge des gültigen Inhalts, wie von replay geliefert
+     * @param nextId Nummer des nächsten Zeichenelements
+     * @param layers Namen der bereits vermerkten Ebenen in der Reihenfolge
+     * ihrer Nummern, wie von replay geliefert
+     */
+    Journal(File file, long valid, long nextId, ArrayList layers) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            channel.truncate(valid);
+            channel.position(valid);
+        } catch(IOException e) {
+            raf.close();
+            throw e;
+        }
+        if(valid == 0) {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+        }
+        this.nextId = nextId;
+        for(int i = 0; i < layers.size(); i++) layerIds.put(layers.get(i), Integer.valueOf(i));
+        nextLayer = layers.size();
+    }
+
+    /** Vermerkt ein neues Zeichenelement und vergibt seine Nummer. Wird wie
+     * alle Operationen auf Zeichenelemente bei der Übernahme in die Szene
+     * unter deren Schreibsperre aufgerufen, damit die Einträge in der
+     * Reihenfolge stehen, in der die Operationen wirksam wurden.
+     */
+    synchronized void shape(WhiteBoard.AttributedShape as) {
+        if(failure != null || closed) return;
+        as.journalId = nextId++;
+        try {
+            int layer = layerId(as.layer);
+            sink.need(5).put(SHAPE).putInt(layer);
+            SceneFile.writeShape(sink, as);
+        } catch(IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Vermerkt eine angelegte oder geladene Ebene mit allen Einstellungen.
+     * Muss wie alle Ebenenoperationen synchronisiert auf die Ebenen des
+     * WhiteBoard aufgerufen werden.
+     */
+    synchronized void layer(WhiteBoard.Layer l) {
+        if(failure != null || closed) return;
+        try {
+            writeLayer(l);
+        } catch(IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Vermerkt alle Ebenen, die noch keinen Eintrag haben, siehe
+     * {@link #layer(WhiteBoard.Layer)}
+     */
+    synchronized void layers(WhiteBoard.Layer[] order) {
+        if(failure != null || closed) return;
+        try {
+            for(int i = 0; i < order.length; i++) layerId(order[i]);
+        } catch(IOException e) {
+            failure = e;
+        }
+    }
+
+    /** @return Nummer einer Ebene; eine noch nicht vermerkte wird zuerst
+     * eingetragen
+     */
+    private int layerId(WhiteBoard.Layer l) throws IOException {
+        Integer id = (Integer) layerIds.get(l.name);
+        return id != null ? id.intValue() : writeLayer(l);
+    }
+
+    /** @return Nummer des neuen Eintrags */
+    private int writeLayer(WhiteBoard.Layer l) throws IOException {
+        sink.need(1).put(LAYER);
+        SceneFile.writeLayer(sink, l);
+        int id = nextLayer++;
+        layerIds.put(l.name, Integer.valueOf(id));
+        return id;
+    }
+
+    /** Vermerkt die Höhe einer Ebene, siehe {@link #layer(WhiteBoard.Layer)} */
+    synchronized void layerZ(WhiteBoard.Layer l) {
+        ByteBuffer b = layerEntry(LAYER_Z, l, 4);
+        if(b != null) b.putInt(l.z);
+    }
+
+    /** Vermerkt die Sichtbarkeit einer Ebene, siehe {@link #layer(WhiteBoard.Layer)} */
+    synchronized void layerVisible(WhiteBoard.Layer l) {
+        ByteBuffer b = layerEntry(LAYER_VISIBLE, l, 1);
+        if(b != null) b.put(l.visible ? (byte) 1 : 0);
+    }
+
+    /** Vermerkt die Deckkraft einer Ebene, siehe {@link #layer(WhiteBoard.Layer)} */
+    synchronized void layerOpacity(WhiteBoard.Layer l) {
+        ByteBuffer b = layerEntry(LAYER_OPACITY, l, 4);
+        if(b != null) b.putFloat(l.opacity);
+    }
+
+    /** Beginnt einen Eintrag zu einer Ebene mit Operationscode und Nummer.
+     * @param n Länge der folgenden Daten
+     * @return Puffer für die Daten, null nach einem Fehler
+     */
+    private ByteBuffer layerEntry(byte op, WhiteBoard.Layer l, int n) {
+        if(failure != null || closed) return null;
+        try {
+            int id = layerId(l);
+            return sink.need(5 + n).put(op).putInt(id);
+        } catch(IOException e) {
+            failure = e;
+            return null;
+        }
+    }
+
+    /** Vermerkt das Entfernen eines Zeichenelements. Elemente, die nicht im
+     * Journal stehen, werden übergangen.
+     * @param wipe true für wipeShape, false für removeShape
+     */
+    synchronized void remove(WhiteBoard.AttributedShape as, boolean wipe) {
+        if(as.journalId < 0) return;
+        ByteBuffer b = need(9);
+        if(b == null) return;
+        b.put(wipe ? WIPE : REMOVE);
+        b.putLong(as.journalId);
+    }
+
+    /** Vermerkt eine Verschiebung */
+    synchronized void move(WhiteBoard.AttributedShape as, double dx, double dy) {
+        if(as.journalId < 0) return;
+        ByteBuffer b = need(25);
+        if(b == null) return;
+        b.put(MOVE);
+        b.putLong(as.journalId);
+        b.putDouble(dx);
+        b.putDouble(dy);
+    }
+
+    /** Vermerkt eine neue Drehung */
+    synchronized void rotate(WhiteBoard.AttributedShape as, double rotation) {
+        if(as.journalId < 0) return;
+        ByteBuffer b = need(17);
+        if(b == null) return;
+        b.put(ROTATE);
+        b.putLong(as.journalId);
+        b.putDouble(rotation);
+    }
+
+    /** Vermerkt eine neue Farbe */
+    synchronized void color(WhiteBoard.AttributedShape as, Color color) {
+        if(as.journalId < 0) return;
+        ByteBuffer b = need(13);
+        if(b == null) return;
+        b.put(COLOR);
+        b.putLong(as.journalId);
+        b.putInt(color.getRGB());
+    }
+
+    /** Vermerkt einen geplotteten Punkt. Muss in derselben Sperre wie das
+     * Eintragen in den PrimitiveStore aufgerufen werden, damit die Indizes
+     * beim Einspielen übereinstimmen.
+     */
+    synchronized void point(double x, double y, int argb) {
+        ByteBuffer b = need(21);
+        if(b == null) return;
+        b.put(POINT);
+        b.putDouble(x);
+        b.putDouble(y);
+        b.putInt(argb);
+    }
+
+    /** Vermerkt eine geplottete Linie, siehe {@link #point(double, double, int)} */
+    synchronized void segment(double x1, double y1, double x2, double y2, int argb) {
+        ByteBuffer b = need(37);
+        if(b == null) return;
+        b.put(SEGMENT);
+        b.putDouble(x1);
+        b.putDouble(y1);
+        b.putDouble(x2);
+        b.putDouble(y2);
+        b.putInt(argb);
+    }
+
+    /** Vermerkt viele geplottete Punkte einer Farbe, siehe
+     * {@link #point(double, double, int)}
+     */
+    synchronized void points(double[] xs, double[] ys, int n, int argb) {
+        vertices(POINTS, xs, ys, n, argb);
+    }
+
+    /** Vermerkt eine Folge geplotteter Linien durch n Punkte, siehe
+     * {@link #point(double, double, int)}
+     */
+    synchronized void segments(double[] xs, double[] ys, int n, int argb) {
+        vertices(SEGMENTS, xs, ys, n, argb);
+    }
+
+    /** @param argb Farbe, bei STAMPS die Vorlage */
+    private void vertices(byte op, double[] xs, double[] ys, int n, int argb) {
+        ByteBuffer b = need(9);
+        if(b == null) return;
+        b.put(op);
+        b.putInt(n);
+        b.putInt(argb);
+        for(int i = 0; i < n && b != null; i++) {
+            b = need(16);
+            if(b == null) return;
+            b.putDouble(xs[i]);
+            b.putDouble(ys[i]);
+        }
+    }
+
+    /** Vermerkt das Löschen eines geplotteten Punkts oder einer Linie */
+    synchronized void erase(boolean point, int handle) {
+        ByteBuffer b = need(5);
+        if(b == null) return;
+        b.put(point ? ERASE_POINT : ERASE_SEGMENT);
+        b.putInt(handle);
+    }
+
+    /** Vermerkt eine neue Vorlage für gestempelte Kopien. Muss in derselben
+     * Sperre wie das Eintragen in den StampStore aufgerufen werden, damit die
+     * Nummern beim Einspielen übereinstimmen.
+     */
+    synchronized void template(WhiteBoard.AttributedShape prototype) {
+        if(failure != null || closed) return;
+        try {
+            sink.need(1).put(TEMPLATE);
+            SceneFile.writeShape(sink, prototype);
+        } catch(IOException e) {
+            failure = e;
+        }
+    }
+
+    /** Vermerkt eine Kopie, siehe {@link #template(WhiteBoard.AttributedShape)}
+     * @param template Vorlage oder StampStore.ERASED für eine gelöscht geladene Kopie
+     */
+    synchronized void stamp(int template, double x, double y) {
+        stamps(template, new double[] {x}, new double[] {y}, 1);
+    }
+
+    /** Vermerkt n Kopien einer Vorlage, siehe {@link #template(WhiteBoard.AttributedShape)} */
+    synchronized void stamps(int template, double[] xs, double[] ys, int n) {
+        vertices(STAMPS, xs, ys, n, template);
+    }
+
+    /** Vermerkt das Löschen einer Kopie */
+    synchronized void eraseStamp(int handle) {
+        ByteBuffer b = need(5);
+        if(b == null) return;
+        b.put(ERASE_STAMP);
+        b.putInt(handle);
+    }
+
+    /** Schreibt den Puffer und erzwingt die Ablage auf dem Datenträger.
+     * @throws IOException erster bisher aufgetretener Schreibfehler
+     */
+    synchronized void sync() throws IOException {
+        if(failure == null && !closed) {
+            try {
+                flush();
+                channel.force(false);
+            } catch(IOException e) {
+                failure = e;
+            }
+        }
+        if(failure != null) throw failure;
+    }
+
+    /** Schreibt den Puffer und schließt die Datei.
+     * @throws IOException erster aufgetretener Schreibfehler
+     */
+    synchronized void close() throws IOException {
+        if(closed) return;
+        try {
+            if(failure == null) flush();
+        } catch(IOException e) {
+            failure = e;
+        } finally {
+            closed = true;
+            channel.close();
+        }
+        if(failure != null) throw failure;
+    }
+
+    /** @return Puffer mit mindestens n freien Byte, null nach einem Fehler */
+    private ByteBuffer need(int n) {
+        if(failure != null || closed) return null;
+        try {
+            return sink.need(n);
+        } catch(IOException e) {
+            failure = e;
+            return null;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Spielt ein Journal auf einem WhiteBoard ein. Ein unvollständiger letzter
+     * Eintrag wird übergangen.
+     * @param file Journaldatei
+     * @param wb Ziel
+     * @param handles erhält die eingespielten Zeichenelemente in der
+     * Reihenfolge ihrer Nummern
+     * @param layers erhält die Namen der eingespielten Ebenen in der
+     * Reihenfolge ihrer Nummern
+     * @param resume true, wenn das Journal danach fortgesetzt wird; Journale
+     * älterer Versionen lassen sich nur einspielen und werden dann abgelehnt
+     * @return Länge des gültigen Inhalts, 0 wenn die Datei leer ist
+     */
+    static long replay(File file, WhiteBoard wb, ArrayList handles, ArrayList layers, boolean resume)
+        throws IOException {
+        if(!file.exists()) return 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            SceneFile.MappedSource in = new SceneFile.MappedSource(raf.getChannel(), size);
+            long valid = 0;
+            wb.beginBatch();
+            try {
+                ByteBuffer b = in.need(8);
+                if(b.getInt() != MAGIC) throw new IOException("kein Journal: " + file);
+                int version = b.getInt();
+                if(version < 1 || version > VERSION) throw new IOException("unbekannte Version " + version);
+                if(resume && version != VERSION) {
+                    throw new IOException("Journal der Version " + version + " kann nicht fortgesetzt werden: " + file);
+                }
+                valid = in.position();
+                while(valid < size) {
+                    apply(in, wb, handles, layers, version);
+                    valid = in.position();
+                }
+            } catch(EOFException e) {
+                // abgeschnittener letzter Eintrag
+            } finally {
+                wb.endBatch();
+            }
+            return valid;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Liest einen Eintrag vollständig und führt ihn dann aus
+     * @param version Version des Journals
+     */
+    private static void apply(SceneFile.MappedSource in, WhiteBoard wb, ArrayList handles,
+                              ArrayList layers, int version) throws IOException {
+        byte op = in.need(1).get();
+        ByteBuffer b;
+        switch(op) {
+            case SHAPE: {
+                String layer = version >= 2 ? layer(layers, in.need(4).getInt()) : null;
+                WhiteBoard.AttributedShape as = SceneFile.readShape(in, wb);
+                if(layer != null) wb.assignLayer(as, layer);
+                as.journalId = handles.size();
+                handles.add(as);
+                wb.add(as);
+                break;
+            }
+            case REMOVE:
+            case WIPE: {
+                Object target = lookup(handles, in.need(8).getLong());
+                if(op == WIPE) wb.wipeShape(target);
+                else wb.removeShape(target);
+                break;
+            }
+            case MOVE: {
+                b = in.need(24);
+                Object target = lookup(handles, b.getLong());
+                wb.moveShape(target, b.getDouble(), b.getDouble());
+                break;
+            }
+            case ROTATE: {
+                b = in.need(16);
+                Object target = lookup(handles, b.getLong());
+                wb.setRotation(target, b.getDouble());
+                break;
+            }
+            case COLOR: {
+                b = in.need(12);
+                Object target = lookup(handles, b.getLong());
+                wb.setColor(target, in.color(b.getInt()));
+                break;
+            }
+            case POINT: {
+                b = in.need(20);
+                double x = b.getDouble(), y = b.getDouble();
+                wb.plotPoint(x, y, in.color(b.getInt()));
+                break;
+            }
+            case SEGMENT: {
+                b = in.need(36);
+                double x1 = b.getDouble(), y1 = b.getDouble(), x2 = b.getDouble(), y2 = b.getDouble();
+                wb.plotSegment(x1, y1, x2, y2, in.color(b.getInt()));
+                break;
+            }
+            case POINTS:
+            case SEGMENTS: {
+                b = in.need(8);
+                int n = b.getInt();
+                Color color = in.color(b.getInt());
+                if(n < 0) throw new IOException("ungültige Anzahl " + n);
+                double[] xs = new double[n], ys = new double[n];
+                for(int i = 0; i < n; i++) {
+                    b = in.need(16);
+                    xs[i] = b.getDouble();
+                    ys[i] = b.getDouble();
+                }
+                if(op == POINTS) wb.plotPoints(xs, ys, color);
+                else wb.plotSegments(xs, ys, color);
+                break;
+            }
+            case ERASE_POINT:
+                wb.erasePoint(in.need(4).getInt());
+                break;
+            case ERASE_SEGMENT:
+                wb.eraseSegment(in.need(4).getInt());
+                break;
+            case LAYER:
+                layers.add(SceneFile.readLayer(in, wb));
+                break;
+            case LAYER_Z: {
+                b = in.need(8);
+                String name = layer(layers, b.getInt());
+                wb.setLayerZ(name, b.getInt());
+                break;
+            }
+            case LAYER_VISIBLE: {
+                b = in.need(5);
+                String name = layer(layers, b.getInt());
+                wb.setLayerVisible(name, b.get() != 0);
+                break;
+            }
+            case LAYER_OPACITY: {
+                b = in.need(8);
+                String name = layer(layers, b.getInt());
+                wb.setLayerOpacity(name, SceneFile.opacity(b.getFloat()));
+                break;
+            }
+            case TEMPLATE:
+                wb.loadedTemplate(SceneFile.readShape(in, wb));
+                break;
+            case STAMPS: {
+                b = in.need(8);
+                int n = b.getInt();
+                int template = b.getInt();
+                if(n < 0) throw new IOException("ungültige Anzahl " + n);
+                if(template != StampStore.ERASED && (template < 0 || template >= wb.templateCount())) {
+                    throw new IOException("unbekannte Vorlage " + template);
+                }
+                double[] xs = new double[n], ys = new double[n];
+                int[] templates = new int[n];
+                for(int i = 0; i < n; i++) {
+                    b = in.need(16);
+                    xs[i] = b.getDouble();
+                    ys[i] = b.getDouble();
+                    templates[i] = template;
+                }
+                wb.loadedStamps(xs, ys, templates, n);
+                break;
+            }
+            case ERASE_STAMP:
+                wb.eraseStamp(in.need(4).getInt());
+                break;
+            default:
+                throw new IOException("unbekannte Operation " + op + " an Position "
+                                      + (in.position() - 1));
+        }
+    }
+
+    private static Object lookup(ArrayList handles, long id) throws IOException {
+        if(id < 0 || id >= handles.size()) throw new IOException("unbekanntes Zeichenelement " + id);
+        return handles.get((int) id);
+    }
+
+    private static String layer(ArrayList layers, int id) throws IOException {
+        if(id < 0 || id >= layers.size()) throw new IOException("unbekannte Ebene " + id);
+        return (String) layers.get(id);
+    }
+}
@@ -0,0 +1,314 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.*;
+
+/**
+ * Offener Linienzug mit sehr vielen Stützpunkten in voller double-Genauigkeit.
+ *
+ * Über den Stützpunkten wird eine Pyramide von Randrechtecken aufgebaut: auf
+ * der untersten Stufe je LEAF aufeinanderfolgende Punkte und der erste Punkt
+ * des nächsten Abschnitts, so dass jede Teilstrecke ganz in einem Rechteck
+ * liegt, auf jeder weiteren Stufe je zwei Rechtecke der Stufe darunter. Beim Zeichnen wird die Pyramide
+ * von oben durchlaufen. Abschnitte außerhalb des Clip werden übersprungen,
+ * Abschnitte, die in ein Bildschirmpixel passen, werden durch eine einzige
+ * Linie vom ersten zum letzten Punkt ersetzt. Gezeichnet werden so höchstens
+ * einige Punkte pro Pixel, unabhängig von der Anzahl der Stützpunkte.
+ * Die Pyramide belegt etwa 4 Byte pro Stützpunkt zusätzlich zu den 16 Byte
+ * der Koordinaten.
+ * Der Linienzug ist nicht synchronisiert, der Aufrufer muss Änderungen
+ * gegen gleichzeitiges Zeichnen schützen.
+ */
+class Polyline implements Shape {
+
+    /** Anzahl der Punkte, die ein Rechteck der untersten Stufe zusammenfasst */
+    static final int LEAF = 16;
+
+    private final double[] x, y;
+    private final int n;
+    /** Randrechtecke je Stufe, jeweils x1, y1, x2, y2 hintereinander */
+    private final double[][] levels;
+
+    /** Legt einen Linienzug an. Die Felder werden übernommen, nicht kopiert.
+     * @param x x Koordinaten
+     * @param y y Koordinaten
+     * @param n Anzahl der Punkte, mindestens 1
+     */
+    Polyline(double[] x, double[] y, int n) {
+        this.x = x;
+        this.y = y;
+        this.n = n;
+        int count = 1;
+        int m = (n + LEAF - 1) / LEAF;
+        for(int k = m; k > 1; k = (k + 1) / 2) count++;
+        levels = new double[count][];
+        double[] b = new double[4 * m];
+        for(int i = 0; i < m; i++) {
+            int from = i * LEAF, to = Math.min(n, from + LEAF + 1);
+            double x1 = x[from], y1 = y[from], x2 = x1, y2 = y1;
+            for(int j = from + 1; j < to; j++) {
+                if(x[j] < x1) x1 = x[j];
+                if(x[j] > x2) x2 = x[j];
+                if(y[j] < y1) y1 = y[j];
+                if(y[j] > y2) y2 = y[j];
+            }
+            b[4 * i] = x1;
+            b[4 * i + 1] = y1;
+            b[4 * i + 2] = x2;
+            b[4 * i + 3] = y2;
+        }
+        levels[0] = b;
+        for(int l = 1; l < count; l++) {
+            double[] c = levels[l - 1];
+            int cm = c.length / 4;
+            b = new double[4 * ((cm + 1) / 2)];
+            for(int i = 0; i < cm; i += 2) {
+                int p = 4 * (i / 2);
+                b[p] = c[4 * i];
+                b[p + 1] = c[4 * i + 1];
+                b[p + 2] = c[4 * i + 2];
+                b[p + 3] = c[4 * i + 3];
+                if(i + 1 < cm) {
+                    b[p] = Math.min(b[p], c[4 * i + 4]);
+                    b[p + 1] = Math.min(b[p + 1], c[4 * i + 5]);
+                    b[p + 2] = Math.max(b[p + 2], c[4 * i + 6]);
+                    b[p + 3] = Math.max(b[p + 3], c[4 * i + 7]);
+                }
+            }
+            levels[l] = b;
+        }
+    }
+
+    /** @return Anzahl der Stützpunkte */
+    int size() {
+        return n;
+    }
+
+    /** @param i Index des Stützpunkts
+     * @return x Koordinate
+     */
+    double getX(int i) {
+        return x[i];
+    }
+
+    /** @param i Index des Stützpunkts
+     * @return y Koordinate
+     */
+    double getY(int i) {
+        return y[i];
+    }
+
+    /** @return unabhängige Kopie mit eigenen Koordinaten */
+    Polyline copy() {
+        double[] cx = new double[n], cy = new double[n];
+        System.arraycopy(x, 0, cx, 0, n);
+        System.arraycopy(y, 0, cy, 0, n);
+        return new Polyline(cx, cy, n);
+    }
+
+    /** Verschiebt den Linienzug samt Pyramide an Ort und Stelle.
+     * @param dx Verschiebung in x Richtung
+     * @param dy Verschiebung in y Richtung
+     */
+    void translate(double dx, double dy) {
+        for(int i = 0; i < n; i++) {
+            x[i] += dx;
+            y[i] += dy;
+        }
+        for(int l = 0; l < levels.length; l++) {
+            double[] b = levels[l];
+            for(int i = 0; i < b.length; i += 4) {
+                b[i] += dx;
+                b[i + 1] += dy;
+                b[i + 2] += dx;
+                b[i + 3] += dy;
+            }
+        }
+    }
+
+    /** Zeichnet den sichtbaren Teil des Linienzugs mit der zum Maßstab des
+     * Grafikkontexts passenden Detailstufe.
+     * @param g2 Grafikkontext in Zeichnungskoordinaten
+     */
+    void draw(Graphics2D g2) {
+        AffineTransform t = g2.getTransform();
+        double scale = Math.sqrt(Math.abs(t.getDeterminant()));
+        double pixel = scale > 0 ? 1.0 / scale : 1.0;
+        Shape c = g2.getClip();
+        Rectangle2D clip = c != null ? c.getBounds2D() : getBounds2D();
+        Walk w = new Walk(clip.getMinX() - pixel, clip.getMinY() - pixel,
+                          clip.getMaxX() + pixel, clip.getMaxY() + pixel, pixel);
+        w.visit(levels.length - 1, 0);
+        g2.draw(w.path);
+    }
+
+    /** Durchlauf der Pyramide für eine Darstellung */
+    private class Walk {
+        final double cx1, cy1, cx2, cy2, pixel;
+        final Path2D.Double path = new Path2D.Double();
+        /** true, wenn der nächste Punkt mit dem vorigen verbunden wird */
+        boolean down = false;
+
+        Walk(double cx1, double cy1, double cx2, double cy2, double pixel) {
+            this.cx1 = cx1;
+            this.cy1 = cy1;
+            this.cx2 = cx2;
+            this.cy2 = cy2;
+            this.pixel = pixel;
+        }
+
+        void visit(int level, int i) {
+            double[] b = levels[level];
+            int from = (i * LEAF) << level;
+            int to = (int) Math.min(n, (long) from + ((long) LEAF << level)) - 1;
+            double x1 = b[4 * i], y1 = b[4 * i + 1], x2 = b[4 * i + 2], y2 = b[4 * i + 3];
+            if(x2 < cx1 || x1 > cx2 || y2 < cy1 || y1 > cy2) {
+                // nur die Verbindungen zu den Nachbarabschnitten zeichnen
+                emit(from);
+                down = false;
+                emit(to);
+            } else if(x2 - x1 <= pixel && y2 - y1 <= pixel) {
+                emit(from);
+                emit(to);
+            } else if(level == 0) {
+                for(int j = from; j <= to; j++) emit(j);
+            } else {
+                visit(level - 1, 2 * i);
+                if(4 * (2 * i + 1) < levels[level - 1].length) visit(level - 1, 2 * i + 1);
+            }
+        }
+
+        void emit(int j) {
+            if(down) {
+                path.lineTo(x[j], y[j]);
+            } else {
+                path.moveTo(x[j], y[j]);
+                down = true;
+            }
+        }
+    }
+
+    /** Prüft, ob der Linienzug einem Punkt nahe kommt. Nur Abschnitte, deren
+     * Randrechteck in Reichweite liegt, werden durchsucht.
+     * @param px x Koordinate des Punkts
+     * @param py y Koordinate des Punkts
+     * @param reach größter Abstand
+     * @return true, wenn eine Teilstrecke höchstens reach vom Punkt entfernt ist
+     */
+    boolean near(double px, double py, double reach) {
+        return near(levels.length - 1, 0, px, py, reach);
+    }
+
+    private boolean near(int level, int i, double px, double py, double reach) {
+        double[] b = levels[level];
+        if(px < b[4 * i] - reach || px > b[4 * i + 2] + reach
+           || py < b[4 * i + 1] - reach || py > b[4 * i + 3] + reach) return false;
+        if(level > 0) {
+            return near(level - 1, 2 * i, px, py, reach)
+                || (4 * (2 * i + 1) < levels[level - 1].length
+                    && near(level - 1, 2 * i + 1, px, py, reach));
+        }
+        int from = i * LEAF, to = Math.min(n - 1, from + LEAF);
+        if(from == to) return Point2D.distanceSq(x[from], y[from], px, py) <= reach * reach;
+        for(int j = from; j < to; j++) {
+            if(Line2D.ptSegDistSq(x[j], y[j], x[j + 1], y[j + 1], px, py) <= reach * reach) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Prüft, ob der Linienzug selbst, nicht die von ihm umschlossene Fläche,
+     * ein Rechteck berührt.
+     * @param r Rechteck
+     * @return true, wenn eine Teilstrecke das Rechteck schneidet
+     */
+    boolean touches(Rectangle2D r) {
+        return touches(levels.length - 1, 0, r);
+    }
+
+    private boolean touches(int level, int i, Rectangle2D r) {
+        double[] b = levels[level];
+        if(b[4 * i + 2] < r.getMinX() || b[4 * i] > r.getMaxX()
+           || b[4 * i + 3] < r.getMinY() || b[4 * i + 1] > r.getMaxY()) return false;
+        if(level > 0) {
+            return touches(level - 1, 2 * i, r)
+                || (4 * (2 * i + 1) < levels[level - 1].length && touches(level - 1, 2 * i + 1, r));
+        }
+        int from = i * LEAF, to = Math.min(n - 1, from + LEAF);
+        if(from == to) return r.contains(x[from], y[from]);
+        for(int j = from; j < to; j++) {
+            if(r.intersectsLine(x[j], y[j], x[j + 1], y[j + 1])) return true;
+        }
+        return false;
+    }
+
+    public Rectangle getBounds() {
+        return getBounds2D().getBounds();
+    }
+
+    public Rectangle2D getBounds2D() {
+        double[] b = levels[levels.length - 1];
+        return new Rectangle2D.Double(b[0], b[1], b[2] - b[0], b[3] - b[1]);
+    }
+
+    public boolean contains(double px, double py) {
+        return Path2D.contains(getPathIterator(null), px, py);
+    }
+
+    public boolean contains(Point2D p) {
+        return contains(p.getX(), p.getY());
+    }
+
+    public boolean intersects(double rx, double ry, double w, double h) {
+        return Path2D.intersects(getPathIterator(null), rx, ry, w, h);
+    }
+
+    public boolean intersects(Rectangle2D r) {
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    public boolean contains(double rx, double ry, double w, double h) {
+        return Path2D.contains(getPathIterator(null), rx, ry, w, h);
+    }
+
+    public boolean contains(Rectangle2D r) {
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    public PathIterator getPathIterator(final AffineTransform at) {
+        return new PathIterator() {
+            private int i = 0;
+
+            public int getWindingRule() {
+                return WIND_NON_ZERO;
+            }
+
+            public boolean isDone() {
+                return i >= n;
+            }
+
+            public void next() {
+                i++;
+            }
+
+            public int currentSegment(float[] coords) {
+                coords[0] = (float) x[i];
+                coords[1] = (float) y[i];
+                if(at != null) at.transform(coords, 0, coords, 0, 1);
+                return i == 0 ? SEG_MOVETO : SEG_LINETO;
+            }
+
+            public int currentSegment(double[] coords) {
+                coords[0] = x[i];
+                coords[1] = y[i];
+                if(at != null) at.transform(coords, 0, coords, 0, 1);
+                return i == 0 ? SEG_MOVETO : SEG_LINETO;
+            }
+        };
+    }
+
+    public PathIterator getPathIterator(AffineTransform at, double flatness) {
+        return getPathIterator(at);
+    }
+}
@@ -0,0 +1,276 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.*;
+
+/**
+ * Spaltenweiser Speicher für Punkte und Linien eines WhiteBoard.
+ *
+ * Statt für jeden Punkt ein Shape- und ein AttributedShape-Objekt anzulegen,
+ * werden Koordinaten und Farben in parallelen Feldern abgelegt. Ein Punkt
+ * belegt so 20 Byte (zwei double und eine gepackte ARGB-Farbe), eine Linie
+ * 36 Byte. Die Elemente werden über ihren Index angesprochen; gelöschte
+ * Elemente behalten ihren Platz und werden nur unsichtbar gemacht.
+ * Schreibende Zugriffe müssen vom Aufrufer synchronisiert werden. paint darf
+ * ohne Sperre parallel dazu laufen: die Felder werden nur vergrößert, indem
+ * sie kopiert werden, und neue Elemente werden erst mit {@link #publish()}
+ * sichtbar, das Felder und Anzahl gemeinsam in einem Objekt veröffentlicht.
+ */
+class PrimitiveStore {
+
+    /** Farbwert gelöschter Elemente, völlig transparent */
+    static final int ERASED = 0;
+
+    /** Koordinaten der Punkte */
+    private double[] px = new double[16], py = new double[16];
+    /** Farben der Punkte als ARGB */
+    private int[] pargb = new int[16];
+    /** Anzahl belegter Punkte */
+    private int points = 0;
+
+    /** Koordinaten der Linien */
+    private double[] sx1 = new double[16], sy1 = new double[16];
+    /** Koordinaten der Linien */
+    private double[] sx2 = new double[16], sy2 = new double[16];
+    /** Farben der Linien als ARGB */
+    private int[] sargb = new int[16];
+    /** Anzahl belegter Linien */
+    private int segments = 0;
+
+    /** Zuletzt veröffentlichte Punkte und Linien, für paint */
+    private volatile Columns publishedPoints = new Columns(px, py, null, null, pargb, 0);
+    private volatile Columns publishedSegments = new Columns(sx1, sy1, sx2, sy2, sargb, 0);
+
+    /** Randkoordinaten aller jemals eingetragenen Elemente */
+    double x1, y1, x2, y2;
+    /** true, solange noch kein Element eingetragen wurde */
+    private boolean empty = true;
+
+    /** Felder einer Art von Elementen zusammen mit der Anzahl, die paint
+     * daraus lesen darf, unveränderlich. Die Felder enthalten mindestens
+     * count Elemente.
+     */
+    private static final class Columns {
+        final double[] x1, y1, x2, y2;
+        final int[] argb;
+        final int count;
+
+        Columns(double[] x1, double[] y1, double[] x2, double[] y2, int[] argb, int count) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.argb = argb;
+            this.count = count;
+        }
+    }
+
+    /** Trägt einen Punkt ein, sichtbar erst nach {@link #publish()}.
+     * @param x Koordinate
+     * @param y Koordinate
+     * @param argb Farbe
+     * @return Index des Punkts
+     */
+    int addPoint(double x, double y, int argb) {
+        if(points == px.length) {
+            int n = points * 3 / 2 + 1;
+            px = grow(px, n);
+            py = grow(py, n);
+            pargb = grow(pargb, n);
+        }
+        px[points] = x;
+        py[points] = y;
+        pargb[points] = argb;
+        include(x - 1, y - 1, x + 1, y + 1);
+        return points++;
+    }
+
+    /** Trägt eine Linie ein, sichtbar erst nach {@link #publish()}.
+     * @param xfrom x Startkoordinate
+     * @param yfrom y Startkoordinate
+     * @param xto x Zielkoordinate
+     * @param yto y Zielkoordinate
+     * @param argb Farbe
+     * @return Index der Linie
+     */
+    int addSegment(double xfrom, double yfrom, double xto, double yto, int argb) {
+        if(segments == sx1.length) {
+            int n = segments * 3 / 2 + 1;
+            sx1 = grow(sx1, n);
+            sy1 = grow(sy1, n);
+            sx2 = grow(sx2, n);
+            sy2 = grow(sy2, n);
+            sargb = grow(sargb, n);
+        }
+        sx1[segments] = xfrom;
+        sy1[segments] = yfrom;
+        sx2[segments] = xto;
+        sy2[segments] = yto;
+        sargb[segments] = argb;
+        include(Math.min(xfrom, xto), Math.min(yfrom, yto),
+                Math.max(xfrom, xto), Math.max(yfrom, yto));
+        return segments++;
+    }
+
+    /** Macht alle eingetragenen Elemente für paint sichtbar. Muss nach dem
+     * Eintragen noch unter derselben Synchronisation aufgerufen werden.
+     */
+    void publish() {
+        if(publishedPoints.count != points) {
+            publishedPoints = new Columns(px, py, null, null, pargb, points);
+        }
+        if(publishedSegments.count != segments) {
+            publishedSegments = new Columns(sx1, sy1, sx2, sy2, sargb, segments);
+        }
+    }
+
+    /** Löscht einen Punkt. Die Randkoordinaten werden dabei nicht verkleinert.
+     * @param i Index des Punkts
+     * @return überdecktes Rechteck des Punkts oder null, wenn er nicht
+     * vorhanden oder schon gelöscht war
+     */
+    Rectangle2D erasePoint(int i) {
+        if(i < 0 || i >= points || pargb[i] == ERASED) return null;
+        pargb[i] = ERASED;
+        return new Rectangle2D.Double(px[i] - 1, py[i] - 1, 2, 2);
+    }
+
+    /** Löscht eine Linie. Die Randkoordinaten werden dabei nicht verkleinert.
+     * @param i Index der Linie
+     * @return überdecktes Rechteck der Linie oder null, wenn sie nicht
+     * vorhanden oder schon gelöscht war
+     */
+    Rectangle2D eraseSegment(int i) {
+        if(i < 0 || i >= segments || sargb[i] == ERASED) return null;
+        sargb[i] = ERASED;
+        Rectangle2D r = new Rectangle2D.Double(sx1[i], sy1[i], 0, 0);
+        r.add(sx2[i], sy2[i]);
+        return r;
+    }
+
+    /** @return Anzahl eingetragener Punkte einschließlich gelöschter */
+    int pointCount() {
+        return points;
+    }
+
+    /** @return Anzahl eingetragener Linien einschließlich gelöschter */
+    int segmentCount() {
+        return segments;
+    }
+
+    double pointX(int i) {
+        return px[i];
+    }
+
+    double pointY(int i) {
+        return py[i];
+    }
+
+    /** @return Farbe des Punkts als ARGB, ERASED wenn gelöscht */
+    int pointColor(int i) {
+        return pargb[i];
+    }
+
+    double segmentX1(int i) {
+        return sx1[i];
+    }
+
+    double segmentY1(int i) {
+        return sy1[i];
+    }
+
+    double segmentX2(int i) {
+        return sx2[i];
+    }
+
+    double segmentY2(int i) {
+        return sy2[i];
+    }
+
+    /** @return Farbe der Linie als ARGB, ERASED wenn gelöscht */
+    int segmentColor(int i) {
+        return sargb[i];
+    }
+
+    /** @return true, wenn noch kein Element eingetragen wurde */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /** Zeichnet alle Elemente, die das angegebene Rechteck berühren.
+     * Es werden keine Objekte pro Element angelegt, Farben nur bei einem
+     * Farbwechsel. Darf von mehreren Threads gleichzeitig aufgerufen werden.
+     * @param g2 Grafikkontext in Zeichnungskoordinaten
+     * @param cx1 linker Rand des Clip
+     * @param cy1 unterer Rand des Clip
+     * @param cx2 rechter Rand des Clip
+     * @param cy2 oberer Rand des Clip
+     */
+    void paint(Graphics2D g2, double cx1, double cy1, double cx2, double cy2) {
+        Ellipse2D.Double dot = new Ellipse2D.Double();
+        Line2D.Double line = new Line2D.Double();
+        int current = ERASED;
+        double x, y;
+        // Felder und Anzahl aus einer Veröffentlichung
+        Columns s = publishedSegments;
+        int n = s.count;
+        double[] sx1 = s.x1, sy1 = s.y1, sx2 = s.x2, sy2 = s.y2;
+        int[] sargb = s.argb;
+        for(int i = 0; i < n; i++) {
+            int c = sargb[i];
+            if(c == ERASED) continue;
+            if(Math.max(sx1[i], sx2[i]) < cx1 || Math.min(sx1[i], sx2[i]) > cx2
+               || Math.max(sy1[i], sy2[i]) < cy1 || Math.min(sy1[i], sy2[i]) > cy2) continue;
+            if(c != current) {
+                g2.setPaint(new Color(c, true));
+                current = c;
+            }
+            line.setLine(sx1[i], sy1[i], sx2[i], sy2[i]);
+            g2.draw(line);
+        }
+        Columns p = publishedPoints;
+        n = p.count;
+        double[] px = p.x1, py = p.y1;
+        int[] pargb = p.argb;
+        for(int i = 0; i < n; i++) {
+            int c = pargb[i];
+            if(c == ERASED) continue;
+            x = px[i];
+            y = py[i];
+            if(x + 1 < cx1 || x - 1 > cx2 || y + 1 < cy1 || y - 1 > cy2) continue;
+            if(c != current) {
+                g2.setPaint(new Color(c, true));
+                current = c;
+            }
+            dot.setFrame(x - 1, y - 1, 2, 2);
+            g2.fill(dot);
+        }
+    }
+
+    private void include(double ax1, double ay1, double ax2, double ay2) {
+        if(empty) {
+            x1 = ax1;
+            y1 = ay1;
+            x2 = ax2;
+            y2 = ay2;
+            empty = false;
+            return;
+        }
+        if(ax1 < x1) x1 = ax1;
+        if(ay1 < y1) y1 = ay1;
+        if(ax2 > x2) x2 = ax2;
+        if(ay2 > y2) y2 = ay2;
+    }
+
+    private static double[] grow(double[] a, int n) {
+        double[] b = new double[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private static int[] grow(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
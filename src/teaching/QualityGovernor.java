@@ -0,0 +1,312 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Passt die Darstellungsqualität eines WhiteBoard an die gemessene Zeit je
+ * Bild an.
+ *
+ * Gemessen wird je Bild die Zeit, die das Rastern seiner Kacheln gekostet
+ * hat: die Rasterzeit der Kacheln, die es als erstes zeigt, geteilt durch die
+ * Zahl der parallel rasternden Threads. Bilder, die nur fertige Kacheln
+ * kopieren, zählen nicht, denn am Kopieren ändert keine Stufe etwas.
+ * Überschreiten PATIENCE gemessene Bilder hintereinander das Budget, wird eine
+ * Qualitätsstufe tiefer gerastert; dazu werden alle Kacheln neu gerastert,
+ * ebenso beim Wechsel auf eine höhere Stufe. Jede Stufe der Strategie ist eine Menge von
+ * Vereinfachungen: ohne Kantenglättung, mit dünnsten Linien, ohne Elemente
+ * unter einem Pixel und mit umschließenden Rechtecken statt Polygonen, Bögen
+ * und Pfaden. Stufe 0 ist volle Qualität. Bleibt eine Stufe lange deutlich
+ * unter dem Budget, geht es eine Stufe zurück; ist die Zeichenfläche eine
+ * Zeit lang ruhig, wird die volle Qualität wiederhergestellt. Messungen zählen erst wieder, wenn sich danach
+ * Szene oder Ausschnitt ändern, damit das Nachrastern selbst die Qualität
+ * nicht gleich wieder senkt.
+ *
+ * Die Steuerung ist zunächst aus, außer die Systemeigenschaft teaching.quality
+ * ist true. Ausgeschaltet bleiben die Rendering-Hints des Grafikkontexts
+ * unverändert, wie ohne Steuerung. Die aktuelle Stufe steht auch in
+ * {@link BoardMetrics#getQualityTier()}, Wechsel werden als Ereignis
+ * teaching.Quality aufgezeichnet.
+ * Alle Methoden sind threadsicher.
+ */
+public class QualityGovernor {
+
+    /** Vereinfachung: Kantenglättung aus, schnelles statt genaues Rastern */
+    public static final int ANTIALIAS_OFF = 1;
+    /** Vereinfachung: alle Linien ein Pixel breit, unabhängig vom Maßstab */
+    public static final int THIN_STROKES = 2;
+    /** Vereinfachung: Elemente, die in beiden Richtungen kleiner als ein Pixel sind, weglassen */
+    public static final int SKIP_SUBPIXEL = 4;
+    /** Vereinfachung: Polygone, Linienzüge, Bögen und Pfade als umschließendes Rechteck */
+    public static final int BOUNDING_BOXES = 8;
+    /** Vereinfachungen, wenn die Steuerung aus ist: Grafikkontext unverändert */
+    static final int UNMANAGED = -1;
+
+    /** Voreingestellte Strategie, von voller Qualität bis zu allen Vereinfachungen */
+    private static final int[] DEFAULT_POLICY = {
+        0,
+        ANTIALIAS_OFF,
+        ANTIALIAS_OFF | THIN_STROKES | SKIP_SUBPIXEL,
+        ANTIALIAS_OFF | THIN_STROKES | SKIP_SUBPIXEL | BOUNDING_BOXES
+    };
+    /** Anzahl der Bilder über dem Budget, nach denen die Qualität sinkt */
+    static final int PATIENCE = 3;
+    /** Anzahl der Bilder unter dem halben Budget, nach denen die Qualität steigt */
+    static final int RECOVERY = 100;
+
+    private static final Stroke THIN = new BasicStroke(0f);
+
+    private final WhiteBoard board;
+    private volatile boolean enabled = Boolean.getBoolean("teaching.quality");
+    /** Budget je Bild in Nanosekunden */
+    private volatile long budget = 1000000000L / 30;
+    /** Ruhezeit bis zur vollen Qualität in Nanosekunden */
+    private volatile long idleDelay = 1000000000L;
+    /** Vereinfachungen je Stufe */
+    private volatile int[] policy = (int[]) DEFAULT_POLICY.clone();
+    /** aktuelle Stufe */
+    private volatile int tier = 0;
+    /** false nach dem Wiederherstellen, bis sich Szene oder Ausschnitt ändern */
+    private volatile boolean armed = true;
+    /** letzte Änderung von Szene oder Ausschnitt nach System.nanoTime() */
+    private volatile long lastActive = System.nanoTime();
+    /** Bilder hintereinander über dem Budget beziehungsweise unter dem halben Budget */
+    private int overruns = 0, underruns = 0;
+    private long degradations = 0, restorations = 0;
+    /** prüft, ob die Zeichenfläche ruhig ist, null solange ausgeschaltet */
+    private javax.swing.Timer idleTimer;
+
+    QualityGovernor(WhiteBoard board) {
+        this.board = board;
+        if(enabled) startTimer();
+    }
+
+    /** @return true, wenn die Qualität gesteuert wird */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Schaltet die Steuerung ein oder aus. Ausgeschaltet wird wieder mit den
+     * Rendering-Hints des Grafikkontexts gerastert.
+     */
+    public void setEnabled(boolean enabled) {
+        synchronized(this) {
+            if(this.enabled == enabled) return;
+            this.enabled = enabled;
+            tier = 0;
+            overruns = underruns = 0;
+            armed = true;
+            if(enabled) {
+                startTimer();
+            } else {
+                stopTimer();
+            }
+        }
+        board.qualityChanged();
+    }
+
+    /** Schaltet die Steuerung aus und hält den Taktgeber an, ohne die
+     * Zeichenfläche neu zu rastern. Von {@link WhiteBoard#dispose()} aufgerufen.
+     */
+    synchronized void dispose() {
+        enabled = false;
+        tier = 0;
+        stopTimer();
+    }
+
+    /** @return Budget je Bild in Millisekunden */
+    public double getFrameBudget() {
+        return budget / 1e6;
+    }
+
+    /** Legt das Budget je Bild fest, voreingestellt sind 33 ms für 30 Bilder je Sekunde.
+     * @param millis Budget in Millisekunden
+     * @throws IllegalArgumentException wenn millis nicht positiv ist
+     */
+    public void setFrameBudget(double millis) {
+        if(!(millis > 0)) throw new IllegalArgumentException("Budget nicht positiv: " + millis);
+        budget = (long) Math.min(millis * 1e6, Long.MAX_VALUE);
+    }
+
+    /** @return Ruhezeit bis zur vollen Qualität in Millisekunden */
+    public double getIdleDelay() {
+        return idleDelay / 1e6;
+    }
+
+    /** Legt fest, wie lange sich Szene und Ausschnitt nicht ändern dürfen,
+     * bevor die volle Qualität wiederhergestellt wird, voreingestellt 1 s.
+     * @param millis Ruhezeit in Millisekunden
+     * @throws IllegalArgumentException wenn millis nicht positiv ist
+     */
+    public synchronized void setIdleDelay(double millis) {
+        if(!(millis > 0)) throw new IllegalArgumentException("Ruhezeit nicht positiv: " + millis);
+        idleDelay = (long) Math.min(millis * 1e6, Long.MAX_VALUE);
+        if(idleTimer != null) {
+            stopTimer();
+            startTimer();
+        }
+    }
+
+    /** @return Vereinfachungen je Stufe, Stufe 0 zuerst */
+    public int[] getPolicy() {
+        return (int[]) policy.clone();
+    }
+
+    /** Legt die Strategie fest: für jede Stufe, beginnend mit der vollen
+     * Qualität, die Vereinfachungen als Kombination von ANTIALIAS_OFF,
+     * THIN_STROKES, SKIP_SUBPIXEL und BOUNDING_BOXES. Die Stufen werden
+     * nacheinander durchlaufen.
+     * @param tiers Vereinfachungen je Stufe, wird kopiert
+     * @throws IllegalArgumentException wenn tiers leer ist oder unbekannte
+     * Vereinfachungen enthält
+     */
+    public void setPolicy(int[] tiers) {
+        if(tiers.length == 0) throw new IllegalArgumentException("Strategie ohne Stufe");
+        int all = ANTIALIAS_OFF | THIN_STROKES | SKIP_SUBPIXEL | BOUNDING_BOXES;
+        for(int i = 0; i < tiers.length; i++) {
+            if((tiers[i] & ~all) != 0) {
+                throw new IllegalArgumentException("unbekannte Vereinfachung in Stufe " + i + ": " + tiers[i]);
+            }
+        }
+        synchronized(this) {
+            policy = (int[]) tiers.clone();
+            if(tier >= tiers.length) tier = tiers.length - 1;
+        }
+        board.qualityChanged();
+    }
+
+    /** @return aktuelle Stufe, 0 ist volle Qualität */
+    public int getTier() {
+        return tier;
+    }
+
+    /** @return Anzahl der Stufen der Strategie */
+    public int getTierCount() {
+        return policy.length;
+    }
+
+    /** @return Anzahl der Wechsel auf eine tiefere Stufe */
+    public synchronized long getDegradations() {
+        return degradations;
+    }
+
+    /** @return Anzahl der Wiederherstellungen der vollen Qualität nach Ruhe */
+    public synchronized long getRestorations() {
+        return restorations;
+    }
+
+    /** @param tier Stufe, wie sie beim Beginn des Rasterns galt
+     * @return Vereinfachungen der Stufe, UNMANAGED wenn die Steuerung aus ist
+     */
+    int degradations(int tier) {
+        if(!enabled) return UNMANAGED;
+        int[] p = policy;
+        return p[Math.min(tier, p.length - 1)];
+    }
+
+    /** Vermerkt eine Änderung von Szene oder Ausschnitt */
+    void active() {
+        if(!enabled) return;
+        lastActive = System.nanoTime();
+        armed = true;
+    }
+
+    /** Wertet die Rasterzeit eines Bilds aus und rastert bei einem Wechsel der
+     * Stufe alle Kacheln neu. Messungen einer inzwischen gewechselten Stufe
+     * zählen nicht.
+     * @param tier Stufe bei Beginn der Darstellung
+     * @param nanos Rasterzeit der Kacheln des Bilds in Nanosekunden
+     */
+    void sample(int tier, long nanos) {
+        if(!enabled || !armed) return;
+        int from, to;
+        synchronized(this) {
+            if(tier != this.tier) return;
+            long b = budget;
+            if(nanos > b) {
+                underruns = 0;
+                if(++overruns < PATIENCE || tier >= policy.length - 1) return;
+                to = tier + 1;
+                degradations++;
+            } else {
+                overruns = 0;
+                if(nanos > b / 2 || tier == 0 || ++underruns < RECOVERY) return;
+                to = tier - 1;
+            }
+            overruns = underruns = 0;
+            from = tier;
+            this.tier = to;
+        }
+        logChange(from, to, nanos);
+        board.qualityChanged();
+    }
+
+    /** Stellt nach Ruhe die volle Qualität wieder her, vom Taktgeber aufgerufen */
+    private void checkIdle() {
+        int from;
+        synchronized(this) {
+            from = tier;
+            if(from == 0 || System.nanoTime() - lastActive < idleDelay) return;
+            tier = 0;
+            overruns = underruns = 0;
+            armed = false;
+            restorations++;
+        }
+        logChange(from, 0, 0);
+        board.qualityChanged();
+    }
+
+    private void logChange(int from, int to, long nanos) {
+        BoardEvents.Quality event = new BoardEvents.Quality();
+        if(event.shouldCommit()) {
+            event.from = from;
+            event.to = to;
+            event.frameTime = nanos;
+            event.commit();
+        }
+    }
+
+    private void stopTimer() {
+        if(idleTimer != null) {
+            idleTimer.stop();
+            idleTimer = null;
+        }
+    }
+
+    private void startTimer() {
+        int delay = (int) Math.max(10, Math.min(1000, idleDelay / 4000000L));
+        idleTimer = new javax.swing.Timer(delay, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                checkIdle();
+            }
+        });
+        idleTimer.start();
+    }
+
+    /** Stellt einen Grafikkontext auf die Vereinfachungen einer Stufe ein.
+     * @param g2 Grafikkontext
+     * @param degradations Vereinfachungen, bei UNMANAGED bleibt g2 unverändert
+     */
+    static void applyHints(Graphics2D g2, int degradations) {
+        if(degradations == UNMANAGED) return;
+        boolean smooth = (degradations & ANTIALIAS_OFF) == 0;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                            smooth ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2.setRenderingHint(RenderingHints.KEY_RENDERING,
+                            smooth ? RenderingHints.VALUE_RENDER_QUALITY : RenderingHints.VALUE_RENDER_SPEED);
+        g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                            smooth ? RenderingHints.VALUE_STROKE_PURE : RenderingHints.VALUE_STROKE_NORMALIZE);
+        if((degradations & THIN_STROKES) != 0) g2.setStroke(THIN);
+    }
+
+    /** @return true, wenn die Vereinfachungen eine bestimmte enthalten */
+    static boolean has(int degradations, int which) {
+        return degradations != UNMANAGED && (degradations & which) != 0;
+    }
+
+    public String toString() {
+        return "tier=" + tier + "/" + policy.length + " budget=" + getFrameBudget() + "ms"
+            + " degradations=" + getDegradations() + " restorations=" + getRestorations();
+    }
+}
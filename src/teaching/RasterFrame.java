@@ -0,0 +1,37 @@
+package teaching;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Ein gerastertes Bild der Zeichenfläche als einfacher RGBA-Puffer, z.B. zur
+ * Weitergabe an Video-Encoder.
+ *
+ * Die Pixel liegen Zeile für Zeile von oben nach unten, je Pixel vier Bytes
+ * in der Reihenfolge R, G, B, A.
+ */
+public class RasterFrame {
+
+    /** Breite in Pixeln */
+    public final int width;
+    /** Höhe in Pixeln */
+    public final int height;
+    /** Pixeldaten, width * height * 4 Bytes */
+    public final byte[] rgba;
+
+    /** Wandelt ein Bild in einen RGBA-Puffer um.
+     * @param img Quellbild
+     */
+    public RasterFrame(BufferedImage img) {
+        width = img.getWidth();
+        height = img.getHeight();
+        int[] argb = img.getRGB(0, 0, width, height, null, 0, width);
+        rgba = new byte[argb.length * 4];
+        for(int i = 0, j = 0; i < argb.length; i++) {
+            int p = argb[i];
+            rgba[j++] = (byte) (p >> 16);
+            rgba[j++] = (byte) (p >> 8);
+            rgba[j++] = (byte) p;
+            rgba[j++] = (byte) (p >>> 24);
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Kompaktes Binärformat für die Szene eines WhiteBoard.
+ *
+ * Eine Szenendatei besteht aus einem Kopf (Kennung, Version, Anzahl der
+ * Zeichenelemente), den Zeichenelementen in Zeichenreihenfolge, den
+ * geplotteten Punkten und Linien und ab Version 3 den Vorlagen und Positionen
+ * gestempelter Kopien. Ab Version 2 folgt auf den Kopf eine Tabelle aller
+ * Ebenen mit Name, Höhe, Sichtbarkeit und Deckkraft, und vor jedem
+ * Zeichenelement steht die Nummer seiner Ebene in dieser Tabelle. Jedes Zeichenelement beginnt mit Typ,
+ * Füllung, Farbe und Drehung, gefolgt von seiner Geometrie in double-
+ * Genauigkeit. Alle Werte sind little endian abgelegt.
+ * Gelesen und geschrieben wird über Fenster von WINDOW Byte, die mit
+ * FileChannel.map eingeblendet werden; ein Element liegt nie auf einer
+ * Fenstergrenze, da vor jedem Wert geprüft wird, ob er noch ins Fenster passt.
+ * Die Kodierung der Zeichenelemente und Ebenen wird auch vom Journal benutzt.
+ */
+class SceneFile {
+
+    /** Kennung "WBSC" am Dateianfang */
+    static final int MAGIC = 0x57425343;
+    static final int VERSION = 3;
+
+    /** Elementtypen */
+    static final byte LINE = 1, QUAD = 2, POINT = 3, ELLIPSE = 4, POLYGON = 5,
+        RECTANGLE = 6, PATH = 7, POLYLINE = 8;
+    /** Kennzeichen eines gefüllten Elements */
+    static final byte FILLED = 1;
+
+    /** Größe eines eingeblendeten Fensters */
+    static final int WINDOW = 1 << 26;
+    /** Anzahl der Elemente, die beim Laden auf einmal übergeben werden */
+    static final int CHUNK = 1 << 16;
+    /** Länge des Elementkopfs: Typ, Kennzeichen, Farbe, Drehung */
+    private static final int HEAD = 14;
+    /** Länge des Dateikopfs: Kennung, Version, Anzahl der Zeichenelemente */
+    private static final int FILE_HEAD = 16;
+    /** Höchste Länge eines Ebenennamens in Byte */
+    private static final int MAX_NAME = 1 << 16;
+
+    /** Ziel für kodierte Werte */
+    abstract static class Sink {
+        /** @param n Anzahl der Byte, die als nächstes geschrieben werden
+         * @return Puffer, in den mindestens n Byte passen
+         */
+        abstract ByteBuffer need(int n) throws IOException;
+    }
+
+    /** Quelle für kodierte Werte */
+    abstract static class Source {
+        /** zuletzt gelesene Farbe, spart bei einfarbigen Szenen Objekte */
+        private Color color;
+
+        /** @param n Anzahl der Byte, die als nächstes gelesen werden
+         * @return Puffer, aus dem mindestens n Byte gelesen werden können
+         * @throws EOFException wenn die Daten vorher enden
+         */
+        abstract ByteBuffer need(int n) throws IOException;
+
+        Color color(int argb) {
+            if(color == null || color.getRGB() != argb) color = new Color(argb, true);
+            return color;
+        }
+    }
+
+    /** Schreibt die Szene in eine Datei. Der Aufrufer muss die Szene gegen
+     * Änderungen sperren.
+     * @param file Zieldatei, wird überschrieben
+     * @param layers alle Ebenen, auch solche ohne Zeichenelemente
+     * @param shapes Zeichenelemente
+     * @param primitives geplottete Punkte und Linien
+     * @param stamps gestempelte Kopien mit ihren Vorlagen
+     */
+    static void save(File file, WhiteBoard.Layer[] layers, ShapeStore shapes,
+                     PrimitiveStore primitives, StampStore stamps) throws IOException {
+        long size = FILE_HEAD + 4;
+        // Ebenen in der übergebenen Reihenfolge nummeriert
+        HashMap layerIds = new HashMap();
+        for(int l = 0; l < layers.length; l++) {
+            layerIds.put(layers[l], Integer.valueOf(l));
+            size += size(layers[l]);
+        }
+        for(int i = 0; i < shapes.end(); i++) {
+            WhiteBoard.AttributedShape as = shapes.get(i);
+            if(as != null) size += 4 + size(as);
+        }
+        int points, segments;
+        synchronized(primitives) {
+            points = primitives.pointCount();
+            segments = primitives.segmentCount();
+        }
+        size += 8 + 20L * points + 8 + 36L * segments;
+        int templates, copies;
+        synchronized(stamps) {
+            templates = stamps.templateCount();
+            copies = stamps.stampCount();
+            for(int t = 0; t < templates; t++) size += size(stamps.template(t));
+        }
+        size += 8 + 8 + 20L * copies;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            MappedSink out = new MappedSink(raf.getChannel(), size);
+            ByteBuffer b = out.need(FILE_HEAD);
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putLong(shapes.size());
+            out.need(4).putInt(layers.length);
+            for(int l = 0; l < layers.length; l++) writeLayer(out, layers[l]);
+            for(int i = 0; i < shapes.end(); i++) {
+                WhiteBoard.AttributedShape as = shapes.get(i);
+                if(as == null) continue;
+                out.need(4).putInt(((Integer) layerIds.get(as.layer)).intValue());
+                writeShape(out, as);
+            }
+            synchronized(primitives) {
+                out.need(8).putLong(points);
+                for(int i = 0; i < points; i++) {
+                    b = out.need(20);
+                    b.putDouble(primitives.pointX(i));
+                    b.putDouble(primitives.pointY(i));
+                    b.putInt(primitives.pointColor(i));
+                }
+                out.need(8).putLong(segments);
+                for(int i = 0; i < segments; i++) {
+                    b = out.need(36);
+                    b.putDouble(primitives.segmentX1(i));
+                    b.putDouble(primitives.segmentY1(i));
+                    b.putDouble(primitives.segmentX2(i));
+                    b.putDouble(primitives.segmentY2(i));
+                    b.putInt(primitives.segmentColor(i));
+                }
+            }
+            synchronized(stamps) {
+                out.need(8).putLong(templates);
+                for(int t = 0; t < templates; t++) writeShape(out, stamps.template(t));
+                out.need(8).putLong(copies);
+                for(int i = 0; i < copies; i++) {
+                    b = out.need(20);
+                    b.putDouble(stamps.stampX(i));
+                    b.putDouble(stamps.stampY(i));
+                    b.putInt(stamps.stampTemplate(i));
+                }
+            }
+            out.close();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Liest eine Szenendatei und übergibt ihren Inhalt an ein WhiteBoard.
+     * @param file Szenendatei
+     * @param wb Ziel, erhält Zeichenelemente, Punkte, Linien und Kopien
+     * @return die gelesenen Zeichenelemente
+     */
+    static WhiteBoard.AttributedShape[] load(File file, WhiteBoard wb) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedSource in = new MappedSource(raf.getChannel(), raf.length());
+            ByteBuffer b = in.need(FILE_HEAD);
+            if(b.getInt() != MAGIC) throw new IOException("keine Szenendatei: " + file);
+            int version = b.getInt();
+            if(version < 1 || version > VERSION) throw new IOException("unbekannte Version " + version);
+            long n = b.getLong();
+            if(n < 0 || n > Integer.MAX_VALUE - 8) throw new IOException("ungültige Anzahl " + n);
+            WhiteBoard.AttributedShape[] all = new WhiteBoard.AttributedShape[(int) n];
+            String[] layers = null;
+            if(version >= 2) {
+                // Ebenen vor ihren Zeichenelementen anlegen
+                layers = new String[count(in)];
+                for(int l = 0; l < layers.length; l++) layers[l] = readLayer(in, wb);
+            }
+            for(int i = 0; i < all.length; i++) {
+                if(layers == null) {
+                    all[i] = readShape(in, wb);
+                    continue;
+                }
+                int l = in.need(4).getInt();
+                if(l < 0 || l >= layers.length) throw new IOException("unbekannte Ebene " + l);
+                all[i] = readShape(in, wb);
+                wb.assignLayer(all[i], layers[l]);
+            }
+            wb.loaded(all);
+            // Punkte und Linien blockweise, damit Sperre und Neudarstellung
+            // nicht für jedes Element anfallen
+            double[] x1 = new double[CHUNK], y1 = new double[CHUNK];
+            double[] x2 = new double[CHUNK], y2 = new double[CHUNK];
+            int[] argb = new int[CHUNK];
+            long points = in.need(8).getLong();
+            for(long i = 0; i < points; ) {
+                int k = (int) Math.min(CHUNK, points - i);
+                for(int j = 0; j < k; j++) {
+                    b = in.need(20);
+                    x1[j] = b.getDouble();
+                    y1[j] = b.getDouble();
+                    argb[j] = b.getInt();
+                }
+                wb.loadedPoints(x1, y1, argb, k);
+                i += k;
+            }
+            long segments = in.need(8).getLong();
+            for(long i = 0; i < segments; ) {
+                int k = (int) Math.min(CHUNK, segments - i);
+                for(int j = 0; j < k; j++) {
+                    b = in.need(36);
+                    x1[j] = b.getDouble();
+                    y1[j] = b.getDouble();
+                    x2[j] = b.getDouble();
+                    y2[j] = b.getDouble();
+                    argb[j] = b.getInt();
+                }
+                wb.loadedSegments(x1, y1, x2, y2, argb, k);
+                i += k;
+            }
+            if(version >= 3) {
+                // Vorlagen erhalten auf dem Ziel eigene Nummern
+                long templates = in.need(8).getLong();
+                if(templates < 0 || templates > Integer.MAX_VALUE) {
+                    throw new IOException("ungültige Anzahl " + templates);
+                }
+                int[] ids = new int[(int) templates];
+                for(int t = 0; t < ids.length; t++) ids[t] = wb.loadedTemplate(readShape(in, wb));
+                long copies = in.need(8).getLong();
+                for(long i = 0; i < copies; ) {
+                    int k = (int) Math.min(CHUNK, copies - i);
+                    for(int j = 0; j < k; j++) {
+                        b = in.need(20);
+                        x1[j] = b.getDouble();
+                        y1[j] = b.getDouble();
+                        int t = b.getInt();
+                        if(t != StampStore.ERASED && (t < 0 || t >= ids.length)) {
+                            throw new IOException("unbekannte Vorlage " + t);
+                        }
+                        argb[j] = t == StampStore.ERASED ? t : ids[t];
+                    }
+                    wb.loadedStamps(x1, y1, argb, k);
+                    i += k;
+                }
+            }
+            return all;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** @return Länge der Kodierung eines Zeichenelements in Byte */
+    static long size(WhiteBoard.AttributedShape as) {
+        Shape s = as.shape;
+        if(s instanceof Line2D) return HEAD + 32;
+        if(s instanceof QuadCurve2D) return HEAD + 48;
+        if(s instanceof Ellipse2D) return HEAD + (isPoint((Ellipse2D) s) ? 16 : 32);
+        if(s instanceof Rectangle2D) return HEAD + 32;
+        if(s instanceof java.awt.Polygon) return HEAD + 4 + 8L * ((java.awt.Polygon) s).npoints;
+        if(s instanceof Polyline) return HEAD + 4 + 16L * ((Polyline) s).size();
+        long size = HEAD + 4;
+        double[] c = new double[6];
+        for(PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()) {
+            size += 1 + 8 * coords(it.currentSegment(c));
+        }
+        return size;
+    }
+
+    /** Kodiert ein Zeichenelement.
+     * @param out Ziel
+     * @param as Zeichenelement
+     */
+    static void writeShape(Sink out, WhiteBoard.AttributedShape as) throws IOException {
+        Shape s = as.shape;
+        ByteBuffer b;
+        if(s instanceof Line2D) {
+            Line2D l = (Line2D) s;
+            b = head(out, as, LINE, 32);
+            b.putDouble(l.getX1());
+            b.putDouble(l.getY1());
+            b.putDouble(l.getX2());
+            b.putDouble(l.getY2());
+        } else if(s instanceof QuadCurve2D) {
+            QuadCurve2D q = (QuadCurve2D) s;
+            b = head(out, as, QUAD, 48);
+            b.putDouble(q.getX1());
+            b.putDouble(q.getY1());
+            b.putDouble(q.getCtrlX());
+            b.putDouble(q.getCtrlY());
+            b.putDouble(q.getX2());
+            b.putDouble(q.getY2());
+        } else if(s instanceof Ellipse2D && isPoint((Ellipse2D) s)) {
+            Ellipse2D e = (Ellipse2D) s;
+            b = head(out, as, POINT, 16);
+            b.putDouble(e.getCenterX());
+            b.putDouble(e.getCenterY());
+        } else if(s instanceof Ellipse2D || s instanceof Rectangle2D) {
+            RectangularShape r = (RectangularShape) s;
+            b = head(out, as, s instanceof Ellipse2D ? ELLIPSE : RECTANGLE, 32);
+            b.putDouble(r.getX());
+            b.putDouble(r.getY());
+            b.putDouble(r.getWidth());
+            b.putDouble(r.getHeight());
+        } else if(s instanceof java.awt.Polygon) {
+            java.awt.Polygon p = (java.awt.Polygon) s;
+            head(out, as, POLYGON, 4).putInt(p.npoints);
+            for(int i = 0; i < p.npoints; i++) {
+                b = out.need(8);
+                b.putInt(p.xpoints[i]);
+                b.putInt(p.ypoints[i]);
+            }
+        } else if(s instanceof Polyline) {
+            Polyline p = (Polyline) s;
+            head(out, as, POLYLINE, 4).putInt(p.size());
+            for(int i = 0; i < p.size(); i++) {
+                b = out.need(16);
+                b.putDouble(p.getX(i));
+                b.putDouble(p.getY(i));
+            }
+        } else {
+            // alle übrigen Geometrien als allgemeiner Pfad
+            int count = 0;
+            for(PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()) count++;
+            double[] c = new double[6];
+            head(out, as, PATH, 4).putInt(count);
+            for(PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()) {
+                int type = it.currentSegment(c);
+                int k = coords(type);
+                b = out.need(1 + 8 * k);
+                b.put((byte) type);
+                for(int j = 0; j < k; j++) b.putDouble(c[j]);
+            }
+        }
+    }
+
+    /** Dekodiert ein Zeichenelement.
+     * @param in Quelle
+     * @param wb WhiteBoard, zu dem das Element gehören soll
+     * @return neues, noch nicht eingefügtes Zeichenelement
+     */
+    static WhiteBoard.AttributedShape readShape(Source in, WhiteBoard wb) throws IOException {
+        ByteBuffer b = in.need(HEAD);
+        byte kind = b.get();
+        byte flags = b.get();
+        Color color = in.color(b.getInt());
+        double rotation = b.getDouble();
+        Shape s;
+        switch(kind) {
+            case LINE:
+                b = in.need(32);
+                s = new Line2D.Double(b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble());
+                break;
+            case QUAD:
+                b = in.need(48);
+                s = new QuadCurve2D.Double(b.getDouble(), b.getDouble(), b.getDouble(),
+                                           b.getDouble(), b.getDouble(), b.getDouble());
+                break;
+            case POINT:
+                b = in.need(16);
+                s = new Ellipse2D.Double(b.getDouble() - 1, b.getDouble() - 1, 2, 2);
+                break;
+            case ELLIPSE:
+                b = in.need(32);
+                s = new Ellipse2D.Double(b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble());
+                break;
+            case RECTANGLE:
+                b = in.need(32);
+                s = new Rectangle2D.Double(b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble());
+                break;
+            case POLYGON: {
+                int n = count(in);
+                int[] x = new int[n], y = new int[n];
+                for(int i = 0; i < n; i++) {
+                    b = in.need(8);
+                    x[i] = b.getInt();
+                    y[i] = b.getInt();
+                }
+                s = new java.awt.Polygon(x, y, n);
+                break;
+            }
+            case POLYLINE: {
+                int n = count(in);
+                if(n == 0) throw new IOException("Linienzug ohne Punkte");
+                double[] x = new double[n], y = new double[n];
+                for(int i = 0; i < n; i++) {
+                    b = in.need(16);
+                    x[i] = b.getDouble();
+                    y[i] = b.getDouble();
+                }
+                s = new Polyline(x, y, n);
+                break;
+            }
+            case PATH: {
+                int n = count(in);
+                Path2D.Double p = new Path2D.Double(Path2D.WIND_NON_ZERO, Math.max(n, 2));
+                for(int i = 0; i < n; i++) {
+                    int type = in.need(1).get();
+                    if(type < PathIterator.SEG_MOVETO || type > PathIterator.SEG_CLOSE) {
+                        throw new IOException("ungültiges Pfadsegment " + type);
+                    }
+                    b = in.need(8 * coords(type));
+                    switch(type) {
+                        case PathIterator.SEG_MOVETO:
+                            p.moveTo(b.getDouble(), b.getDouble());
+                            break;
+                        case PathIterator.SEG_LINETO:
+                            p.lineTo(b.getDouble(), b.getDouble());
+                            break;
+                        case PathIterator.SEG_QUADTO:
+                            p.quadTo(b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble());
+                            break;
+                        case PathIterator.SEG_CUBICTO:
+                            p.curveTo(b.getDouble(), b.getDouble(), b.getDouble(),
+                                      b.getDouble(), b.getDouble(), b.getDouble());
+                            break;
+                        default:
+                            p.closePath();
+                    }
+                }
+                s = p;
+                break;
+            }
+            default:
+                throw new IOException("unbekannter Elementtyp " + kind);
+        }
+        return wb.new AttributedShape(s, color, rotation, (flags & FILLED) != 0);
+    }
+
+    private static ByteBuffer head(Sink out, WhiteBoard.AttributedShape as, byte kind, int extra)
+        throws IOException {
+        ByteBuffer b = out.need(HEAD + extra);
+        b.put(kind);
+        b.put(as.isFilled ? FILLED : 0);
+        b.putInt(as.color.getRGB());
+        b.putDouble(as.rotation);
+        return b;
+    }
+
+    /** Kodiert eine Zeichenkette als Länge und UTF-8-Byte.
+     * @param out Ziel
+     * @param text Zeichenkette, etwa ein Ebenenname
+     */
+    static void writeString(Sink out, String text) throws IOException {
+        byte[] bytes = utf8(text);
+        if(bytes.length > MAX_NAME) throw new IOException("Name zu lang: " + text);
+        out.need(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    /** @return Länge der Kodierung einer Ebene in Byte */
+    static long size(WhiteBoard.Layer l) throws IOException {
+        return 4 + utf8(l.name).length + 9;
+    }
+
+    /** Kodiert eine Ebene mit Name, Höhe, Sichtbarkeit und Deckkraft.
+     * @param out Ziel
+     * @param l Ebene
+     */
+    static void writeLayer(Sink out, WhiteBoard.Layer l) throws IOException {
+        writeString(out, l.name);
+        ByteBuffer b = out.need(9);
+        b.putInt(l.z);
+        b.put(l.visible ? (byte) 1 : 0);
+        b.putFloat(l.opacity);
+    }
+
+    /** Dekodiert eine Ebene und legt sie auf einem WhiteBoard an oder
+     * übernimmt ihre Einstellungen für eine vorhandene.
+     * @param in Quelle
+     * @param wb Ziel
+     * @return Name der Ebene
+     */
+    static String readLayer(Source in, WhiteBoard wb) throws IOException {
+        String name = readString(in);
+        ByteBuffer b = in.need(9);
+        int z = b.getInt();
+        boolean visible = b.get() != 0;
+        wb.loadedLayer(name, z, visible, opacity(b.getFloat()));
+        return name;
+    }
+
+    /** @return die Deckkraft einer Ebene, wenn sie zwischen 0 und 1 liegt */
+    static float opacity(float opacity) throws IOException {
+        if(!(opacity >= 0f && opacity <= 1f)) throw new IOException("ungültige Deckkraft " + opacity);
+        return opacity;
+    }
+
+    /** Dekodiert eine mit {@link #writeString(Sink, String)} kodierte Zeichenkette */
+    static String readString(Source in) throws IOException {
+        int n = count(in);
+        if(n > MAX_NAME) throw new IOException("ungültige Länge " + n);
+        byte[] bytes = new byte[n];
+        in.need(n).get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] utf8(String text) throws UnsupportedEncodingException {
+        return text.getBytes("UTF-8");
+    }
+
+    /** Punkte aus drawPoint sind Kreise mit Durchmesser 2 */
+    private static boolean isPoint(Ellipse2D e) {
+        return e.getWidth() == 2 && e.getHeight() == 2;
+    }
+
+    private static int count(Source in) throws IOException {
+        int n = in.need(4).getInt();
+        if(n < 0) throw new IOException("ungültige Anzahl " + n);
+        return n;
+    }
+
+    /** @return Anzahl der Koordinaten eines Pfadsegments */
+    private static int coords(int type) {
+        switch(type) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO: return 2;
+            case PathIterator.SEG_QUADTO: return 4;
+            case PathIterator.SEG_CUBICTO: return 6;
+            default: return 0;
+        }
+    }
+
+    /** Schreibt über eingeblendete Fenster in eine Datei fester Länge */
+    static class MappedSink extends Sink {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        /** Dateiposition des Fensteranfangs */
+        private long base = 0;
+
+        MappedSink(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        ByteBuffer need(int n) throws IOException {
+            if(buffer == null || buffer.remaining() < n) {
+                if(buffer != null) {
+                    base += buffer.position();
+                    buffer.force();
+                }
+                if(size - base < n) throw new IOException("Szene hat sich beim Speichern geändert");
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.min(WINDOW, size - base));
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return buffer;
+        }
+
+        void close() {
+            if(buffer != null) buffer.force();
+        }
+    }
+
+    /** Liest über eingeblendete Fenster aus einer Datei */
+    static class MappedSource extends Source {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        /** Dateiposition des Fensteranfangs */
+        private long base;
+
+        MappedSource(FileChannel channel, long size) {
+            this(channel, 0, size);
+        }
+
+        /** @param start Dateiposition, ab der gelesen wird */
+        MappedSource(FileChannel channel, long start, long size) {
+            this.channel = channel;
+            this.base = start;
+            this.size = size;
+        }
+
+        ByteBuffer need(int n) throws IOException {
+            if(buffer == null || buffer.remaining() < n) {
+                if(buffer != null) base += buffer.position();
+                if(size - base < n) throw new EOFException();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return buffer;
+        }
+
+        /** @return Dateiposition des nächsten zu lesenden Bytes */
+        long position() {
+            return buffer == null ? base : base + buffer.position();
+        }
+    }
+}
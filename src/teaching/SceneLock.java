@@ -0,0 +1,156 @@
+package teaching;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sperre der Szene, die Warte- und Haltezeiten misst.
+ *
+ * Gemessen wird jeweils die äußerste Sperre eines Threads, geschachtelte
+ * Aufrufe zählen nicht. Die Zeiten gehen an {@link BoardMetrics}, sofern die
+ * Messung eingeschaltet ist, und als {@link BoardEvents.SceneLock} an den
+ * Flight Recorder, sofern eine Aufzeichnung läuft. Sonst verhält sich die
+ * Sperre wie eine gewöhnliche ReentrantReadWriteLock. Gemessen werden lock,
+ * tryLock und unlock, die übrigen Methoden bleiben unverändert.
+ */
+class SceneLock extends ReentrantReadWriteLock {
+
+    private final BoardMetrics metrics;
+    private final MeteredReadLock readLock = new MeteredReadLock();
+    private final MeteredWriteLock writeLock = new MeteredWriteLock();
+
+    SceneLock(BoardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ReentrantReadWriteLock.ReadLock readLock() {
+        return readLock;
+    }
+
+    public ReentrantReadWriteLock.WriteLock writeLock() {
+        return writeLock;
+    }
+
+    /** Beginnt die Messung vor dem Sperren.
+     * @param exclusive true für die Schreibsperre
+     * @return laufendes Ereignis, null ohne Aufzeichnung
+     */
+    private static BoardEvents.SceneLock begin(boolean exclusive) {
+        BoardEvents.SceneLock e = new BoardEvents.SceneLock();
+        if(!e.isEnabled()) return null;
+        e.exclusive = exclusive;
+        e.begin();
+        return e;
+    }
+
+    /** @return Zeitpunkt nach System.nanoTime(), 0 wenn nicht gemessen wird */
+    private long now(BoardEvents.SceneLock e) {
+        return e != null || metrics.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /** Messung einer gehaltenen Sperre */
+    private final class Hold {
+        /** Zeitpunkt der Übernahme nach System.nanoTime(), 0 ohne Messung */
+        long acquired;
+        BoardEvents.SceneLock event;
+
+        /** Vermerkt die Übernahme der Sperre
+         * @param requested Beginn des Wartens, 0 ohne Messung
+         * @param e laufendes Ereignis oder null
+         */
+        void acquired(long requested, BoardEvents.SceneLock e) {
+            event = e;
+            if(requested == 0) {
+                acquired = 0;
+                return;
+            }
+            acquired = System.nanoTime();
+            long waited = acquired - requested;
+            if(e != null) e.waited = waited;
+            if(metrics.isEnabled()) metrics.locked(waited);
+        }
+
+        /** Vermerkt die Freigabe der Sperre */
+        void released() {
+            if(acquired == 0) return;
+            if(metrics.isEnabled()) metrics.unlocked(System.nanoTime() - acquired);
+            acquired = 0;
+            BoardEvents.SceneLock e = event;
+            event = null;
+            if(e != null) e.commit();
+        }
+    }
+
+    private final class MeteredReadLock extends ReentrantReadWriteLock.ReadLock {
+        /** Messungen je Thread, da mehrere Threads lesen dürfen */
+        private final ThreadLocal holds = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Hold();
+            }
+        };
+
+        MeteredReadLock() {
+            super(SceneLock.this);
+        }
+
+        public void lock() {
+            if(getReadHoldCount() > 0) {
+                super.lock();
+                return;
+            }
+            BoardEvents.SceneLock e = begin(false);
+            long t = now(e);
+            super.lock();
+            ((Hold) holds.get()).acquired(t, e);
+        }
+
+        public boolean tryLock() {
+            if(getReadHoldCount() > 0) return super.tryLock();
+            BoardEvents.SceneLock e = begin(false);
+            long t = now(e);
+            if(!super.tryLock()) return false;
+            ((Hold) holds.get()).acquired(t, e);
+            return true;
+        }
+
+        public void unlock() {
+            super.unlock();
+            if(getReadHoldCount() == 0) ((Hold) holds.get()).released();
+        }
+    }
+
+    private final class MeteredWriteLock extends ReentrantReadWriteLock.WriteLock {
+        /** Messung des schreibenden Threads, geschützt durch die Sperre selbst */
+        private final Hold hold = new Hold();
+
+        MeteredWriteLock() {
+            super(SceneLock.this);
+        }
+
+        public void lock() {
+            if(isHeldByCurrentThread()) {
+                super.lock();
+                return;
+            }
+            // hold gehört bis zur Übernahme noch dem bisherigen Halter
+            BoardEvents.SceneLock e = begin(true);
+            long t = now(e);
+            super.lock();
+            hold.acquired(t, e);
+        }
+
+        public boolean tryLock() {
+            if(isHeldByCurrentThread()) return super.tryLock();
+            BoardEvents.SceneLock e = begin(true);
+            long t = now(e);
+            if(!super.tryLock()) return false;
+            hold.acquired(t, e);
+            return true;
+        }
+
+        public void unlock() {
+            boolean outermost = getWriteHoldCount() == 1;
+            if(outermost) hold.released();
+            super.unlock();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package teaching;
+
+import java.util.*;
+
+/**
+ * Räumlicher Index für die Zeichenelemente eines WhiteBoard.
+ *
+ * Die Zeichenebene wird in ein gleichmäßiges Raster quadratischer Zellen
+ * eingeteilt. Jedes Element wird in allen Zellen eingetragen, die von seinen
+ * (gedrehten) Randkoordinaten überdeckt werden. Elemente, die mehr als
+ * MAX_CELLS Zellen belegen würden, landen in einer eigenen Liste, die bei
+ * jeder Abfrage vollständig durchsucht wird.
+ * Jedes Element merkt sich seinen Platz in jeder seiner Zellen, so dass
+ * Entfernen nur die überdeckten Zellen berührt. Ein Element darf daher nur in
+ * einem Index zugleich eingetragen sein.
+ * Der Index ist nicht synchronisiert, der Aufrufer muss den Zugriff schützen.
+ * Abfragen verändern den Index nicht und dürfen parallel laufen.
+ */
+class ShapeGrid {
+
+    /** Kantenlänge einer Rasterzelle in Zeichnungskoordinaten */
+    static final double CELL_SIZE = 128.0;
+    /** Maximale Zahl von Zellen, in die ein Element eingetragen wird */
+    static final int MAX_CELLS = 256;
+
+    /** Belegte Zellen, Schlüssel ist die gepackte Zellkoordinate (Long) */
+    private HashMap cells = new HashMap();
+    /** Elemente, die zu groß für das Raster sind */
+    private Cell oversized = new Cell();
+
+    /** Sortiert Zeichenelemente in Einfügereihenfolge */
+    static final Comparator BY_SEQUENCE = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            long s1 = ((WhiteBoard.AttributedShape) o1).seq;
+            long s2 = ((WhiteBoard.AttributedShape) o2).seq;
+            return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+        }
+    };
+
+    /** Trägt ein Zeichenelement in alle überdeckten Zellen ein.
+     * @param as Zeichenelement mit berechneten Randkoordinaten
+     */
+    void add(WhiteBoard.AttributedShape as) {
+        if(isOversized(as)) {
+            oversized.add(as, -1);
+            return;
+        }
+        int cx1 = cell(as.x1), cx2 = cell(as.x2);
+        int cy1 = cell(as.y1), cy2 = cell(as.y2);
+        int n = (cx2 - cx1 + 1) * (cy2 - cy1 + 1);
+        if(n == 1) {
+            as.gridSlots = null;
+        } else if(as.gridSlots == null || as.gridSlots.length != n) {
+            as.gridSlots = new int[n];
+        }
+        int k = 0;
+        for(long cx = cx1; cx <= cx2; cx++) {
+            for(long cy = cy1; cy <= cy2; cy++) {
+                Long key = Long.valueOf(key(cx, cy));
+                Cell c = (Cell) cells.get(key);
+                if(c == null) {
+                    c = new Cell();
+                    cells.put(key, c);
+                }
+                c.add(as, n == 1 ? -1 : k++);
+            }
+        }
+    }
+
+    /** Entfernt ein Zeichenelement aus allen Zellen, in denen es eingetragen ist.
+     * Die Randkoordinaten des Elements dürfen sich seit add nicht geändert haben.
+     * @param as Zeichenelement
+     */
+    void remove(WhiteBoard.AttributedShape as) {
+        if(isOversized(as)) {
+            oversized.remove(as, as.gridSlot);
+            return;
+        }
+        int cx1 = cell(as.x1), cx2 = cell(as.x2);
+        int cy1 = cell(as.y1), cy2 = cell(as.y2);
+        int k = 0;
+        for(long cx = cx1; cx <= cx2; cx++) {
+            for(long cy = cy1; cy <= cy2; cy++) {
+                Long key = Long.valueOf(key(cx, cy));
+                Cell c = (Cell) cells.get(key);
+                int i = as.gridSlots == null ? as.gridSlot : as.gridSlots[k++];
+                if(c != null && c.remove(as, i) && c.size == 0) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /** Sucht alle Zeichenelemente, deren Randkoordinaten das angegebene
+     * Rechteck überlappen.
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     * @param result leere Liste, nimmt die gefundenen Elemente in
+     * Einfügereihenfolge auf
+     */
+    void query(double x1, double y1, double x2, double y2, java.util.List result) {
+        collect(oversized, x1, y1, x2, y2, result);
+        int cx1 = cell(x1), cx2 = cell(x2);
+        int cy1 = cell(y1), cy2 = cell(y2);
+        if(((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1) > cells.size()) {
+            // Abfragefenster größer als das belegte Raster: Zellen direkt durchlaufen
+            for(Iterator it = cells.values().iterator(); it.hasNext(); ) {
+                collect((Cell) it.next(), x1, y1, x2, y2, result);
+            }
+        } else {
+            for(long cx = cx1; cx <= cx2; cx++) {
+                for(long cy = cy1; cy <= cy2; cy++) {
+                    Cell c = (Cell) cells.get(Long.valueOf(key(cx, cy)));
+                    if(c != null) collect(c, x1, y1, x2, y2, result);
+                }
+            }
+        }
+        // Elemente in mehreren Zellen stehen nach dem Sortieren nebeneinander
+        Collections.sort(result, BY_SEQUENCE);
+        int j = 0;
+        for(int i = 0; i < result.size(); i++) {
+            Object o = result.get(i);
+            if(j == 0 || result.get(j - 1) != o) result.set(j++, o);
+        }
+        for(int i = result.size() - 1; i >= j; i--) {
+            result.remove(i);
+        }
+    }
+
+    /** Entfernt alle Einträge */
+    void clear() {
+        cells.clear();
+        oversized = new Cell();
+    }
+
+    private void collect(Cell c, double x1, double y1, double x2, double y2,
+                         java.util.List result) {
+        WhiteBoard.AttributedShape as;
+        for(int i = 0; i < c.size; i++) {
+            as = c.items[i];
+            if(as.x2 >= x1 && as.x1 <= x2 && as.y2 >= y1 && as.y1 <= y2) {
+                result.add(as);
+            }
+        }
+    }
+
+    private static boolean isOversized(WhiteBoard.AttributedShape as) {
+        double w = as.x2 - as.x1;
+        double h = as.y2 - as.y1;
+        // NaN-Koordinaten fallen hier ebenfalls heraus
+        if(!(w >= 0 && h >= 0)) return true;
+        long nx = (long) cell(as.x2) - cell(as.x1) + 1;
+        long ny = (long) cell(as.y2) - cell(as.y1) + 1;
+        return nx * ny > MAX_CELLS;
+    }
+
+    /** @return Zellkoordinate einer Zeichnungskoordinate, auf int begrenzt */
+    static int cell(double v) {
+        double c = Math.floor(v / CELL_SIZE);
+        if(c < Integer.MIN_VALUE) return Integer.MIN_VALUE;
+        if(c > Integer.MAX_VALUE) return Integer.MAX_VALUE;
+        return (int) c;
+    }
+
+    /** @return gepackte Zellkoordinate, Schlüssel der Zellen */
+    static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /** Einfache, wachsende Liste von Zeichenelementen einer Zelle. Zu jedem
+     * Element steht, wo es sich seinen Platz in dieser Zelle merkt: -1 für
+     * gridSlot, sonst der Index in gridSlots.
+     */
+    private static class Cell {
+        WhiteBoard.AttributedShape[] items = new WhiteBoard.AttributedShape[4];
+        int[] refs = new int[4];
+        int size = 0;
+
+        void add(WhiteBoard.AttributedShape as, int ref) {
+            if(size == items.length) {
+                WhiteBoard.AttributedShape[] n = new WhiteBoard.AttributedShape[size * 2];
+                System.arraycopy(items, 0, n, 0, size);
+                items = n;
+                int[] r = new int[size * 2];
+                System.arraycopy(refs, 0, r, 0, size);
+                refs = r;
+            }
+            items[size] = as;
+            refs[size] = ref;
+            setSlot(as, ref, size++);
+        }
+
+        /** Entfernt das Element auf Platz i, indem das letzte an seine Stelle
+         * rückt.
+         * @return false, wenn das Element nicht auf diesem Platz steht
+         */
+        boolean remove(WhiteBoard.AttributedShape as, int i) {
+            if(i < 0 || i >= size || items[i] != as) return false;
+            if(i != --size) {
+                items[i] = items[size];
+                refs[i] = refs[size];
+                setSlot(items[i], refs[i], i);
+            }
+            items[size] = null;
+            return true;
+        }
+
+        private static void setSlot(WhiteBoard.AttributedShape as, int ref, int i) {
+            if(ref < 0) as.gridSlot = i;
+            else as.gridSlots[ref] = i;
+        }
+    }
+}
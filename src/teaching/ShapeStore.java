@@ -0,0 +1,113 @@
+package teaching;
+
+import java.util.Arrays;
+
+/**
+ * Speicher für die Zeichenelemente eines WhiteBoard in Einfügereihenfolge.
+ *
+ * Jedes Element kennt seinen Platz im Feld (slot), daher wird es in konstanter
+ * Zeit gefunden und entfernt. Entfernte Elemente hinterlassen eine Lücke; sind
+ * mehr als die Hälfte der Plätze leer, wird das Feld beim nächsten Einfügen
+ * unter Beibehaltung der Reihenfolge zusammengeschoben. Werden entfernte
+ * Elemente mit ihrer alten laufenden Nummer wieder angehängt, stellt
+ * {@link #order()} die Reihenfolge wieder her.
+ * Der Speicher ist nicht synchronisiert, der Aufrufer muss den Zugriff schützen.
+ */
+class ShapeStore {
+
+    /** Plätze der Zeichenelemente, entfernte Elemente sind null */
+    private WhiteBoard.AttributedShape[] items = new WhiteBoard.AttributedShape[16];
+    /** Anzahl benutzter Plätze, das letzte benutzte Element ist nie null */
+    private int end = 0;
+    /** Anzahl enthaltener Elemente */
+    private int live = 0;
+    /** false, wenn ein Element vor einem mit kleinerer laufender Nummer liegt */
+    private boolean ordered = true;
+
+    /** Hängt ein Element an.
+     * @param as neues Zeichenelement
+     */
+    void add(WhiteBoard.AttributedShape as) {
+        if(end == items.length) {
+            if(live <= end / 2) {
+                compact();
+            } else {
+                WhiteBoard.AttributedShape[] n = new WhiteBoard.AttributedShape[end * 2];
+                System.arraycopy(items, 0, n, 0, end);
+                items = n;
+            }
+        }
+        if(end > 0 && items[end - 1].seq > as.seq) ordered = false;
+        items[end] = as;
+        as.slot = end++;
+        live++;
+    }
+
+    /** Entfernt ein Element in konstanter Zeit.
+     * @param o Referenz auf das interne Zeichenobjekt
+     * @return true, wenn das Objekt enthalten war
+     */
+    boolean remove(Object o) {
+        if(!(o instanceof WhiteBoard.AttributedShape)) return false;
+        WhiteBoard.AttributedShape as = (WhiteBoard.AttributedShape) o;
+        int s = as.slot;
+        if(s < 0 || s >= end || items[s] != as) return false;
+        items[s] = null;
+        as.slot = -1;
+        live--;
+        while(end > 0 && items[end - 1] == null) end--;
+        return true;
+    }
+
+    /** @return Anzahl enthaltener Elemente */
+    int size() {
+        return live;
+    }
+
+    /** @return zuletzt eingefügtes, noch enthaltenes Element oder null */
+    WhiteBoard.AttributedShape last() {
+        return end > 0 ? items[end - 1] : null;
+    }
+
+    /** Anzahl der Plätze, über die mit {@link #get(int)} iteriert werden kann.
+     * @return obere Grenze der Plätze
+     */
+    int end() {
+        return end;
+    }
+
+    /** @param slot Platz
+     * @return Element auf dem Platz oder null, wenn dieser leer ist
+     */
+    WhiteBoard.AttributedShape get(int slot) {
+        return items[slot];
+    }
+
+    /** Bringt die Elemente in die Reihenfolge ihrer laufenden Nummern, sofern
+     * ein Element außer der Reihe angehängt wurde.
+     */
+    void order() {
+        if(ordered) return;
+        compact();
+        Arrays.sort(items, 0, end, ShapeGrid.BY_SEQUENCE);
+        for(int i = 0; i < end; i++) {
+            items[i].slot = i;
+        }
+        ordered = true;
+    }
+
+    /** Schiebt alle Elemente unter Beibehaltung der Reihenfolge zusammen */
+    private void compact() {
+        int j = 0;
+        for(int i = 0; i < end; i++) {
+            WhiteBoard.AttributedShape as = items[i];
+            if(as == null) continue;
+            items[j] = as;
+            as.slot = j++;
+        }
+        for(int i = j; i < end; i++) {
+            items[i] = null;
+        }
+        end = j;
+    }
+}
@@ -0,0 +1,179 @@
+package teaching;
+
+/**
+ * Persistenter, dünn besetzter Vektor über long-Indizes, als Trie mit 32
+ * Kindern je Knoten. Ein WhiteBoard legt darin den Zustand jedes Zeichen-
+ * elements unter seiner laufenden Nummer ab.
+ *
+ * {@link #freeze()} liefert in konstanter Zeit eine unveränderliche Version.
+ * Danach wird jeder Knoten beim ersten Schreiben kopiert, ältere Versionen
+ * teilen sich mit der aktuellen alle unveränderten Teilbäume. Knoten, die
+ * seit der letzten Version angelegt wurden, gehören dem Vektor und werden an
+ * Ort und Stelle geändert, so dass Schreiben ohne Versionen kaum mehr kostet
+ * als in einem Feld. Leere Teilbäume sind null und werden freigegeben.
+ * {@link #diff(Version, Version, Visitor)} überspringt gemeinsame Teilbäume
+ * und kostet daher nur so viel, wie sich geändert hat.
+ * Der Vektor ist nicht synchronisiert, der Aufrufer muss den Zugriff schützen.
+ */
+class ShapeVector {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /** Eine unveränderliche Version des Vektors */
+    static final class Version {
+        final Node root;
+        final int shift;
+        /** Vektor, aus dem die Version stammt */
+        final ShapeVector owner;
+
+        Version(Node root, int shift, ShapeVector owner) {
+            this.root = root;
+            this.shift = shift;
+            this.owner = owner;
+        }
+    }
+
+    /** Wird für jeden Index aufgerufen, dessen Eintrag sich unterscheidet */
+    interface Visitor {
+        /** @param index Index
+         * @param from Eintrag der ersten Version, null wenn leer
+         * @param to Eintrag der zweiten Version, null wenn leer
+         */
+        void changed(long index, Object from, Object to);
+    }
+
+    private static final class Node {
+        /** Besitzer, nur dieser darf den Knoten ändern */
+        final Object edit;
+        final Object[] array;
+        /** Anzahl der Kinder ungleich null */
+        int count;
+
+        Node(Object edit) {
+            this.edit = edit;
+            this.array = new Object[WIDTH];
+        }
+
+        Node(Object edit, Node n) {
+            this.edit = edit;
+            this.array = (Object[]) n.array.clone();
+            this.count = n.count;
+        }
+    }
+
+    private Node root;
+    /** Verschiebung des Index für die Wurzel, die Blätter haben 0 */
+    private int shift = 0;
+    /** Besitzmarke, wird bei jeder Version erneuert */
+    private Object edit = new Object();
+    /** Anzahl der bisher gelieferten Versionen */
+    private long generation = 0;
+
+    /** @param index Index, nicht negativ
+     * @return Eintrag oder null
+     */
+    Object get(long index) {
+        if(index < 0 || (shift < 60 && (index >>> (shift + BITS)) != 0)) return null;
+        Node n = root;
+        for(int s = shift; n != null; s -= BITS) {
+            Object o = n.array[(int) (index >>> s) & MASK];
+            if(s == 0) return o;
+            n = (Node) o;
+        }
+        return null;
+    }
+
+    /** Setzt einen Eintrag, Knoten fremder Versionen werden dabei kopiert.
+     * @param index Index, nicht negativ
+     * @param value neuer Eintrag, null zum Leeren
+     */
+    void set(long index, Object value) {
+        if(value == null && get(index) == null) return;
+        while(shift < 60 && (index >>> (shift + BITS)) != 0) {
+            // Wurzel eine Stufe höher setzen
+            if(root != null) {
+                Node r = new Node(edit);
+                r.array[0] = root;
+                r.count = 1;
+                root = r;
+            }
+            shift += BITS;
+        }
+        root = set(root, shift, index, value);
+    }
+
+    private Node set(Node n, int s, long index, Object value) {
+        if(n == null) {
+            if(value == null) return null;
+            n = new Node(edit);
+        } else if(n.edit != edit) {
+            n = new Node(edit, n);
+        }
+        int k = (int) (index >>> s) & MASK;
+        Object old = n.array[k];
+        Object v = s == 0 ? value : set((Node) old, s - BITS, index, value);
+        if(old == null && v != null) n.count++;
+        else if(old != null && v == null) n.count--;
+        n.array[k] = v;
+        return n.count == 0 ? null : n;
+    }
+
+    /** Liefert den aktuellen Stand als unveränderliche Version, in konstanter Zeit */
+    Version freeze() {
+        edit = new Object();
+        generation++;
+        return new Version(root, shift, this);
+    }
+
+    /** @return Anzahl der bisher gelieferten Versionen. Einträge, die unter
+     * einer kleineren Nummer abgelegt wurden, können von einer Version
+     * geteilt werden und dürfen nicht mehr verändert werden.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /** Setzt den Vektor in konstanter Zeit auf eine Version zurück */
+    void reset(Version v) {
+        root = v.root;
+        shift = v.shift;
+        edit = new Object();
+        generation++;
+    }
+
+    /** Besucht alle Indizes, deren Einträge sich in zwei Versionen unterscheiden,
+     * in aufsteigender Reihenfolge.
+     * @param a erste Version
+     * @param b zweite Version
+     * @param visitor Empfänger der Unterschiede
+     */
+    static void diff(Version a, Version b, Visitor visitor) {
+        int s = Math.max(a.shift, b.shift);
+        diff(lift(a.root, a.shift, s), lift(b.root, b.shift, s), s, 0L, visitor);
+    }
+
+    /** Setzt eine Wurzel auf eine höhere Stufe, ohne sie zu verändern */
+    private static Node lift(Node n, int from, int to) {
+        for(; n != null && from < to; from += BITS) {
+            Node r = new Node(null);
+            r.array[0] = n;
+            r.count = 1;
+            n = r;
+        }
+        return n;
+    }
+
+    private static void diff(Node a, Node b, int s, long base, Visitor visitor) {
+        if(a == b) return;
+        for(int k = 0; k < WIDTH; k++) {
+            Object x = a == null ? null : a.array[k];
+            Object y = b == null ? null : b.array[k];
+            if(x == y) continue;
+            long index = base | ((long) k << s);
+            if(s == 0) visitor.changed(index, x, y);
+            else diff((Node) x, (Node) y, s - BITS, index, visitor);
+        }
+    }
+}
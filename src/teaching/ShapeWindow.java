@@ -0,0 +1,222 @@
+package teaching;
+
+/**
+ * Gleitendes Fenster über die zuletzt eingetragenen Zeichenelemente eines
+ * WhiteBoard, das im begrenzten Modus an Stelle des BoundsTracker die Ränder
+ * verfolgt.
+ *
+ * Die Elemente stehen in Eintragsreihenfolge in einem Ringpuffer zusammen mit
+ * ihrer Eintragszeit und werden am ältesten Ende in konstanter Zeit verdrängt.
+ * Jedes Element erhält eine fortlaufende Ordnungszahl, das Fenster umfasst die
+ * Ordnungszahlen von head bis tail. Für jeden Rand wird eine monotone
+ * Warteschlange der Extremwerte geführt: ein neuer Eintrag verdrängt hinten
+ * alle Einträge, die er übertrifft, vorn fallen Einträge heraus, sobald ihre
+ * Ordnungszahl das Fenster verlässt. Jeder Rand kostet so im Mittel
+ * konstante Zeit, ohne die Elemente erneut zu durchlaufen.
+ * Wird ein Element erneut eingetragen, etwa beim Wiederherstellen eines
+ * Schnappschusses, erhält es einen neuen Platz; sein alter Platz veraltet,
+ * weil das Element sich die Ordnungszahl seines aktuellen Platzes merkt, und
+ * wird beim Verdrängen übergangen.
+ * Außer der Reihe entfernte oder verschobene Elemente verändern die
+ * Warteschlangen nicht: ihre alten Ränder bleiben stehen, bis das Element
+ * ohnehin verdrängt worden wäre, und neue Ränder nach einer Verschiebung
+ * zählen wie ein neues Element. Die Ränder sind daher nie zu eng, höchstens
+ * für die Dauer eines Fensters zu weit.
+ * Das Fenster ist nicht synchronisiert, der Aufrufer muss den Zugriff schützen.
+ */
+class ShapeWindow extends EdgeTracker {
+
+    /** höchste Anzahl von Elementen im Fenster, 0 für unbegrenzt */
+    final int capacity;
+    /** größtes Alter der Elemente in Nanosekunden, 0 für unbegrenzt */
+    final long nanos;
+
+    /** Elemente nach Ordnungszahl modulo Länge */
+    private WhiteBoard.AttributedShape[] ring;
+    /** Eintragszeiten nach System.nanoTime() */
+    private long[] times;
+    /** Ordnungszahl des ältesten und des nächsten Elements */
+    private long head = 0, tail = 0;
+    /** Anzahl der nicht entfernten Elemente im Fenster */
+    private int live = 0;
+
+    private final Extremes left = new Extremes();
+    private final Extremes bottom = new Extremes();
+    private final Extremes right = new Extremes();
+    private final Extremes top = new Extremes();
+
+    /** Legt ein leeres Fenster an. Bei begrenzter Anzahl wird der Ringpuffer
+     * gleich in voller Größe angelegt.
+     * @param capacity höchste Anzahl von Elementen, 0 für unbegrenzt
+     * @param nanos größtes Alter in Nanosekunden, 0 für unbegrenzt
+     */
+    ShapeWindow(int capacity, long nanos) {
+        this.capacity = capacity;
+        this.nanos = nanos;
+        int n = capacity > 0 ? capacity + 1 : 1024;
+        ring = new WhiteBoard.AttributedShape[n];
+        times = new long[n];
+    }
+
+    /** Trägt ein Element als neuestes mit der aktuellen Zeit ein */
+    void add(WhiteBoard.AttributedShape as) {
+        add(as, System.nanoTime());
+    }
+
+    /** Trägt ein Element als neuestes ein.
+     * @param as Zeichenelement
+     * @param time Eintragszeit nach System.nanoTime()
+     */
+    void add(WhiteBoard.AttributedShape as, long time) {
+        if(tail - head == ring.length) grow();
+        int i = (int) (tail % ring.length);
+        ring[i] = as;
+        times[i] = time;
+        as.windowOrdinal = tail;
+        live++;
+        push(as, tail++);
+    }
+
+    /** Nimmt die geänderten Ränder eines Elements im Fenster auf, sie gelten
+     * bis zum Verdrängen des derzeit neuesten Elements.
+     */
+    void update(WhiteBoard.AttributedShape as) {
+        if(tail > head) push(as, tail - 1);
+    }
+
+    /** Vermerkt, dass ein Element außer der Reihe entfernt wurde */
+    void removed() {
+        live--;
+    }
+
+    /** @return true, wenn keine Elemente im Fenster sind */
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    /** @return Anzahl der Plätze im Fenster einschließlich entfernter Elemente */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    /** @param now aktuelle Zeit nach System.nanoTime()
+     * @return true, wenn das älteste Element verdrängt werden muss
+     */
+    boolean overdue(long now) {
+        if(tail == head) return false;
+        if(capacity > 0 && tail - head > capacity) return true;
+        return nanos > 0 && now - times[(int) (head % ring.length)] > nanos;
+    }
+
+    /** Nimmt den ältesten Platz aus dem Fenster, in konstanter Zeit.
+     * Der Aufrufer muss das Element anschließend aus der Szene entfernen und
+     * dabei {@link #removed()} aufrufen, sofern es noch enthalten ist.
+     * @return ältestes Element oder null, wenn das Element inzwischen einen
+     * neueren Platz hat
+     */
+    WhiteBoard.AttributedShape poll() {
+        long k = head++;
+        int i = (int) (k % ring.length);
+        WhiteBoard.AttributedShape as = ring[i];
+        ring[i] = null;
+        return as.windowOrdinal == k ? as : null;
+    }
+
+    /** @return kleinste x Koordinate, undefiniert wenn isEmpty() */
+    double minX() {
+        return left.top(head);
+    }
+
+    /** @return kleinste y Koordinate, undefiniert wenn isEmpty() */
+    double minY() {
+        return bottom.top(head);
+    }
+
+    /** @return größte x Koordinate, undefiniert wenn isEmpty() */
+    double maxX() {
+        return -right.top(head);
+    }
+
+    /** @return größte y Koordinate, undefiniert wenn isEmpty() */
+    double maxY() {
+        return -top.top(head);
+    }
+
+    private void push(WhiteBoard.AttributedShape as, long ord) {
+        // häufen sich Einträge verschobener Elemente, aus den Elementen neu aufbauen
+        if(left.size > 2 * (tail - head) + 16) rebuild();
+        left.push(as.x1, ord);
+        bottom.push(as.y1, ord);
+        right.push(-as.x2, ord);
+        top.push(-as.y2, ord);
+    }
+
+    /** Baut die Warteschlangen aus den enthaltenen Elementen neu auf */
+    private void rebuild() {
+        left.size = bottom.size = right.size = top.size = 0;
+        for(long k = head; k < tail; k++) {
+            WhiteBoard.AttributedShape as = ring[(int) (k % ring.length)];
+            if(as == null || as.slot < 0 || as.windowOrdinal != k) continue;
+            left.push(as.x1, k);
+            bottom.push(as.y1, k);
+            right.push(-as.x2, k);
+            top.push(-as.y2, k);
+        }
+    }
+
+    private void grow() {
+        int n = ring.length;
+        WhiteBoard.AttributedShape[] r = new WhiteBoard.AttributedShape[n * 2];
+        long[] t = new long[n * 2];
+        for(long k = head; k < tail; k++) {
+            r[(int) (k % (n * 2))] = ring[(int) (k % n)];
+            t[(int) (k % (n * 2))] = times[(int) (k % n)];
+        }
+        ring = r;
+        times = t;
+    }
+
+    /**
+     * Monotone Warteschlange über einen Rand, als Ringpuffer. Schlüssel
+     * steigen von vorn nach hinten, Maxima werden negiert abgelegt. Die
+     * Ordnungszahlen steigen ebenfalls, vorn steht daher das Minimum über
+     * alle Einträge, die noch im Fenster liegen.
+     */
+    private static class Extremes {
+        private double[] keys = new double[16];
+        private long[] ords = new long[16];
+        /** Platz des vordersten Eintrags */
+        private int first = 0;
+        int size = 0;
+
+        void push(double key, long ord) {
+            // übertroffene Einträge werden nie mehr das Minimum
+            while(size > 0 && keys[(first + size - 1) & (keys.length - 1)] >= key) size--;
+            if(size == keys.length) {
+                double[] k = new double[size * 2];
+                long[] o = new long[size * 2];
+                for(int i = 0; i < size; i++) {
+                    k[i] = keys[(first + i) & (keys.length - 1)];
+                    o[i] = ords[(first + i) & (ords.length - 1)];
+                }
+                keys = k;
+                ords = o;
+                first = 0;
+            }
+            int i = (first + size++) & (keys.length - 1);
+            keys[i] = key;
+            ords[i] = ord;
+        }
+
+        /** @param head älteste Ordnungszahl im Fenster
+         * @return kleinster Schlüssel im Fenster, +unendlich wenn leer
+         */
+        double top(long head) {
+            while(size > 0 && ords[first] < head) {
+                first = (first + 1) & (keys.length - 1);
+                size--;
+            }
+            return size > 0 ? keys[first] : Double.POSITIVE_INFINITY;
+        }
+    }
+}
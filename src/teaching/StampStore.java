@@ -0,0 +1,474 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Spaltenweiser Speicher für gestempelte Kopien von Vorlagen eines WhiteBoard.
+ *
+ * Eine Vorlage ist ein Zeichenelement mit Geometrie, Farbe, Füllung und
+ * Drehung relativ zum Ursprung. Eine Kopie besteht nur aus ihrer Position und
+ * der Nummer ihrer Vorlage und belegt 20 Byte, dazu 4 Byte in jeder
+ * Rasterzelle der Größe ShapeGrid.CELL_SIZE, die sie überdeckt. paint
+ * durchsucht nur die Zellen, die der Clip berührt; Kopien, die mehr als
+ * ShapeGrid.MAX_CELLS Zellen überdecken würden, stehen in einer eigenen Liste,
+ * die immer durchsucht wird. Beim Zeichnen wird jede Vorlage einmal je
+ * Maßstab und Darstellungshinweisen in ein Sprite gerastert, das für alle
+ * Kopien nur noch kopiert wird; die Kopien werden dabei auf ganze Pixel gerundet. Vorlagen,
+ * deren Sprite größer als MAX_SPRITE wäre, und Grafikkontexte mit Drehung
+ * werden mit der Geometrie gezeichnet.
+ * Schreibende Zugriffe müssen vom Aufrufer synchronisiert werden. paint darf
+ * ohne Sperre parallel dazu laufen, wie beim PrimitiveStore: neue Vorlagen
+ * und Kopien werden erst mit {@link #publish()} sichtbar.
+ */
+class StampStore {
+
+    /** Vorlage gelöschter Kopien */
+    static final int ERASED = -1;
+    /** größte Kantenlänge eines Sprites in Pixeln */
+    static final int MAX_SPRITE = 256;
+
+    /** Vorlagen nach Nummer */
+    private Template[] templates = new Template[4];
+    /** Anzahl der Vorlagen */
+    private int templateCount = 0;
+
+    /** Positionen der Kopien */
+    private double[] sx = new double[16], sy = new double[16];
+    /** Vorlagen der Kopien, ERASED wenn gelöscht */
+    private int[] stemplate = new int[16];
+    /** Anzahl belegter Kopien */
+    private int stamps = 0;
+
+    /** Indizes der Kopien je Rasterzelle, Schlüssel ist die gepackte
+     * Zellkoordinate (Long) wie im ShapeGrid. Veröffentlichte Tabellen werden
+     * nicht mehr verändert, neue Zellen kommen in eine Kopie.
+     */
+    private HashMap buckets = new HashMap();
+    /** true, wenn buckets seit der letzten Veröffentlichung kopiert wurde */
+    private boolean bucketsCopied = false;
+    /** Kopien, die zu viele Zellen überdecken würden */
+    private final Bucket oversized = new Bucket(0, 0);
+
+    /** Zuletzt veröffentlichte Vorlagen und Kopien, für paint */
+    private volatile Published published = new Published(templates, sx, sy, stemplate, 0, buckets);
+
+    /** Randkoordinaten aller jemals eingetragenen Kopien */
+    double x1, y1, x2, y2;
+    /** true, solange noch keine Kopie eingetragen wurde */
+    private boolean empty = true;
+
+    /** Eine Vorlage mit ihren Sprites */
+    private static class Template {
+        final WhiteBoard.AttributedShape prototype;
+        /** Sprites nach SpriteKey, synchronisiert auf der Tabelle */
+        final HashMap sprites = new HashMap();
+
+        Template(WhiteBoard.AttributedShape prototype) {
+            this.prototype = prototype;
+        }
+    }
+
+    /** Gerasterte Vorlage */
+    private static class Sprite {
+        final BufferedImage image;
+        /** Lage der linken oberen Ecke relativ zum Ursprung in Pixeln */
+        final int dx, dy;
+
+        Sprite(BufferedImage image, int dx, int dy) {
+            this.image = image;
+            this.dx = dx;
+            this.dy = dy;
+        }
+    }
+
+    /** Maßstab und Darstellungshinweise, mit denen ein Sprite gerastert
+     * wurde. Ein Sprite wird nur für dieselben Hinweise wiederverwendet, damit
+     * ein Wechsel der Qualitätsstufe auch die Kopien neu rastert.
+     */
+    private static final class SpriteKey {
+        final double scale;
+        final RenderingHints hints;
+
+        SpriteKey(double scale, RenderingHints hints) {
+            this.scale = scale;
+            this.hints = hints;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof SpriteKey)) return false;
+            SpriteKey k = (SpriteKey) o;
+            return Double.doubleToLongBits(scale) == Double.doubleToLongBits(k.scale)
+                && hints.equals(k.hints);
+        }
+
+        public int hashCode() {
+            long b = Double.doubleToLongBits(scale);
+            return (int) (b ^ (b >>> 32)) * 31 + hints.hashCode();
+        }
+    }
+
+    /** Indizes der Kopien einer Rasterzelle in Einfügereihenfolge. Es wird
+     * nur angehängt; size wird erst nach dem Eintrag geschrieben, so dass
+     * paint ohne Sperre alle Einträge unter size lesen kann.
+     */
+    private static final class Bucket {
+        /** Zellkoordinate */
+        final int cx, cy;
+        int[] items = new int[4];
+        volatile int size = 0;
+
+        Bucket(int cx, int cy) {
+            this.cx = cx;
+            this.cy = cy;
+        }
+
+        void add(int i) {
+            int s = size;
+            if(s == items.length) items = grow(items, s * 2);
+            items[s] = i;
+            size = s + 1;
+        }
+    }
+
+    /** Felder der Vorlagen und Kopien zusammen mit der Anzahl der Kopien, die
+     * paint daraus lesen darf, unveränderlich. Die Felder enthalten
+     * mindestens count Kopien und alle Vorlagen, auf die sie verweisen.
+     * Die Zellen können weitere, noch nicht veröffentlichte Kopien enthalten.
+     */
+    private static final class Published {
+        final Template[] templates;
+        final double[] sx, sy;
+        final int[] stemplate;
+        final int count;
+        final HashMap buckets;
+
+        Published(Template[] templates, double[] sx, double[] sy, int[] stemplate, int count,
+                  HashMap buckets) {
+            this.templates = templates;
+            this.sx = sx;
+            this.sy = sy;
+            this.stemplate = stemplate;
+            this.count = count;
+            this.buckets = buckets;
+        }
+    }
+
+    /** Sprite-Ersatz für Vorlagen, die mit der Geometrie gezeichnet werden */
+    private static final Sprite NONE = new Sprite(null, 0, 0);
+
+    /** Nimmt eine Vorlage auf.
+     * @param prototype Zeichenelement relativ zum Ursprung, wird nicht mehr verändert
+     * @return Nummer der Vorlage
+     */
+    int addTemplate(WhiteBoard.AttributedShape prototype) {
+        if(templateCount == templates.length) {
+            Template[] t = new Template[templateCount * 2];
+            System.arraycopy(templates, 0, t, 0, templateCount);
+            templates = t;
+        }
+        templates[templateCount] = new Template(prototype);
+        return templateCount++;
+    }
+
+    /** @return Anzahl der Vorlagen */
+    int templateCount() {
+        return templateCount;
+    }
+
+    /** @param t Nummer der Vorlage
+     * @return Zeichenelement der Vorlage
+     */
+    WhiteBoard.AttributedShape template(int t) {
+        return templates[t].prototype;
+    }
+
+    /** Trägt eine Kopie ein, sichtbar erst nach {@link #publish()}.
+     * @param t Nummer der Vorlage oder ERASED
+     * @param x Position
+     * @param y Position
+     * @return Index der Kopie
+     */
+    int addStamp(int t, double x, double y) {
+        if(stamps == sx.length) {
+            int n = stamps * 3 / 2 + 1;
+            sx = grow(sx, n);
+            sy = grow(sy, n);
+            stemplate = grow(stemplate, n);
+        }
+        sx[stamps] = x;
+        sy[stamps] = y;
+        stemplate[stamps] = t;
+        if(t != ERASED) {
+            WhiteBoard.AttributedShape p = templates[t].prototype;
+            include(x + p.x1 - 1, y + p.y1 - 1, x + p.x2 + 1, y + p.y2 + 1);
+            index(stamps, x + p.x1 - 1, y + p.y1 - 1, x + p.x2 + 1, y + p.y2 + 1);
+        }
+        return stamps++;
+    }
+
+    /** Trägt eine Kopie in alle Zellen ein, die ihr Rechteck überdeckt. */
+    private void index(int i, double ax1, double ay1, double ax2, double ay2) {
+        int cx1 = ShapeGrid.cell(ax1), cx2 = ShapeGrid.cell(ax2);
+        int cy1 = ShapeGrid.cell(ay1), cy2 = ShapeGrid.cell(ay2);
+        // NaN-Koordinaten fallen hier ebenfalls heraus
+        if(!(ax2 - ax1 >= 0 && ay2 - ay1 >= 0)
+           || ((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1) > ShapeGrid.MAX_CELLS) {
+            oversized.add(i);
+            return;
+        }
+        for(long cx = cx1; cx <= cx2; cx++) {
+            for(long cy = cy1; cy <= cy2; cy++) {
+                Long key = Long.valueOf(ShapeGrid.key(cx, cy));
+                Bucket b = (Bucket) buckets.get(key);
+                if(b == null) {
+                    if(!bucketsCopied) {
+                        buckets = new HashMap(buckets);
+                        bucketsCopied = true;
+                    }
+                    b = new Bucket((int) cx, (int) cy);
+                    buckets.put(key, b);
+                }
+                b.add(i);
+            }
+        }
+    }
+
+    /** Macht alle eingetragenen Vorlagen und Kopien für paint sichtbar. Muss
+     * nach dem Eintragen noch unter derselben Synchronisation aufgerufen werden.
+     */
+    void publish() {
+        Published p = published;
+        if(p.count != stamps || p.templates != templates || p.buckets != buckets) {
+            published = new Published(templates, sx, sy, stemplate, stamps, buckets);
+            bucketsCopied = false;
+        }
+    }
+
+    /** Löscht eine Kopie. Die Randkoordinaten werden dabei nicht verkleinert.
+     * @param i Index der Kopie
+     * @return überdecktes Rechteck der Kopie oder null, wenn sie nicht
+     * vorhanden oder schon gelöscht war
+     */
+    Rectangle2D erase(int i) {
+        if(i < 0 || i >= stamps || stemplate[i] == ERASED) return null;
+        WhiteBoard.AttributedShape p = templates[stemplate[i]].prototype;
+        stemplate[i] = ERASED;
+        return new Rectangle2D.Double(sx[i] + p.x1 - 1, sy[i] + p.y1 - 1,
+                                      p.x2 - p.x1 + 2, p.y2 - p.y1 + 2);
+    }
+
+    /** @return Anzahl eingetragener Kopien einschließlich gelöschter */
+    int stampCount() {
+        return stamps;
+    }
+
+    double stampX(int i) {
+        return sx[i];
+    }
+
+    double stampY(int i) {
+        return sy[i];
+    }
+
+    /** @return Vorlage der Kopie, ERASED wenn gelöscht */
+    int stampTemplate(int i) {
+        return stemplate[i];
+    }
+
+    /** @return true, wenn noch keine Kopie eingetragen wurde */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /** Zeichnet alle Kopien, die das angegebene Rechteck berühren. Es werden
+     * keine Objekte pro Kopie angelegt. Darf von mehreren Threads gleichzeitig
+     * aufgerufen werden.
+     * @param g2 Grafikkontext in Zeichnungskoordinaten
+     * @param cx1 linker Rand des Clip
+     * @param cy1 unterer Rand des Clip
+     * @param cx2 rechter Rand des Clip
+     * @param cy2 oberer Rand des Clip
+     */
+    void paint(Graphics2D g2, double cx1, double cy1, double cx2, double cy2) {
+        // Felder und Anzahl aus einer Veröffentlichung
+        Published pub = published;
+        int n = pub.count;
+        if(n == 0) return;
+        Template[] templates = pub.templates;
+        double[] sx = pub.sx, sy = pub.sy;
+        int[] stemplate = pub.stemplate;
+        AffineTransform at = g2.getTransform();
+        double scale = at.getScaleX();
+        // Sprites nur bei reiner Skalierung mit gespiegelter y-Achse
+        boolean blit = at.getShearX() == 0 && at.getShearY() == 0 && scale > 0
+            && at.getScaleY() == -scale;
+        // Kopien aus den berührten Zellen, null wenn alle zu prüfen sind
+        int[] found = select(pub, cx1, cy1, cx2, cy2);
+        int m = found == null ? n : found.length;
+        Sprite[] sprites = new Sprite[templates.length];
+        SpriteKey key = null;
+        Graphics2D dg = (Graphics2D) g2.create();
+        try {
+            dg.setTransform(new AffineTransform());
+            for(int k = 0; k < m; k++) {
+                int i = found == null ? k : found[k];
+                int t = stemplate[i];
+                if(t == ERASED) continue;
+                WhiteBoard.AttributedShape p = templates[t].prototype;
+                double x = sx[i], y = sy[i];
+                if(x + p.x2 + 1 < cx1 || x + p.x1 - 1 > cx2
+                   || y + p.y2 + 1 < cy1 || y + p.y1 - 1 > cy2) continue;
+                Sprite s = blit ? sprites[t] : NONE;
+                if(s == null) {
+                    if(key == null) key = new SpriteKey(scale, g2.getRenderingHints());
+                    s = sprites[t] = sprite(templates[t], key);
+                }
+                if(s != NONE) {
+                    int px = (int) Math.round(scale * x + at.getTranslateX());
+                    int py = (int) Math.round(-scale * y + at.getTranslateY());
+                    dg.drawImage(s.image, px + s.dx, py + s.dy, null);
+                } else {
+                    g2.translate(x, y);
+                    p.draw(g2);
+                    g2.setTransform(at);
+                }
+            }
+        } finally {
+            dg.dispose();
+        }
+    }
+
+    /** Sammelt die veröffentlichten Kopien aus den Zellen, die das Rechteck
+     * berührt, aufsteigend und ohne doppelte, damit sie in Einfügereihenfolge
+     * gezeichnet werden.
+     * @return Indizes der Kopien oder null, wenn die Zellen nicht weniger
+     * Einträge als veröffentlichte Kopien haben
+     */
+    private int[] select(Published pub, double cx1, double cy1, double cx2, double cy2) {
+        Bucket[] touched = touched(pub, cx1, cy1, cx2, cy2);
+        // size vor items lesen, dann sind alle Einträge unter size geschrieben
+        int[] sizes = new int[touched.length];
+        int[][] items = new int[touched.length][];
+        long total = 0;
+        for(int b = 0; b < touched.length; b++) {
+            sizes[b] = touched[b].size;
+            items[b] = touched[b].items;
+            total += sizes[b];
+        }
+        int n = pub.count;
+        if(total >= n) return null;
+        int[] found = new int[(int) total];
+        int m = 0;
+        for(int b = 0; b < touched.length; b++) {
+            for(int k = 0; k < sizes[b]; k++) {
+                int i = items[b][k];
+                if(i < n) found[m++] = i;
+            }
+        }
+        Arrays.sort(found, 0, m);
+        int j = 0;
+        for(int k = 0; k < m; k++) {
+            if(j == 0 || found[j - 1] != found[k]) found[j++] = found[k];
+        }
+        if(j == found.length) return found;
+        int[] result = new int[j];
+        System.arraycopy(found, 0, result, 0, j);
+        return result;
+    }
+
+    /** @return die Liste der zu großen Kopien und alle belegten Zellen, die
+     * das Rechteck berührt
+     */
+    private Bucket[] touched(Published pub, double cx1, double cy1, double cx2, double cy2) {
+        HashMap buckets = pub.buckets;
+        int gx1 = ShapeGrid.cell(cx1), gx2 = ShapeGrid.cell(cx2);
+        int gy1 = ShapeGrid.cell(cy1), gy2 = ShapeGrid.cell(cy2);
+        ArrayList result = new ArrayList();
+        result.add(oversized);
+        if(((long) gx2 - gx1 + 1) * ((long) gy2 - gy1 + 1) > buckets.size()) {
+            // Clip größer als das belegte Raster: Zellen direkt durchlaufen
+            for(Iterator it = buckets.values().iterator(); it.hasNext(); ) {
+                Bucket b = (Bucket) it.next();
+                if(b.cx >= gx1 && b.cx <= gx2 && b.cy >= gy1 && b.cy <= gy2) result.add(b);
+            }
+        } else {
+            for(long gx = gx1; gx <= gx2; gx++) {
+                for(long gy = gy1; gy <= gy2; gy++) {
+                    Bucket b = (Bucket) buckets.get(Long.valueOf(ShapeGrid.key(gx, gy)));
+                    if(b != null) result.add(b);
+                }
+            }
+        }
+        return (Bucket[]) result.toArray(new Bucket[result.size()]);
+    }
+
+    /** Liefert das Sprite einer Vorlage für einen Maßstab und
+     * Darstellungshinweise und rastert es beim ersten Mal.
+     * @return Sprite oder NONE, wenn es zu groß wäre
+     */
+    private static Sprite sprite(Template t, SpriteKey key) {
+        double scale = key.scale;
+        synchronized(t.sprites) {
+            Sprite s = (Sprite) t.sprites.get(key);
+            if(s != null) return s;
+            WhiteBoard.AttributedShape p = t.prototype;
+            double m = WhiteBoard.AttributedShape.HALF_STROKE;
+            int left = (int) Math.floor((p.x1 - m) * scale) - 1;
+            int right = (int) Math.ceil((p.x2 + m) * scale) + 1;
+            int top = (int) Math.floor(-(p.y2 + m) * scale) - 1;
+            int bottom = (int) Math.ceil(-(p.y1 - m) * scale) + 1;
+            if(right - left > MAX_SPRITE || bottom - top > MAX_SPRITE) {
+                s = NONE;
+            } else {
+                BufferedImage img = new BufferedImage(right - left, bottom - top,
+                                                      BufferedImage.TYPE_INT_ARGB);
+                Graphics2D sg = img.createGraphics();
+                try {
+                    sg.setRenderingHints(key.hints);
+                    sg.translate(-left, -top);
+                    sg.scale(scale, -scale);
+                    p.draw(sg);
+                } finally {
+                    sg.dispose();
+                }
+                s = new Sprite(img, left, top);
+            }
+            if(t.sprites.size() >= 64) t.sprites.clear();
+            t.sprites.put(key, s);
+            return s;
+        }
+    }
+
+    private void include(double ax1, double ay1, double ax2, double ay2) {
+        if(empty) {
+            x1 = ax1;
+            y1 = ay1;
+            x2 = ax2;
+            y2 = ay2;
+            empty = false;
+            return;
+        }
+        if(ax1 < x1) x1 = ax1;
+        if(ay1 < y1) y1 = ay1;
+        if(ax2 > x2) x2 = ax2;
+        if(ay2 > y2) y2 = ay2;
+    }
+
+    private static double[] grow(double[] a, int n) {
+        double[] b = new double[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private static int[] grow(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -0,0 +1,502 @@
+package teaching;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Zwischenspeicher für die gerasterte Zeichenfläche eines WhiteBoard.
+ *
+ * Die Zeichenebene wird in quadratische Kacheln von TILE_SIZE Pixeln
+ * aufgeteilt, deren Bild einmal gerastert und dann nur noch kopiert wird.
+ * Kacheln gibt es in Stufen des Maßstabs, STEPS_PER_OCTAVE je Verdopplung;
+ * Stufe 0 ist der Maßstab 1, eine Kachel deckt dort TILE_SIZE Zeichnungs-
+ * einheiten. Dargestellt wird mit der nächstkleineren Stufe, deren Bilder
+ * höchstens um den Faktor 2^(1/STEPS_PER_OCTAVE) vergrößert werden.
+ *
+ * Ändert sich die Szene, werden nur die Kacheln unter dem betroffenen
+ * Rechteck ungültig, in allen Stufen. Ungültige, sichtbare Kacheln werden
+ * parallel im ForkJoinPool neu gerastert; bis dahin wird das alte Bild
+ * angezeigt. Fehlt das Bild ganz, etwa gleich nach dem Zoomen, wird als
+ * Vorschau skaliert gezeigt, was in gröberen oder feineren Stufen schon
+ * vorliegt. Gröbere Kacheln bleiben dafür länger erhalten.
+ * Mehrere Caches, etwa die der Ebenen eines WhiteBoard, teilen sich ein
+ * Budget für den Speicher ihrer Kacheln, siehe {@link Budget}.
+ * Alle Methoden sind threadsicher.
+ */
+class TileCache {
+
+    /** Kantenlänge einer Kachel in Pixeln */
+    static final int TILE_SIZE = 256;
+    /** voreingestellter Speicher für gehaltene Kacheln eines Budgets in
+     * Byte, darüber werden unsichtbare verworfen. Die Bilder aller Stufen
+     * sind gleich groß, das Budget fasst 256 gerasterte Kacheln.
+     */
+    static final long MAX_BYTES = 64L << 20;
+    /** angerechneter Speicher einer Kachel ohne Bild in Byte */
+    private static final long TILE_OVERHEAD = 64;
+    /** Stufen je Verdopplung des Maßstabs */
+    static final int STEPS_PER_OCTAVE = 4;
+    /** gröbste Stufe, Maßstab 2^-30 */
+    static final int MIN_LEVEL = -30 * STEPS_PER_OCTAVE;
+    /** feinste Stufe, Maßstab 2^10 */
+    static final int MAX_LEVEL = 10 * STEPS_PER_OCTAVE;
+    /** so viele gröbere Stufen werden nach einer Vorschau durchsucht */
+    private static final int COARSER = 3 * STEPS_PER_OCTAVE;
+    /** so viele feinere Stufen werden nach einer Vorschau durchsucht */
+    private static final int FINER = STEPS_PER_OCTAVE;
+    /** Versatz der Stufe in Schlüssel und Zählern */
+    private static final int LEVEL_OFFSET = 128;
+    /** größter Kachelindex, damit die Schlüssel eindeutig bleiben */
+    private static final long MAX_INDEX = (1L << 27) - 1;
+
+    /** Rastert einen Ausschnitt der Szene und wird über fertige Kacheln informiert */
+    interface Painter {
+        /** Zeichnet alle Elemente im angegebenen Rechteck.
+         * @param g2 Grafikkontext in Zeichnungskoordinaten
+         * @param x1 linker Rand
+         * @param y1 unterer Rand
+         * @param x2 rechter Rand
+         * @param y2 oberer Rand
+         */
+        void render(Graphics2D g2, double x1, double y1, double x2, double y2);
+
+        /** Eine Kachel wurde neu gerastert.
+         * @param x1 linker Rand der Kachel
+         * @param y1 unterer Rand der Kachel
+         * @param x2 rechter Rand der Kachel
+         * @param y2 oberer Rand der Kachel
+         */
+        void tileReady(double x1, double y1, double x2, double y2);
+    }
+
+    private final Painter painter;
+    private final ForkJoinPool pool;
+    private final Budget budget;
+    /** Kacheln, Schlüssel ist die gepackte Stufe und Kachelkoordinate (Long) */
+    private final HashMap tiles = new HashMap();
+    /** Anzahl der Kacheln je Stufe, Index ist Stufe + LEVEL_OFFSET */
+    private final int[] levelCount = new int[2 * LEVEL_OFFSET];
+    /** Stufen mit Kacheln, null wenn neu zu bestimmen */
+    private int[] levels = new int[0];
+    /** Stufe der letzten Darstellung */
+    private int paintLevel = 0;
+
+    TileCache(Painter painter, Budget budget) {
+        this(painter, ForkJoinPool.commonPool(), budget);
+    }
+
+    TileCache(Painter painter, ForkJoinPool pool, Budget budget) {
+        this.painter = painter;
+        this.pool = pool;
+        this.budget = budget;
+    }
+
+    /** @return Stufe, mit der beim angegebenen Maßstab dargestellt wird */
+    static int level(double scale) {
+        double l = Math.floor(Math.log(scale) / Math.log(2) * STEPS_PER_OCTAVE + 1e-9);
+        return (int) Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, l));
+    }
+
+    /** @return Maßstab einer Stufe, Pixel je Zeichnungseinheit */
+    static double scale(int level) {
+        return Math.pow(2, (double) level / STEPS_PER_OCTAVE);
+    }
+
+    /** @return Kantenlänge einer Kachel der Stufe in Zeichnungseinheiten */
+    private static double size(int level) {
+        return TILE_SIZE / scale(level);
+    }
+
+    /** Erklärt alle Kacheln unter dem angegebenen Rechteck für ungültig.
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     */
+    synchronized void invalidate(double x1, double y1, double x2, double y2) {
+        if(!(x1 <= x2 && y1 <= y2)) return;
+        int[] ls = activeLevels();
+        for(int i = 0; i < ls.length; i++) {
+            int level = ls[i];
+            double size = size(level);
+            long tx1 = tile(x1, size), tx2 = tile(x2, size), ty1 = tile(y1, size), ty2 = tile(y2, size);
+            if((tx2 - tx1 + 1) * (ty2 - ty1 + 1) > levelCount[level + LEVEL_OFFSET]) {
+                for(Iterator it = tiles.values().iterator(); it.hasNext(); ) {
+                    Tile t = (Tile) it.next();
+                    if(t.level == level && t.tx >= tx1 && t.tx <= tx2
+                       && t.ty >= ty1 && t.ty <= ty2) t.invalidate();
+                }
+            } else {
+                for(long tx = tx1; tx <= tx2; tx++) {
+                    for(long ty = ty1; ty <= ty2; ty++) {
+                        Tile t = (Tile) tiles.get(Long.valueOf(key(level, tx, ty)));
+                        if(t != null) t.invalidate();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Erklärt alle Kacheln für ungültig */
+    synchronized void invalidateAll() {
+        for(Iterator it = tiles.values().iterator(); it.hasNext(); ) {
+            ((Tile) it.next()).invalidate();
+        }
+    }
+
+    /** Kopiert die Kacheln im Clip auf den Grafikkontext und beauftragt das
+     * Rastern ungültiger Kacheln. Die Zeichnungskoordinate (xt, yt) fällt auf
+     * den Ursprung des Grafikkontexts, eine Zeichnungseinheit ist scale Pixel.
+     * Verworfen wird hier nichts, das übernimmt {@link Budget#evict()}.
+     * @param g Grafikkontext in Bildschirmkoordinaten
+     * @param clip sichtbarer Bereich in Bildschirmkoordinaten
+     * @param xt Zeichnungskoordinate x des linken Rands
+     * @param yt Zeichnungskoordinate y des oberen Rands
+     * @param scale Pixel je Zeichnungseinheit
+     */
+    void paint(Graphics g, Rectangle clip, double xt, double yt, double scale) {
+        int level = level(scale);
+        double size = size(level);
+        long tx1 = first(xt + clip.getMinX() / scale, size), tx2 = last(xt + clip.getMaxX() / scale, size);
+        long ty1 = first(yt - clip.getMaxY() / scale, size), ty2 = last(yt - clip.getMinY() / scale, size);
+        ArrayList images = new ArrayList(), used = new ArrayList();
+        long raster = 0;
+        synchronized(this) {
+            long frame = budget.frame;
+            paintLevel = level;
+            for(long tx = tx1; tx <= tx2; tx++) {
+                for(long ty = ty1; ty <= ty2; ty++) {
+                    Tile t = lookup(level, tx, ty);
+                    t.lastFrame = frame;
+                    used.add(t);
+                    if(t.dirty && !t.rendering) {
+                        t.rendering = true;
+                        pool.execute(new RenderTask(t));
+                    }
+                    if(t.image != null) {
+                        images.add(t);
+                        images.add(null);
+                        raster += t.rasterNanos;
+                        t.rasterNanos = 0;
+                    } else {
+                        preview(t, images, used);
+                    }
+                }
+            }
+            budget.used(used);
+        }
+        if(raster > 0) budget.rastered(raster / pool.getParallelism());
+        for(int i = 0; i < images.size(); i += 2) {
+            Tile t = (Tile) images.get(i);
+            Tile target = (Tile) images.get(i + 1);
+            if(target == null) {
+                draw(g, t, xt, yt, scale);
+            } else {
+                // Vorschau auf die Fläche der fehlenden Kachel beschränken
+                Graphics gc = g.create();
+                try {
+                    double s = size(target.level);
+                    int x1 = screenX(target.tx * s, xt, scale), x2 = screenX((target.tx + 1) * s, xt, scale);
+                    int y1 = screenY((target.ty + 1) * s, yt, scale), y2 = screenY(target.ty * s, yt, scale);
+                    gc.clipRect(x1, y1, x2 - x1, y2 - y1);
+                    draw(gc, t, xt, yt, scale);
+                } finally {
+                    gc.dispose();
+                }
+            }
+        }
+    }
+
+    /** Kopiert das Bild einer Kachel, skaliert auf den Maßstab */
+    private static void draw(Graphics g, Tile t, double xt, double yt, double scale) {
+        double s = size(t.level);
+        int x1 = screenX(t.tx * s, xt, scale), x2 = screenX((t.tx + 1) * s, xt, scale);
+        int y1 = screenY((t.ty + 1) * s, yt, scale), y2 = screenY(t.ty * s, yt, scale);
+        g.drawImage(t.image, x1, y1, x2 - x1, y2 - y1, null);
+    }
+
+    private static int screenX(double x, double xt, double scale) {
+        return (int) Math.round((x - xt) * scale);
+    }
+
+    private static int screenY(double y, double yt, double scale) {
+        return (int) Math.round((yt - y) * scale);
+    }
+
+    /** Sucht für eine Kachel ohne Bild die nächste Stufe mit vorhandenen
+     * Bildern über derselben Fläche und merkt sie paarweise mit der Kachel
+     * in images vor. Muss synchronisiert aufgerufen werden.
+     * @param used nimmt die verwendeten Kacheln auf
+     */
+    private void preview(Tile target, ArrayList images, ArrayList used) {
+        for(int d = 1; d <= COARSER; d++) {
+            if(preview(target, target.level - d, images, used)) return;
+        }
+        for(int d = 1; d <= FINER; d++) {
+            if(preview(target, target.level + d, images, used)) return;
+        }
+    }
+
+    private boolean preview(Tile target, int level, ArrayList images, ArrayList used) {
+        if(level < MIN_LEVEL || level > MAX_LEVEL || levelCount[level + LEVEL_OFFSET] == 0) return false;
+        double s = size(target.level), size = size(level);
+        long tx1 = first(target.tx * s, size), tx2 = last((target.tx + 1) * s, size);
+        long ty1 = first(target.ty * s, size), ty2 = last((target.ty + 1) * s, size);
+        boolean found = false;
+        for(long tx = tx1; tx <= tx2; tx++) {
+            for(long ty = ty1; ty <= ty2; ty++) {
+                Tile t = (Tile) tiles.get(Long.valueOf(key(level, tx, ty)));
+                if(t != null && t.image != null) {
+                    // Vorschau als sichtbar zählen, damit sie nicht verworfen wird
+                    t.lastFrame = budget.frame;
+                    used.add(t);
+                    images.add(t);
+                    images.add(target);
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Sucht oder erzeugt eine Kachel. Muss synchronisiert aufgerufen werden. */
+    private Tile lookup(int level, long tx, long ty) {
+        Long key = Long.valueOf(key(level, tx, ty));
+        Tile t = (Tile) tiles.get(key);
+        if(t == null) {
+            t = new Tile(level, tx, ty);
+            tiles.put(key, t);
+            budget.add(t, this);
+            if(levelCount[level + LEVEL_OFFSET]++ == 0) levels = null;
+        }
+        return t;
+    }
+
+    /** Verwirft eine Kachel, wenn sie noch enthalten, in der laufenden
+     * Darstellung unsichtbar und nicht beim Rastern ist.
+     * @param coarser true, wenn auch Kacheln gröberer Stufen als der zuletzt
+     * dargestellten verworfen werden dürfen
+     */
+    private synchronized void evict(Tile t, boolean coarser) {
+        Long key = Long.valueOf(key(t.level, t.tx, t.ty));
+        if(tiles.get(key) != t || t.lastFrame == budget.frame || t.rendering) return;
+        if(!coarser && t.level < paintLevel) return;
+        tiles.remove(key);
+        budget.remove(t);
+        if(--levelCount[t.level + LEVEL_OFFSET] == 0) levels = null;
+    }
+
+    /** @return Stufen, in denen es Kacheln gibt. Muss synchronisiert aufgerufen werden. */
+    private int[] activeLevels() {
+        if(levels == null) {
+            int n = 0;
+            for(int i = 0; i < levelCount.length; i++) if(levelCount[i] > 0) n++;
+            levels = new int[n];
+            n = 0;
+            for(int i = 0; i < levelCount.length; i++) if(levelCount[i] > 0) levels[n++] = i - LEVEL_OFFSET;
+        }
+        return levels;
+    }
+
+    /** @return Speicher eines Kachelbilds in Byte, 0 ohne Bild */
+    private static long bytes(BufferedImage image) {
+        return image == null ? 0 : 4L * image.getWidth() * image.getHeight();
+    }
+
+    private static long tile(double v, double size) {
+        // auf einen Bereich begrenzen, in dem die Schlüssel eindeutig bleiben
+        double t = Math.floor(v / size);
+        return (long) Math.max(-MAX_INDEX - 1, Math.min(MAX_INDEX, t));
+    }
+
+    /** @return erste Kachel eines links geschlossenen, rechts offenen Bereichs */
+    private static long first(double v, double size) {
+        return tile(v, size);
+    }
+
+    /** @return letzte Kachel eines links geschlossenen, rechts offenen Bereichs */
+    private static long last(double v, double size) {
+        double t = Math.ceil(v / size) - 1;
+        return (long) Math.max(-MAX_INDEX - 1, Math.min(MAX_INDEX, t));
+    }
+
+    private static long key(int level, long tx, long ty) {
+        return ((long) (level + LEVEL_OFFSET) << 56) | ((tx & 0xfffffffL) << 28) | (ty & 0xfffffffL);
+    }
+
+    /** Eine Kachel, Zustand geschützt durch den TileCache */
+    private static class Tile {
+        final int level;
+        final long tx, ty;
+        BufferedImage image;
+        /** Bild entspricht nicht mehr der Szene */
+        boolean dirty = true;
+        /** Rasterauftrag ist unterwegs */
+        boolean rendering = false;
+        /** wird bei jeder Invalidierung erhöht */
+        int version = 0;
+        /** letzte Darstellung, in der die Kachel sichtbar war */
+        long lastFrame;
+        /** Dauer des Rasterns des Bilds in Nanosekunden, 0 sobald es
+         * dargestellt wurde
+         */
+        long rasterNanos;
+
+        Tile(int level, long tx, long ty) {
+            this.level = level;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        void invalidate() {
+            dirty = true;
+            version++;
+        }
+    }
+
+    /** Gemeinsames Speicherbudget mehrerer TileCaches. Es zählt den Speicher
+     * all ihrer Kacheln und führt eine gemeinsame Reihenfolge ihrer letzten
+     * Darstellung; über das Budget hinaus werden die am längsten nicht
+     * dargestellten Kacheln verworfen, gleich aus welchem Cache. Eine
+     * Darstellung aller Caches beginnt mit nextFrame und endet mit evict.
+     * Gesperrt wird immer erst ein TileCache und dann das Budget.
+     */
+    static class Budget {
+        private final long maxBytes;
+        /** angerechneter Speicher aller Kacheln in Byte */
+        private long bytes = 0;
+        /** Zähler der Darstellungen, um unsichtbare Kacheln zu erkennen */
+        private volatile long frame = 0;
+        /** Rasterzeit der Kacheln, die seit nextFrame erstmals dargestellt wurden */
+        private long frameRaster = 0;
+        /** alle Kacheln, zuletzt dargestellte am Ende; Wert ist ihr TileCache */
+        private final LinkedHashMap lru = new LinkedHashMap(16, 0.75f, true);
+
+        Budget() {
+            this(MAX_BYTES);
+        }
+
+        /** @param maxBytes Speicher für gehaltene Kacheln in Byte */
+        Budget(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /** Beginnt eine Darstellung. Kacheln, die bis zum nächsten Aufruf
+         * nicht dargestellt werden, gelten als unsichtbar.
+         */
+        synchronized void nextFrame() {
+            frame++;
+            frameRaster = 0;
+        }
+
+        /** @return Zeit in Nanosekunden, die das Rastern der seit nextFrame
+         * erstmals dargestellten Kacheln gekostet hat, geteilt durch die Zahl
+         * der parallel rasternden Threads ihres Caches; 0, wenn die
+         * Darstellung nur fertige Bilder kopiert hat
+         */
+        synchronized long frameRaster() {
+            return frameRaster;
+        }
+
+        private synchronized void rastered(long nanos) {
+            frameRaster += nanos;
+        }
+
+        /** Verwirft unsichtbare Kacheln, die am längsten nicht dargestellten
+         * zuerst, bis höchstens maxBytes belegt sind. Kacheln gröberer Stufen
+         * als der zuletzt dargestellten ihres Caches bleiben als Vorschau bis
+         * zum doppelten Budget erhalten. Darf nicht unter der Sperre eines
+         * TileCache aufgerufen werden.
+         */
+        void evict() {
+            Object[] tiles, owners;
+            synchronized(this) {
+                if(bytes <= maxBytes) return;
+                tiles = lru.keySet().toArray();
+                owners = lru.values().toArray();
+            }
+            removeHidden(tiles, owners, false, maxBytes);
+            if(bytes() > 2 * maxBytes) removeHidden(tiles, owners, true, 2 * maxBytes);
+        }
+
+        private void removeHidden(Object[] tiles, Object[] owners, boolean coarser, long limit) {
+            for(int i = 0; i < tiles.length && bytes() > limit; i++) {
+                ((TileCache) owners[i]).evict((Tile) tiles[i], coarser);
+            }
+        }
+
+        /** @return angerechneter Speicher aller Kacheln in Byte */
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        private synchronized void add(Tile t, TileCache owner) {
+            lru.put(t, owner);
+            bytes += TILE_OVERHEAD;
+        }
+
+        /** Rückt dargestellte Kacheln ans Ende der Reihenfolge */
+        private synchronized void used(ArrayList used) {
+            for(int i = 0; i < used.size(); i++) lru.get(used.get(i));
+        }
+
+        private synchronized void charge(long n) {
+            bytes += n;
+        }
+
+        private synchronized void remove(Tile t) {
+            lru.remove(t);
+            bytes -= TILE_OVERHEAD + TileCache.bytes(t.image);
+        }
+    }
+
+    /** Rastert eine Kachel außerhalb des Event-Dispatch-Threads */
+    private class RenderTask implements Runnable {
+        private final Tile tile;
+
+        RenderTask(Tile tile) {
+            this.tile = tile;
+        }
+
+        public void run() {
+            int version;
+            synchronized(TileCache.this) {
+                if(tile.level != paintLevel) {
+                    // beim schnellen Zoomen übersprungene Stufe, bleibt ungültig
+                    tile.rendering = false;
+                    return;
+                }
+                version = tile.version;
+            }
+            double scale = scale(tile.level), size = size(tile.level);
+            double x1 = tile.tx * size, y1 = tile.ty * size;
+            BufferedImage img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = img.createGraphics();
+            boolean done = false;
+            long start = System.nanoTime();
+            try {
+                g2.scale(scale, -scale);
+                g2.translate(-x1, -(y1 + size));
+                g2.clip(new Rectangle2D.Double(x1, y1, size, size));
+                painter.render(g2, x1, y1, x1 + size, y1 + size);
+                done = true;
+            } finally {
+                g2.dispose();
+                synchronized(TileCache.this) {
+                    tile.rendering = false;
+                    if(done) {
+                        budget.charge(bytes(img) - bytes(tile.image));
+                        tile.image = img;
+                        tile.rasterNanos = System.nanoTime() - start;
+                        // in der Zwischenzeit ungültig gewordene Kacheln bleiben ungültig
+                        if(tile.version == version) tile.dirty = false;
+                    }
+                }
+            }
+            painter.tileReady(x1, y1, x1 + size, y1 + size);
+        }
+    }
+}
@@ -3,8 +3,19 @@ package teaching;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A graphical drawing board to perform basic operations on geometrical forms.
@@ -17,14 +28,80 @@ import java.util.*;
  */
 public class WhiteBoard {
 
-    /** Das äußere Fenster */
+    /** Das äußere Fenster, null ohne Bildschirm */
     private JFrame frame;
     /** Die "Arbeitsfläche" im äußeren Fenster */
     private Container container;
-    /** inneres Fenster mit Rollbalken */
-    private JScrollPane scrollPane;
-    /** Liste aller Zeichenelemente */
-    private java.util.List shapes = Collections.synchronizedList(new ArrayList());
+    /** Laufzeitmessungen, auch für die Sperre der Szene */
+    private final BoardMetrics metrics = new BoardMetrics(this);
+    /** Steuerung der Darstellungsqualität nach der Dauer je Bild */
+    private final QualityGovernor quality = new QualityGovernor(this);
+    /** Sperre für die Szene: shapes, extremes, die Indizes der Ebenen, nextSeq
+     * und die Ränder.
+     * Die Schreibsperre wird beim Übernehmen anstehender Änderungen gehalten,
+     * die Lesesperre beim Rastern der Kacheln. Zeichnende Threads warten nie
+     * darauf. Warte- und Haltezeiten werden auf Wunsch gemessen.
+     */
+    private final SceneLock sceneLock = new SceneLock(metrics);
+    /** Anstehende Änderungen der Szene. Zeichnende Threads stellen hier ohne
+     * Sperre ein, übernommen wird zu Beginn der nächsten Darstellung.
+     */
+    private final ConcurrentLinkedQueue pending = new ConcurrentLinkedQueue();
+    /** Anzahl anstehender Änderungen */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** Gibt an, ob die Übernahme anstehender Änderungen im Hintergrund bereits
+     * beauftragt ist
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    /** Liste aller Zeichenelemente, geschützt durch sceneLock */
+    private ShapeStore shapes = new ShapeStore();
+    /** Extremwerte der Ränder aller Zeichenelemente, geschützt durch sceneLock */
+    private EdgeTracker extremes = new BoundsTracker();
+    /** Gleitendes Fenster im begrenzten Modus, dann zugleich extremes, sonst
+     * null. Geändert unter sceneLock.
+     */
+    private volatile ShapeWindow window;
+    /** true, wenn seit der letzten Neuberechnung der Ränder Elemente aus dem
+     * Fenster verdrängt wurden, geschützt durch sceneLock
+     */
+    private boolean evicted = false;
+    /** Taktgeber für das Verdrängen nach Alter, null ohne Zeitfenster.
+     * Geschützt durch die Sperre des WhiteBoard.
+     */
+    private javax.swing.Timer windowTimer;
+    /** Spaltenweiser Speicher für geplottete Punkte und Linien.
+     * Schreibzugriffe synchronisieren auf dem Speicher selbst, paint liest ohne Sperre.
+     */
+    private PrimitiveStore primitives = new PrimitiveStore();
+    /** Spaltenweiser Speicher für gestempelte Kopien von Vorlagen, synchronisiert wie primitives */
+    private StampStore stamps = new StampStore();
+    /** Laufende Nummer für das nächste Zeichenelement, geschützt durch sceneLock */
+    private long nextSeq = 0;
+    /** Zustände der Zeichenelemente nach laufender Nummer als persistenter
+     * Vektor, Grundlage der Schnappschüsse. Null bis zum ersten Schnappschuss,
+     * geschützt durch sceneLock.
+     */
+    private ShapeVector history;
+    /** Schnappschüsse für undo und redo, geschützt durch sceneLock */
+    private final ArrayList undoStack = new ArrayList(), redoStack = new ArrayList();
+    /** Schachtelungstiefe offener Stapel */
+    private final AtomicInteger batchDepth = new AtomicInteger();
+    /** Name der Ebene, auf der Zeichenelemente ohne Angabe einer Ebene landen */
+    public static final String BASE_LAYER = "base";
+    /** Speicherbudget der Kacheln aller Ebenen, vor den Ebenen anzulegen */
+    private final TileCache.Budget tileBudget = new TileCache.Budget();
+    /** Ebene BASE_LAYER, trägt auch die geplotteten Punkte und Linien */
+    private final Layer baseLayer = new Layer(BASE_LAYER, 0, 0);
+    /** Ebenen nach ihrem Namen, Änderungen synchronisieren auf der Tabelle */
+    private final ConcurrentHashMap layers = new ConcurrentHashMap();
+    /** Ebenen von unten nach oben, wird bei jeder Änderung ersetzt */
+    private volatile Layer[] layerOrder = new Layer[] {baseLayer};
+    /** Sichtbarer Ausschnitt bei der letzten Darstellung, null davor */
+    private volatile View view;
+    /** true, solange der Ausschnitt der ganzen Zeichnung folgt */
+    private volatile boolean followDrawing = true;
+    /** true, wenn der Ausschnitt waagerecht dem rechten Rand der Zeichnung folgt */
+    private volatile boolean autoScroll = false;
     /** Flag das angibt, ob Fenster geschlossen wurde */
     private boolean windowExited = false;
     /** Action Listener Objekt, dass auf das WindowClose
@@ -40,21 +117,62 @@ public class WhiteBoard {
     /** Koordinaten der Randpunkte */
     private double  maxY;
 
+    /** Anzahl anstehender Änderungen, ab der ein zeichnender Thread sie selbst
+     * übernimmt, sofern die Szene gerade frei ist.
+     */
+    private static final int DRAIN_THRESHOLD = 1 << 16;
+    /** Anzahl anstehender Änderungen, ab der ein zeichnender Thread auf die
+     * Szene wartet, weil die Übernahme im Hintergrund nicht nachkommt.
+     */
+    private static final int MAX_PENDING = 1 << 18;
+    /** Übernimmt anstehende Änderungen im Hintergrund, wenn die Szene beim
+     * Einstellen belegt war; gemeinsam für alle Zeichenflächen.
+     */
+    private static final ExecutorService DRAINER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "WhiteBoard-drain");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    /** Taktgeber für feste Bildrate, null wenn jede Änderung sofort dargestellt wird */
+    private javax.swing.Timer frameTimer;
+    /** Seit dem letzten Takt angeforderter Bildschirmbereich, null wenn keiner.
+     * Geschützt durch frameTimerLock.
+     */
+    private Rectangle frameDamage;
+    private final Object frameTimerLock = new Object();
+    /** Laufzeitmessung der Darstellungen */
+    private final FrameStats frameStats = new FrameStats();
+    /** Journal der Zeichenoperationen, null wenn keines geführt wird */
+    private volatile Journal journal;
+
     /** Komponente, die die eigentliche Darstellung übernimmt. */
     private JComponent graphicalComponent = new DrawingArea();
 
     /** Legt ein neues WhiteBoard-Objekt an. Dieses wird automatisch
-     * in einem eigenen Fenster dargestellt.
+     * in einem eigenen Fenster dargestellt. Läuft die Anwendung ohne
+     * Bildschirm (java.awt.headless=true), wird kein Fenster geöffnet.
      */
     public WhiteBoard() {
+        this(GraphicsEnvironment.isHeadless());
+    }
+
+    /** Legt ein neues WhiteBoard-Objekt an.
+     * @param headless true, wenn kein Fenster geöffnet werden soll. Die
+     * Zeichnung kann dann nur mit {@link #renderImage()} und verwandten
+     * Methoden abgerufen werden.
+     */
+    public WhiteBoard(boolean headless) {
         minX = maxX = minY = maxY = 0;
+        layers.put(BASE_LAYER, baseLayer);
         closeListener = new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
                 windowExited = true;
                 System.exit(0);
             }
         };
-        initFrame();
+        if(!headless) initFrame();
     }
 
     /** Legt alle zum Zeichnen benötigten Objekte an */
@@ -62,10 +180,8 @@ public class WhiteBoard {
         frame = new JFrame("WhiteBoard");
         container = frame.getContentPane();
         container.setLayout(new BorderLayout());
-        scrollPane = new JScrollPane(graphicalComponent);
-        scrollPane.getViewport().setBackground(Color.WHITE);
         graphicalComponent.setForeground(Color.GREEN);
-        container.add(scrollPane, BorderLayout.CENTER);
+        container.add(graphicalComponent, BorderLayout.CENTER);
         frame.setSize(800, 600);
         frame.setLocation(100, 100);
         frame.addWindowListener(closeListener);
@@ -73,83 +189,69 @@ public class WhiteBoard {
         graphicalComponent.repaint();
     }
 
-    /** Neuberechnung der Größe der Zeichenfläche. Dazu werden alle Shapes
-     * durchgearbeitet.
+    /** Neuberechnung der Größe der Zeichenfläche, nachdem Zeichenelemente
+     * entfernt wurden. Die Ränder werden aus den mitgeführten Extremwerten
+     * gelesen, ohne alle Shapes durchzuarbeiten. Muss unter sceneLock
+     * aufgerufen werden, revalidate() ist Sache des Aufrufers.
      * @return gibt an, ob sich die Größe geändert hat
      */
     private boolean recomputeBounds() {
-        AttributedShape as;
-        Rectangle r;
-        boolean boundsChanged = (shapes.size() == 0);
+        evicted = false;
+        BoardEvents.Bounds event = new BoardEvents.Bounds();
+        event.begin();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        boolean boundsChanged;
         double minX = 0, maxX = 0, minY = 0, maxY = 0;
-        double dx, dy;
-        int diag;
-        Point p;
-        synchronized(shapes) {
-            for(Iterator it = shapes.iterator(); it.hasNext(); ) {
-                as = (AttributedShape) it.next();
-                r = as.shape.getBounds();
-                if(as.rotation != 0.0) {
-                    p = r.getLocation();
-                    dx = r.getWidth();
-                    dy = r.getHeight();
-                    diag = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy));
-                    r = new Rectangle(p, new Dimension(diag, diag));
-                }
-                minX = Math.min(minX, r.getMinX());
-                maxX = Math.max(maxX, r.getMaxX());
-                minY = Math.min(minY, r.getMinY());
-                maxY = Math.max(maxY, r.getMaxY());
-            }
+        if(window != null && !window.isEmpty()) {
+            // das Fenster muss den Ursprung nicht enthalten
+            minX = maxX = window.minX();
+            minY = maxY = window.minY();
         }
-        if(this.minX < minX) {
-            boundsChanged = true;
-            this.minX = minX;
+        if(!extremes.isEmpty()) {
+            minX = Math.min(minX, extremes.minX());
+            maxX = Math.max(maxX, extremes.maxX());
+            minY = Math.min(minY, extremes.minY());
+            maxY = Math.max(maxY, extremes.maxY());
         }
-        if(this.minY < minY) {
-            boundsChanged = true;
-            this.minY = minY;
+        synchronized(primitives) {
+            if(!primitives.isEmpty()) {
+                minX = Math.min(minX, primitives.x1);
+                maxX = Math.max(maxX, primitives.x2);
+                minY = Math.min(minY, primitives.y1);
+                maxY = Math.max(maxY, primitives.y2);
+            }
         }
-        if(this.maxX > maxX) {
-            boundsChanged = true;
-            this.maxX = maxX;
+        synchronized(stamps) {
+            if(!stamps.isEmpty()) {
+                minX = Math.min(minX, stamps.x1);
+                maxX = Math.max(maxX, stamps.x2);
+                minY = Math.min(minY, stamps.y1);
+                maxY = Math.max(maxY, stamps.y2);
+            }
         }
-        if(this.maxY > maxY) {
-            boundsChanged = true;
-            this.maxY = maxY;
+        boundsChanged = this.minX != minX || this.maxX != maxX
+            || this.minY != minY || this.maxY != maxY;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        if(start != 0) metrics.boundsRecomputed(System.nanoTime() - start);
+        if(event.shouldCommit()) {
+            event.changed = boundsChanged;
+            event.commit();
         }
-        if(boundsChanged) graphicalComponent.revalidate();
         return boundsChanged;
     }
 
-    /** Neuberechnung der Größe der Zeichenfläche, wenn ein Shape hinzugefügt wurde
+    /** Erweitert die Zeichenfläche, so dass das angegebene Rechteck enthalten ist.
+     * Muss unter sceneLock aufgerufen werden.
      * @return gibt an, ob sich die Größe geändert hat
-     * @param s hinzugefügtes Zeichnungselement
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
      */
-    private boolean recomputeBounds(Shape s) {
-        return recomputeBounds(s, 0.);
-    }
-
-    /** Neuberechnung der Größe der Zeichenfläche, wenn ein gedrehtes Zeichnungselement
-     * hinzugefügt wird.
-     * @return gibt an, ob sich die Größe geändert hat
-     * @param s hinzugefügtes Zeichnungselement
-     * @param rotation Drehung des Zeichenelements
-     */
-    private boolean recomputeBounds(Shape s, double rotation) {
-        Rectangle r = s.getBounds();
-        if(rotation != 0.0) {
-            Point p = r.getLocation();
-            double dx = r.getWidth();
-            double dy = r.getHeight();
-            int diag = (int) Math.ceil( Math.sqrt(dx * dx + dy * dy));
-            p.translate(-diag / 2, -diag / 2);
-            r = new Rectangle(p, new Dimension(10 * diag / 7, 10 * diag / 7));
-        }
-        double x1 = r.getMinX();
-        double x2 = r.getMaxX();
-        double y1 = r.getMinY();
-        double y2 = r.getMaxY();
+    private boolean extendBounds(double x1, double y1, double x2, double y2) {
         boolean boundsChanged = false;
         if (minX > x1) {
             boundsChanged = true;
@@ -167,7 +269,6 @@ public class WhiteBoard {
             boundsChanged = true;
             maxY = y2;
         }
-        if(boundsChanged) graphicalComponent.revalidate();
         return boundsChanged;
     }
 
@@ -193,13 +294,20 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawLine(double xfrom, double yfrom, double xto, double yto, Color color) {
+        return drawLine(BASE_LAYER, xfrom, yfrom, xto, yto, color);
+    }
+
+    /** Wie {@link #drawLine(double, double, double, double, Color)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawLine(String layer, double xfrom, double yfrom, double xto, double yto, Color color) {
         Shape s = new Line2D.Double(xfrom, yfrom,  xto, yto);
         rebuild();
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, 0., false);
-        shapes.add(as);
-        recomputeBounds(s);
-        container.repaint();
-        return as;
+        Layer l = layer(layer);
+        return addShape(l, s, color, 0., false);
     }
 
     /** Zeichnet einen parabolischen Bogen in default-Farbe.
@@ -227,8 +335,19 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawArc(double xfrom, double yfrom, double xto, double yto, double excentricity, Color color, boolean solid) {
+        return drawArc(BASE_LAYER, xfrom, yfrom, xto, yto, excentricity, color, solid);
+    }
+
+    /** Wie {@link #drawArc(double, double, double, double, double, Color, boolean)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawArc(String layer, double xfrom, double yfrom, double xto, double yto, double excentricity, Color color, boolean solid) {
         double xs, ys, d, dx, dy, r, exx, exy;
         rebuild();
+        Layer l = layer(layer);
         dx = xto - xfrom;
         dy = yto - yfrom;
         d = Math.sqrt(dx * dx + dy * dy);
@@ -238,11 +357,7 @@ public class WhiteBoard {
         xs = ((xfrom + xto) / 2) - 2 * exx;
         ys = ((yfrom + yto) / 2) + 2 * exy;
         Shape s = new QuadCurve2D.Double(xfrom, yfrom, xs, ys, xto, yto);
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, 0., solid);
-        shapes.add(as);
-        recomputeBounds(s);
-        container.repaint();
-        return as;
+        return addShape(l, s, color, 0., solid);
     }
 
     /** Zeichnet einen schwarzen Punkt
@@ -263,13 +378,20 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawPoint(double x, double y, Color color) {
+        return drawPoint(BASE_LAYER, x, y, color);
+    }
+
+    /** Wie {@link #drawPoint(double, double, Color)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawPoint(String layer, double x, double y, Color color) {
         rebuild();
+        Layer l = layer(layer);
         Shape s = new Ellipse2D.Double(x-1, y-1, 2, 2);
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, 0., true);
-        shapes.add(as);
-        recomputeBounds(s);
-        container.repaint();
-        return as;
+        return addShape(l, s, color, 0., true);
     }
 
     /** Zeichnet eine schwarze Ellipse
@@ -296,13 +418,20 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawEllipse(double x, double y, double hx, double hy, Color color, boolean solid, double rotation) {
+        return drawEllipse(BASE_LAYER, x, y, hx, hy, color, solid, rotation);
+    }
+
+    /** Wie {@link #drawEllipse(double, double, double, double, Color, boolean, double)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawEllipse(String layer, double x, double y, double hx, double hy, Color color, boolean solid, double rotation) {
         rebuild();
+        Layer l = layer(layer);
         Shape s = new Ellipse2D.Double(x-hx, y-hy, 2*hx, 2*hy);
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, rotation, solid);
-        shapes.add(as);
-        recomputeBounds(s, rotation);
-        container.repaint();
-        return as;
+        return addShape(l, s, color, rotation, solid);
     }
 
     /** Zeichnet ein schwarzes Polygon
@@ -329,7 +458,18 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawPolygon(double[] x, double y[], Color color, boolean solid, double rotation) {
+        return drawPolygon(BASE_LAYER, x, y, color, solid, rotation);
+    }
+
+    /** Wie {@link #drawPolygon(double[], double[], Color, boolean, double)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawPolygon(String layer, double[] x, double[] y, Color color, boolean solid, double rotation) {
         rebuild();
+        Layer l = layer(layer);
         int[] ix = new int[x.length], iy = new int[y.length];
         int pl = Math.min(x.length, y.length);
         for(int i = 0; i < pl; i++) {
@@ -337,11 +477,7 @@ public class WhiteBoard {
             iy[i] = (int) y[i];
         }
         Shape s = new java.awt.Polygon(ix, iy, pl);
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, rotation, solid);
-        shapes.add(as);
-        recomputeBounds(s, rotation);
-        container.repaint();
-        return as;
+        return addShape(l, s, color, rotation, solid);
     }
 
     /** Zeichnet ein schwarzes Rechteck
@@ -368,180 +504,2605 @@ public class WhiteBoard {
      * Objekt wieder zu löschen.
      */
     public  Object drawRectangle(double x, double y, double hx, double hy, Color color, boolean solid, double rotation) {
+        return drawRectangle(BASE_LAYER, x, y, hx, hy, color, solid, rotation);
+    }
+
+    /** Wie {@link #drawRectangle(double, double, double, double, Color, boolean, double)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawRectangle(String layer, double x, double y, double hx, double hy, Color color, boolean solid, double rotation) {
         rebuild();
+        Layer l = layer(layer);
         Shape s = new Rectangle2D.Double(x-hx, y-hy, 2*hx, 2*hy);
-        AttributedShape as = new WhiteBoard.AttributedShape(s, color, rotation, solid);
-        shapes.add(as);
-        recomputeBounds(s, rotation);
-        container.repaint();
+        return addShape(l, s, color, rotation, solid);
+    }
+
+    /** Zeichnet eine Folge verbundener Linien in einem Schritt. Die Punkte
+     * werden der Reihe nach verbunden, aus n Punkten entstehen n-1 Linien.
+     * Liste und Ränder werden nur einmal gesperrt bzw. angepasst, die
+     * Zeichenfläche wird nur einmal neu dargestellt.
+     * @param xs x Koordinaten der Punkte
+     * @param ys y Koordinaten der Punkte
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Referenzen auf die intern verwendeten Zeichnungsobjekte, in der
+     * Reihenfolge der Linien.
+     */
+    public Object[] drawLines(double[] xs, double[] ys, Color color) {
+        return drawLines(BASE_LAYER, xs, ys, color);
+    }
+
+    /** Wie {@link #drawLines(double[], double[], Color)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object[] drawLines(String layer, double[] xs, double[] ys, Color color) {
+        rebuild();
+        Layer l = layer(layer);
+        int n = Math.max(Math.min(xs.length, ys.length) - 1, 0);
+        AttributedShape[] as = new AttributedShape[n];
+        for(int i = 0; i < n; i++) {
+            Shape s = new Line2D.Double(xs[i], ys[i], xs[i+1], ys[i+1]);
+            as[i] = new WhiteBoard.AttributedShape(s, color, 0., false);
+            as[i].layer = l;
+        }
+        addShapes(as);
         return as;
     }
 
-    /** Löscht ein Objekt nur aus der internen Speicherstruktur.
-     * gObjekt wird nicht von der Zeichenfläche gelöscht, dies geschieht
-     * erst beim nächsten redraw. Dadurch wird ein Flickern beim Bewegen von
-     * Objekten vermieden.
-     * @param o Referenz auf das interne Zeichenobjekt
+    /** Zeichnet einen schwarzen Linienzug
+     * @param x x Koordinaten der Punkte
+     * @param y y Koordinaten der Punkte
+     * @return Referenz auf das intern verwendete Zeichnungsobjekt. Wird benötigt, um das
+     * Objekt wieder zu löschen.
      */
-    public  void removeShape(Object o) {
-        shapes.remove(o);
+    public Object drawPolyline(double[] x, double[] y) {
+        return drawPolyline(x, y, Color.BLACK);
     }
 
-    /** Löscht ein Objekt aus der internen Speicherstruktur und von
-     * der Zeichenfläche. Führt zu Bildschirmflickern, wenn diese Methode
-     * zum Bewegen von Objekten verwendet wird.
-     * @param o Referenz auf das interne Zeichenobjekt
+    /** Zeichnet einen farbigen Linienzug, etwa eine lange Zeitreihe, als ein
+     * einziges Zeichnungsobjekt. Anders als bei drawPolygon wird mit voller
+     * <code>double</code> Genauigkeit gerechnet. Beim Zeichnen werden Punkte,
+     * die in dasselbe Bildschirmpixel fallen, zusammengefasst, so dass die
+     * Darstellung auch bei Millionen von Punkten nur von der Größe des
+     * sichtbaren Bereichs abhängt.
+     * @param x x Koordinaten der Punkte
+     * @param y y Koordinaten der Punkte
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Referenz auf das intern verwendete Zeichnungsobjekt. Wird benötigt, um das
+     * Objekt wieder zu löschen.
+     * @throws IllegalArgumentException wenn keine Punkte angegeben sind
      */
-    public  void wipeShape(Object o) {
-        if(shapes.remove(o)) {
-            recomputeBounds();
-            graphicalComponent.repaint();
+    public Object drawPolyline(double[] x, double[] y, Color color) {
+        return drawPolyline(BASE_LAYER, x, y, color);
+    }
+
+    /** Wie {@link #drawPolyline(double[], double[], Color)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object drawPolyline(String layer, double[] x, double[] y, Color color) {
+        rebuild();
+        Layer l = layer(layer);
+        int n = Math.min(x.length, y.length);
+        if(n == 0) throw new IllegalArgumentException("Linienzug ohne Punkte");
+        double[] px = new double[n], py = new double[n];
+        System.arraycopy(x, 0, px, 0, n);
+        System.arraycopy(y, 0, py, 0, n);
+        return addShape(l, new Polyline(px, py, n), color, 0.0, false);
+    }
+
+    /** Zeichnet viele farbige Punkte in einem Schritt. Liste und Ränder werden
+     * nur einmal gesperrt bzw. angepasst, die Zeichenfläche wird nur einmal
+     * neu dargestellt.
+     * @param xs x Koordinaten
+     * @param ys y Koordinaten
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Referenzen auf die intern verwendeten Zeichnungsobjekte, in der
+     * Reihenfolge der Koordinaten.
+     */
+    public Object[] drawPoints(double[] xs, double[] ys, Color color) {
+        return drawPoints(BASE_LAYER, xs, ys, color);
+    }
+
+    /** Wie {@link #drawPoints(double[], double[], Color)},
+     * aber auf einer benannten Ebene.
+     * @param layer Name der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     * @see #addLayer(String, int)
+     */
+    public Object[] drawPoints(String layer, double[] xs, double[] ys, Color color) {
+        rebuild();
+        Layer l = layer(layer);
+        int n = Math.min(xs.length, ys.length);
+        AttributedShape[] as = new AttributedShape[n];
+        for(int i = 0; i < n; i++) {
+            Shape s = new Ellipse2D.Double(xs[i]-1, ys[i]-1, 2, 2);
+            as[i] = new WhiteBoard.AttributedShape(s, color, 0., true);
+            as[i].layer = l;
         }
+        addShapes(as);
+        return as;
     }
 
-    /**
-     * Methode zum @Demonstrieren und Testen der Zeichenmöglichkeiten von WhiteBoard.<br>
-     * In der Methode actionPerformed des JButton sieht man, wie ein Objekt von der
-     * Zeichenfläche wieder gelöscht wird.<br>
-     * Die übrigen Statements zeigen, wie unterschiedliche Objekte gezeichnet werden.
+    /** Zeichnet einen farbigen Punkt in den spaltenweisen Punktspeicher.
+     * Anders als {@link #drawPoint(double, double, Color)} wird dabei kein
+     * Objekt angelegt; der Punkt belegt nur 20 Byte. Solche Punkte und Linien
+     * werden auf der Grundebene über allen mit draw... gezeichneten Objekten
+     * dargestellt.
+     * @param x Koordinate
+     * @param y Koordinate
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Index des Punkts, wird zum Löschen mit {@link #erasePoint(int)} benötigt.
      */
-    public void demo() {
-        JButton b = new JButton("weg mit der Form");
-        b.addActionListener(new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
+    public int plotPoint(double x, double y, Color color) {
+        rebuild();
+        int i;
+        synchronized(primitives) {
+            i = primitives.addPoint(x, y, color.getRGB());
+            primitives.publish();
+            Journal j = journal;
+            if(j != null) j.point(x, y, color.getRGB());
+        }
+        plotted(x - 1, y - 1, x + 1, y + 1);
+        return i;
+    }
+
+    /** Zeichnet viele farbige Punkte in den spaltenweisen Punktspeicher.
+     * Die Punkte erhalten fortlaufende Indizes.
+     * @param xs x Koordinaten
+     * @param ys y Koordinaten
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Index des ersten Punkts, die folgenden Punkte haben die
+     * nachfolgenden Indizes. -1 wenn keine Punkte übergeben wurden.
+     */
+    public int plotPoints(double[] xs, double[] ys, Color color) {
+        int n = Math.min(xs.length, ys.length);
+        if(n == 0) return -1;
+        rebuild();
+        int argb = color.getRGB();
+        int first = -1;
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        synchronized(primitives) {
+            for(int i = 0; i < n; i++) {
+                int h = primitives.addPoint(xs[i], ys[i], argb);
+                if(i == 0) first = h;
+            }
+            primitives.publish();
+            Journal j = journal;
+            if(j != null) j.points(xs, ys, n, argb);
+        }
+        for(int i = 0; i < n; i++) {
+            x1 = Math.min(x1, xs[i]);
+            y1 = Math.min(y1, ys[i]);
+            x2 = Math.max(x2, xs[i]);
+            y2 = Math.max(y2, ys[i]);
+        }
+        plotted(x1 - 1, y1 - 1, x2 + 1, y2 + 1);
+        return first;
+    }
 
-                    if(shapes.size() > 0)
-                        wipeShape(shapes.get(shapes.size() - 1));
+    /** Zeichnet eine farbige Linie in den spaltenweisen Linienspeicher.
+     * Anders als {@link #drawLine(double, double, double, double, Color)} wird
+     * dabei kein Objekt angelegt.
+     * @param xfrom x Startkoordinate
+     * @param yfrom y Startkoordinate
+     * @param xto x Zielkoordinate
+     * @param yto y Zielkoordinate
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Index der Linie, wird zum Löschen mit {@link #eraseSegment(int)} benötigt.
+     */
+    public int plotSegment(double xfrom, double yfrom, double xto, double yto, Color color) {
+        rebuild();
+        int i;
+        synchronized(primitives) {
+            i = primitives.addSegment(xfrom, yfrom, xto, yto, color.getRGB());
+            primitives.publish();
+            Journal j = journal;
+            if(j != null) j.segment(xfrom, yfrom, xto, yto, color.getRGB());
+        }
+        plotted(Math.min(xfrom, xto), Math.min(yfrom, yto),
+                Math.max(xfrom, xto), Math.max(yfrom, yto));
+        return i;
+    }
 
+    /** Zeichnet eine Folge verbundener Linien in den spaltenweisen
+     * Linienspeicher. Aus n Punkten entstehen n-1 Linien mit fortlaufenden
+     * Indizes.
+     * @param xs x Koordinaten der Punkte
+     * @param ys y Koordinaten der Punkte
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @return Index der ersten Linie, -1 wenn weniger als zwei Punkte übergeben wurden.
+     */
+    public int plotSegments(double[] xs, double[] ys, Color color) {
+        int n = Math.min(xs.length, ys.length) - 1;
+        if(n <= 0) return -1;
+        rebuild();
+        int argb = color.getRGB();
+        int first = -1;
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        synchronized(primitives) {
+            for(int i = 0; i < n; i++) {
+                int h = primitives.addSegment(xs[i], ys[i], xs[i+1], ys[i+1], argb);
+                if(i == 0) first = h;
             }
-        });
-        this.container.add(b, BorderLayout.SOUTH);
-        this.frame.validate();
-        ArrayList mainShapes = new ArrayList();
-        double[] xp = {0., 100., 150., 70.};
-        double yp[] = {160., 150., 300., -100.};
-        this.drawPolygon(xp, yp);
-        this.drawPolygon(yp, xp, Color.BLUE, true, Math.PI/2);
-        this.drawPolygon(yp, xp, Color.RED, true, Math.PI);
-        this.drawPolygon(yp, xp, Color.GREEN, true, Math.PI*3/2);
-        this.drawPolygon(yp, xp, Color.ORANGE, true, 0.);
-        this.drawLine(-400,0, 400, 0);
-        this.drawLine(0,-400, 0, 400);
-        this.drawLine(-400,-0, 0, 400);
-        this.drawLine(0,-400, 400, 0);
-        this.drawLine(-400,0, 0, -400);
-        this.drawLine(0, 400, 400, 0);
-        this.drawLine(0,0, 100,100);
-        this.drawLine(0,-400, 200,200);
-        this.drawLine(0,-400, 200,-380);
-        this.drawEllipse(0, 0, 400, 400, Color.RED, false, 0);
-        this.drawLine(0,0, 100,-100);
-        mainShapes.add(this.drawEllipse(-100, 0, 100, 100, Color.GREEN, true, 0));
-        this.drawLine(0,0, -100, 0);
-        mainShapes.add(this.drawRectangle(100, 100, 100, 100, Color.ORANGE, false, Math.PI/4));
-        mainShapes.add(this.drawArc(100, 100, 100, -100, -100, Color.BLUE, false));
-        this.drawPoint(150, 300);
-        mainShapes.add(this.drawRectangle(450, 450, 500, 500, Color.ORANGE, false, Math.PI/4));
-        mainShapes.add(this.drawRectangle(450, 450, 496, 496, Color.BLUE, true, Math.PI/4));
-        mainShapes.add(this.drawEllipse(700, 500, 500, 200, Color.GREEN, true, -Math.PI/10));
-        this.drawLine(100,0, 200,100);
-        this.drawArc(100, 100, 400, 500, 100);
-        mainShapes.add(this.drawArc(110, 100, 110, 500, 80));
-        mainShapes.add(this.drawArc(90, 500, 90, 100, 80, Color.RED, true));
-        mainShapes.add(this.drawArc(120, 500, 120, 100, -80));
+            primitives.publish();
+            Journal j = journal;
+            if(j != null) j.segments(xs, ys, n + 1, argb);
+        }
+        for(int i = 0; i <= n; i++) {
+            x1 = Math.min(x1, xs[i]);
+            y1 = Math.min(y1, ys[i]);
+            x2 = Math.max(x2, xs[i]);
+            y2 = Math.max(y2, ys[i]);
+        }
+        plotted(x1, y1, x2, y2);
+        return first;
+    }
 
-        mainShapes.add(this.drawArc(600, 90, 200, 90, 80));
-        mainShapes.add(this.drawArc(200, 100, 600, 100, -80));
-        mainShapes.add(this.drawArc(200, 110, 600, 110, 80));
-        mainShapes.add(this.drawArc(600, 120, 200, 120, -80));
+    /** Löscht einen mit plotPoint gezeichneten Punkt von der Zeichenfläche.
+     * Die Größe der Zeichenfläche wird dabei nicht verändert.
+     * @param handle Index des Punkts
+     */
+    public void erasePoint(int handle) {
+        Rectangle2D erased;
+        synchronized(primitives) {
+            erased = primitives.erasePoint(handle);
+            Journal j = journal;
+            if(j != null && erased != null) j.erase(true, handle);
+        }
+        if(erased != null) {
+            plotted(erased.getMinX(), erased.getMinY(), erased.getMaxX(), erased.getMaxY());
+        }
+    }
 
-        mainShapes.add(this.drawArc(500, 200, 600, 600, -80));
-        mainShapes.add(this.drawArc(510, 210, 590, 590, 80));
-        mainShapes.add(this.drawArc(580, 580, 520, 220, -70));
-        mainShapes.add(this.drawArc(570, 570, 530, 230, 70));
+    /** Löscht eine mit plotSegment gezeichnete Linie von der Zeichenfläche.
+     * Die Größe der Zeichenfläche wird dabei nicht verändert.
+     * @param handle Index der Linie
+     */
+    public void eraseSegment(int handle) {
+        Rectangle2D erased;
+        synchronized(primitives) {
+            erased = primitives.eraseSegment(handle);
+            Journal j = journal;
+            if(j != null && erased != null) j.erase(false, handle);
+        }
+        if(erased != null) {
+            plotted(erased.getMinX(), erased.getMinY(), erased.getMaxX(), erased.getMaxY());
+        }
     }
 
-    /** Test- Mainmethode für Klasse WhiteBoard
-     * @param args Kommandozeilenparameter (ignoriert)
+    /** Legt eine Vorlage für viele gleiche Zeichenelemente an, die mit
+     * {@link #stamp(int, double[], double[])} nur noch an ihre Position
+     * gesetzt werden. Eine Kopie belegt 20 Byte statt eines eigenen Objekts,
+     * und beim Zeichnen wird die Vorlage je Maßstab nur einmal gerastert und
+     * dann für jede Kopie als Bild kopiert, auf ganze Pixel gerundet. Kopien
+     * werden auf der Grundebene über allen mit draw... gezeichneten Objekten
+     * und unter den geplotteten Punkten und Linien dargestellt.
+     * @param shape Geometrie relativ zur Position der Kopien, wird kopiert
+     * @param color Linienfarbe. {@link java.awt.Color}
+     * @param solid true, wenn die Vorlage gefüllt werden soll
+     * @param rotation Drehung im Bogenmaß um den Mittelpunkt der Geometrie
+     * @return Nummer der Vorlage
      */
-    public static void main(String[] args) {
-        final WhiteBoard wb = new WhiteBoard();
-        wb.demo();
+    public int defineTemplate(Shape shape, Color color, boolean solid, double rotation) {
+        AttributedShape prototype = new AttributedShape(copy(shape), color, rotation, solid);
+        synchronized(stamps) {
+            int t = stamps.addTemplate(prototype);
+            Journal j = journal;
+            if(j != null) j.template(prototype);
+            return t;
+        }
     }
 
-    /** Baut Windows wieder auf, falls der Frame geschlossen wurde. */
-    private void rebuild() {
-        if(windowExited) {
-            windowExited = false;
-            initFrame();
+    /** Setzt eine Kopie einer Vorlage an eine Position.
+     * @param template Nummer der Vorlage aus {@link #defineTemplate(Shape, Color, boolean, double)}
+     * @param x Koordinate
+     * @param y Koordinate
+     * @return Index der Kopie, wird zum Löschen mit {@link #eraseStamp(int)} benötigt.
+     * @throws IllegalArgumentException wenn es die Vorlage nicht gibt
+     */
+    public int stamp(int template, double x, double y) {
+        return stamp(template, new double[] {x}, new double[] {y});
+    }
+
+    /** Setzt viele Kopien einer Vorlage. Die Kopien erhalten fortlaufende Indizes.
+     * @param template Nummer der Vorlage aus {@link #defineTemplate(Shape, Color, boolean, double)}
+     * @param xs x Koordinaten
+     * @param ys y Koordinaten
+     * @return Index der ersten Kopie, die folgenden Kopien haben die
+     * nachfolgenden Indizes; -1 ohne Koordinaten
+     * @throws IllegalArgumentException wenn es die Vorlage nicht gibt
+     */
+    public int stamp(int template, double[] xs, double[] ys) {
+        rebuild();
+        int n = Math.min(xs.length, ys.length);
+        int first = -1;
+        AttributedShape p;
+        synchronized(stamps) {
+            if(template < 0 || template >= stamps.templateCount()) {
+                throw new IllegalArgumentException("unbekannte Vorlage " + template);
+            }
+            p = stamps.template(template);
+            for(int i = 0; i < n; i++) {
+                int h = stamps.addStamp(template, xs[i], ys[i]);
+                if(i == 0) first = h;
+            }
+            stamps.publish();
+            Journal j = journal;
+            if(j != null && n > 0) j.stamps(template, xs, ys, n);
         }
+        if(n > 0) stamped(p, xs, ys, n);
+        return first;
     }
 
-    /** Interne Klasse zum Abspeichern der Zeichenobjekte mit verschiedenen Eigenschaften
+    /** Löscht eine mit stamp gesetzte Kopie von der Zeichenfläche.
+     * Die Größe der Zeichenfläche wird dabei nicht verändert.
+     * @param handle Index der Kopie
      */
-    public class AttributedShape {
-        Color color;
-        double rotation;
-        Shape shape;
-        boolean isFilled;
+    public void eraseStamp(int handle) {
+        Rectangle2D erased;
+        synchronized(stamps) {
+            erased = stamps.erase(handle);
+            Journal j = journal;
+            if(j != null && erased != null) j.eraseStamp(handle);
+        }
+        if(erased != null) {
+            plotted(erased.getMinX(), erased.getMinY(), erased.getMaxX(), erased.getMaxY());
+        }
+    }
 
-        AttributedShape(Shape s) {
-            this(s, Color.BLACK, 0.0, false);
+    /** Stellt den Bereich unter neuen Kopien einer Vorlage neu dar */
+    private void stamped(AttributedShape p, double[] xs, double[] ys, int n) {
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        for(int i = 0; i < n; i++) {
+            x1 = Math.min(x1, xs[i]);
+            y1 = Math.min(y1, ys[i]);
+            x2 = Math.max(x2, xs[i]);
+            y2 = Math.max(y2, ys[i]);
         }
+        plotted(x1 + p.x1 - 1, y1 + p.y1 - 1, x2 + p.x2 + 1, y2 + p.y2 + 1);
+    }
 
-        AttributedShape(Shape s, Color c, double rot, boolean solid) {
-            shape = s;
-            color = c;
-            rotation = rot;
-            isFilled = solid;
+    /** Erklärt die Kacheln unter geplotteten Punkten oder Linien für ungültig
+     * und stellt den Bereich neu dar, sofern kein Stapel offen ist.
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     */
+    private void plotted(double x1, double y1, double x2, double y2) {
+        baseLayer.tiles.invalidate(x1 - 1, y1 - 1, x2 + 1, y2 + 1);
+        refresh(x1, y1, x2, y2);
+    }
+
+    /** Beginnt einen Stapel von Zeichenoperationen. Bis zum passenden
+     * {@link #endBatch()} werden Größenänderung und Neudarstellung der
+     * Zeichenfläche zurückgestellt und dann einmalig nachgeholt. Stapel
+     * können geschachtelt werden und gelten für alle Threads, die auf dieses
+     * WhiteBoard zeichnen. endBatch sollte in einem finally-Block stehen.
+     */
+    public void beginBatch() {
+        batchDepth.incrementAndGet();
+    }
+
+    /** Beendet einen mit {@link #beginBatch()} begonnenen Stapel. Beim
+     * Verlassen des äußersten Stapels wird die Zeichenfläche einmal angepasst
+     * und neu dargestellt.
+     * @throws IllegalStateException wenn kein Stapel begonnen wurde
+     */
+    public void endBatch() {
+        int d;
+        do {
+            d = batchDepth.get();
+            if(d == 0) throw new IllegalStateException("endBatch ohne beginBatch");
+        } while(!batchDepth.compareAndSet(d, d - 1));
+        if(d == 1) repaintAll();
+    }
+
+    /** Legt eine neue, leere Ebene an. Ebenen werden nach z von unten nach
+     * oben dargestellt, bei gleichem z in der Reihenfolge ihres Anlegens. Die
+     * Grundebene {@link #BASE_LAYER}, auf der alle draw-Methoden ohne Angabe
+     * einer Ebene zeichnen, hat z = 0.
+     * @param name Name der Ebene
+     * @param z Höhe in der Zeichenreihenfolge
+     * @throws IllegalArgumentException wenn es die Ebene schon gibt
+     */
+    public void addLayer(String name, int z) {
+        if(name == null) throw new IllegalArgumentException("Ebene ohne Namen");
+        synchronized(layers) {
+            if(layers.containsKey(name)) {
+                throw new IllegalArgumentException("Ebene gibt es schon: " + name);
+            }
+            Layer l = new Layer(name, z, layers.size());
+            layers.put(name, l);
+            sortLayers();
+            Journal j = journal;
+            if(j != null) j.layer(l);
         }
     }
 
-    /** Innere Klasse stellt die aktuelle Zeichenfläche zur Verfügung. */
-    private class DrawingArea extends JComponent {
-    /** stellt die Zeichenfläche mit allen enthaltenen grafischen
-     * Objekten neu dar. Wird automatisch aufgerufen, wenn das
-     * Window neu gezeichnet werden muß. Wird auch indirekt über repaint() oder
-     * revalidate aufgerufen.
-     * @param g neues, vom Windowsystem bereitgestelltes Grafics-Objekt, auf dem das Whiteboard
-     * neu aufgebaut wird.
+    /** Ändert die Höhe einer Ebene in der Zeichenreihenfolge. Es wird nichts
+     * neu gerastert.
+     * @param name Name der Ebene
+     * @param z neue Höhe
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
      */
-    public void paint(Graphics g) {
-        Graphics2D g2 = (Graphics2D) g;
-        AttributedShape as;
-        double x = 0.0, y = 0.0;
-        Rectangle r;
-        Rectangle clip = g.getClipBounds();
-        double ysize = clip.getHeight();
-        double xt = Math.min(minX-1, 0);
-        double yt = Math.max(maxY+1, ysize + Math.min(0., minY));
-        g2.scale(1.0, -1.0);
-        g2.translate(-xt, -yt);
-        synchronized(shapes) {
-            for(Iterator it = shapes.iterator(); it.hasNext(); ) {
-                as = (AttributedShape) it.next();
-                g2.setPaint(as.color);
-                if(as.rotation != 0.0) {
-                    r = as.shape.getBounds();
-                    x = r.getCenterX();
-                    y = r.getCenterY();
-                    g2.rotate(as.rotation, x, y);
-                }
-                if(as.isFilled) g2.fill(as.shape);
-                else g2.draw(as.shape);
-                if(as.rotation != 0.0) {
-                    g2.rotate(-as.rotation, x, y);
-                }
+    public void setLayerZ(String name, int z) {
+        synchronized(layers) {
+            Layer l = layer(name);
+            l.z = z;
+            sortLayers();
+            Journal j = journal;
+            if(j != null) j.layerZ(l);
+        }
+        repaintAll();
+    }
+
+    /** Legt eine geladene Ebene an oder übernimmt die gespeicherten
+     * Einstellungen für eine vorhandene.
+     * @param name Name der Ebene
+     * @param z gespeicherte Höhe
+     * @param visible gespeicherte Sichtbarkeit
+     * @param opacity gespeicherte Deckkraft
+     */
+    void loadedLayer(String name, int z, boolean visible, float opacity) {
+        synchronized(layers) {
+            Layer l = (Layer) layers.get(name);
+            if(l == null) {
+                l = new Layer(name, z, layers.size());
+                layers.put(name, l);
             }
+            l.z = z;
+            l.visible = visible;
+            l.opacity = opacity;
+            sortLayers();
+            Journal j = journal;
+            if(j != null) j.layer(l);
+        }
+        repaintAll();
+    }
+
+    /** Legt die Ebene eines geladenen, noch nicht aufgenommenen Zeichenelements fest.
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     */
+    void assignLayer(AttributedShape as, String name) {
+        as.layer = layer(name);
+    }
+
+    /** Blendet eine Ebene ein oder aus. Es wird nichts neu gerastert;
+     * Änderungen an einer ausgeblendeten Ebene werden erst beim Einblenden
+     * gerastert.
+     * @param name Name der Ebene
+     * @param visible true zum Einblenden
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     */
+    public void setLayerVisible(String name, boolean visible) {
+        synchronized(layers) {
+            Layer l = layer(name);
+            l.visible = visible;
+            Journal j = journal;
+            if(j != null) j.layerVisible(l);
         }
+        repaintAll();
+    }
+
+    /** @param name Name der Ebene
+     * @return true, wenn die Ebene eingeblendet ist
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     */
+    public boolean isLayerVisible(String name) {
+        return layer(name).visible;
+    }
+
+    /** Setzt die Deckkraft einer Ebene. Die Ebene wird als Ganzes
+     * durchscheinend über die darunter liegenden gelegt; es wird nichts neu
+     * gerastert.
+     * @param name Name der Ebene
+     * @param opacity Deckkraft von 0 (unsichtbar) bis 1 (deckend)
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt oder die
+     * Deckkraft außerhalb von 0 bis 1 liegt
+     */
+    public void setLayerOpacity(String name, float opacity) {
+        if(!(opacity >= 0f && opacity <= 1f)) {
+            throw new IllegalArgumentException("Deckkraft außerhalb von 0 bis 1: " + opacity);
+        }
+        synchronized(layers) {
+            Layer l = layer(name);
+            l.opacity = opacity;
+            Journal j = journal;
+            if(j != null) j.layerOpacity(l);
+        }
+        repaintAll();
+    }
+
+    /** @param name Name der Ebene
+     * @return Deckkraft der Ebene
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     */
+    public float getLayerOpacity(String name) {
+        return layer(name).opacity;
+    }
+
+    /** @return Namen aller Ebenen in Zeichenreihenfolge von unten nach oben */
+    public String[] getLayers() {
+        Layer[] order = layerOrder;
+        String[] names = new String[order.length];
+        for(int i = 0; i < order.length; i++) names[i] = order[i].name;
+        return names;
+    }
+
+    /** @return Ebene zu einem Namen
+     * @throws IllegalArgumentException wenn es die Ebene nicht gibt
+     */
+    private Layer layer(String name) {
+        Layer l = name != null ? (Layer) layers.get(name) : null;
+        if(l == null) throw new IllegalArgumentException("unbekannte Ebene: " + name);
+        return l;
+    }
+
+    /** Ordnet layerOrder neu. Muss synchronisiert auf layers aufgerufen werden. */
+    private void sortLayers() {
+        Layer[] order = (Layer[]) layers.values().toArray(new Layer[layers.size()]);
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                Layer l1 = (Layer) o1, l2 = (Layer) o2;
+                if(l1.z != l2.z) return l1.z < l2.z ? -1 : 1;
+                return l1.created - l2.created;
+            }
+        });
+        layerOrder = order;
+    }
+
+    /** Nimmt ein neues Zeichenelement auf und stellt die Zeichenfläche neu
+     * dar, sofern kein Stapel offen ist.
+     * @param s Geometrie des Zeichenelements
+     * @param color Linienfarbe
+     * @param rotation Drehung, Winkel im Bogenmaß
+     * @param solid true, wenn das Zeichnungsobjekt gefüllt werden soll
+     * @return das neue Zeichenelement
+     */
+    private Object addShape(Shape s, Color color, double rotation, boolean solid) {
+        return addShape(baseLayer, s, color, rotation, solid);
+    }
+
+    /** Nimmt ein neues Zeichenelement auf einer Ebene auf, siehe
+     * {@link #addShape(Shape, Color, double, boolean)}.
+     * @param l Ebene
+     */
+    private Object addShape(Layer l, Shape s, Color color, double rotation, boolean solid) {
+        AttributedShape as = new WhiteBoard.AttributedShape(s, color, rotation, solid);
+        as.layer = l;
+        return add(as);
+    }
+
+    /** Nimmt ein fertiges Zeichenelement auf. Ins Journal kommt es bei der
+     * Übernahme in die Szene.
+     * @param as neues Zeichenelement
+     * @return das Zeichenelement
+     */
+    Object add(AttributedShape as) {
+        post(as);
+        refresh(as.x1, as.y1, as.x2, as.y2);
+        return as;
+    }
+
+    /** Nimmt mehrere Zeichenelemente als eine einzige Änderung auf.
+     * @param as neue Zeichenelemente
+     */
+    void addShapes(AttributedShape[] as) {
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        for(int i = 0; i < as.length; i++) {
+            x1 = Math.min(x1, as[i].x1);
+            y1 = Math.min(y1, as[i].y1);
+            x2 = Math.max(x2, as[i].x2);
+            y2 = Math.max(y2, as[i].y2);
+        }
+        post(as);
+        if(as.length > 0) refresh(x1, y1, x2, y2);
+    }
+
+    /** Stellt eine Änderung der Szene ein, ohne auf die Darstellung zu warten.
+     * Stehen sehr viele Änderungen an, werden sie gleich hier übernommen, wenn
+     * die Szene frei ist, und sonst im Hintergrund, damit die Warteschlange
+     * begrenzt bleibt. Erst wenn auch das nicht nachkommt, wartet der Aufrufer.
+     * @param op neues Zeichenelement, Feld neuer Zeichenelemente, Change oder Removal
+     */
+    private void post(Object op) {
+        pending.add(op);
+        int n = pendingCount.incrementAndGet();
+        if(n <= DRAIN_THRESHOLD) return;
+        if(sceneLock.writeLock().tryLock()) {
+            boolean changed;
+            try {
+                changed = applyPending();
+            } finally {
+                sceneLock.writeLock().unlock();
+            }
+            if(changed) graphicalComponent.revalidate();
+        } else if(n > MAX_PENDING) {
+            settle();
+        } else if(drainScheduled.compareAndSet(false, true)) {
+            DRAINER.execute(new Runnable() {
+                public void run() {
+                    drainScheduled.set(false);
+                    settle();
+                }
+            });
+        }
+    }
+
+    /** Übernimmt alle anstehenden Änderungen sofort und wartet dafür, falls
+     * nötig, auf die Szene. Für Darstellungen und die Übernahme im
+     * Hintergrund; zeichnende Threads brauchen es nicht aufzurufen.
+     */
+    void settle() {
+        if(pendingCount.get() == 0) return;
+        boolean changed;
+        sceneLock.writeLock().lock();
+        try {
+            changed = applyPending();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+    }
+
+    /** Übernimmt alle anstehenden Änderungen und hält danach die Lesesperre
+     * der Szene, die der Aufrufer wieder freigeben muss.
+     * @return gibt an, ob sich die Größe geändert hat, revalidate() ist Sache
+     * des Aufrufers
+     */
+    private boolean lockSettled() {
+        sceneLock.writeLock().lock();
+        try {
+            boolean changed = applyPending();
+            // zurückgeholte Elemente wieder in Zeichenreihenfolge
+            shapes.order();
+            // zum Lesen herabstufen, Kacheln können weiter gerastert werden
+            sceneLock.readLock().lock();
+            return changed;
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+    }
+
+    /** Berechnet die Ränder unter der Schreibsperre neu, für Messungen.
+     * @return gibt an, ob sich die Größe geändert hat
+     */
+    boolean recomputeBoundsLocked() {
+        sceneLock.writeLock().lock();
+        try {
+            return recomputeBounds();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+    }
+
+    /** Stellt die Zeichenfläche auf einem beliebigen Grafikkontext dar, genau
+     * wie die Darstellung im Fenster, für Messungen ohne Fenster.
+     * @param g Grafikkontext in Bildschirmkoordinaten, sein Clip bestimmt den
+     * dargestellten Bereich
+     */
+    void paintTo(Graphics g) {
+        graphicalComponent.paint(g);
+    }
+
+    /** Übernimmt alle anstehenden Änderungen in die Szene und erklärt die
+     * betroffenen Kacheln für ungültig. Muss unter der Schreibsperre von
+     * sceneLock aufgerufen werden, revalidate() ist Sache des Aufrufers.
+     * Neue Zeichenelemente, Änderungen und Löschungen werden hier im Journal
+     * vermerkt, damit es sie in derselben Reihenfolge enthält, in der sie die
+     * Szene erreichen.
+     * @return gibt an, ob sich die Größe der Zeichenfläche geändert hat
+     */
+    private boolean applyPending() {
+        boolean changed = false, wiped = false;
+        int n = pendingCount.get();
+        // geplottete und gestempelte Elemente stehen nicht in der Warteschlange
+        if(n == 0) return extendPlotted();
+        quality.active();
+        BoardEvents.Apply event = new BoardEvents.Apply();
+        event.begin();
+        int added = 0, removed = 0, modified = 0;
+        Journal j = journal;
+        // nur die bei Beginn anstehenden Änderungen, damit schnelle
+        // Produzenten die Darstellung nicht beliebig aufhalten
+        for(; n > 0; n--) {
+            Object op = pending.poll();
+            if(op == null) break;
+            pendingCount.decrementAndGet();
+            if(op instanceof AttributedShape) {
+                changed |= insert((AttributedShape) op);
+                if(j != null) j.shape((AttributedShape) op);
+                added++;
+            } else if(op instanceof AttributedShape[]) {
+                AttributedShape[] as = (AttributedShape[]) op;
+                for(int i = 0; i < as.length; i++) {
+                    changed |= insert(as[i]);
+                    if(j != null) j.shape(as[i]);
+                }
+                added += as.length;
+            } else if(op instanceof Change) {
+                Change c = (Change) op;
+                if(c.target.slot >= 0) {
+                    modified++;
+                    if(j != null) journal(j, c);
+                }
+                // verschobene oder gedrehte Elemente können die Ränder verkleinern
+                if(modify(c)) wiped = true;
+            } else {
+                Removal r = (Removal) op;
+                if(deleteShape(r.target)) {
+                    removed++;
+                    if(j != null) j.remove((AttributedShape) r.target, r.wipe);
+                    if(r.wipe) wiped = true;
+                }
+            }
+        }
+        if(metrics.isEnabled()) metrics.applied(added, removed, modified);
+        if(event.shouldCommit()) {
+            event.added = added;
+            event.removed = removed;
+            event.changed = modified;
+            event.commit();
+        }
+        if(wiped || evicted || window != null) {
+            // im Fenster kostet das nur die Spitzen der Warteschlangen
+            changed |= recomputeBounds();
+        } else {
+            changed |= extendPlotted();
+        }
+        return changed;
+    }
+
+    /** Erweitert die Ränder um geplottete Punkte und Linien und gestempelte
+     * Kopien. Muss unter sceneLock aufgerufen werden.
+     * @return gibt an, ob sich die Größe geändert hat
+     */
+    private boolean extendPlotted() {
+        boolean changed = false;
+        synchronized(primitives) {
+            if(!primitives.isEmpty()) {
+                changed |= extendBounds(primitives.x1, primitives.y1,
+                                        primitives.x2, primitives.y2);
+            }
+        }
+        synchronized(stamps) {
+            if(!stamps.isEmpty()) {
+                changed |= extendBounds(stamps.x1, stamps.y1, stamps.x2, stamps.y2);
+            }
+        }
+        return changed;
+    }
+
+    /** Trägt ein Zeichenelement in Liste und räumlichen Index ein und
+     * erweitert die Ränder. Muss unter sceneLock aufgerufen werden.
+     * @param as neues Zeichenelement
+     * @return gibt an, ob sich die Größe geändert hat
+     */
+    private boolean insert(AttributedShape as) {
+        as.seq = nextSeq++;
+        return place(as);
+    }
+
+    /** Trägt ein Zeichenelement mit bereits vergebener laufender Nummer ein,
+     * siehe {@link #insert(AttributedShape)}.
+     */
+    private boolean place(AttributedShape as) {
+        shapes.add(as);
+        as.layer.index.add(as);
+        as.layer.size++;
+        extremes.add(as);
+        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+        record(as);
+        boolean changed = extendBounds(as.x1, as.y1, as.x2, as.y2);
+        if(window != null) evictOverdue();
+        return changed;
+    }
+
+    /** Verdrängt die ältesten Elemente, die nicht mehr ins Fenster passen,
+     * wie mit removeShape. Die Ränder werden danach mit recomputeBounds
+     * nachgeführt. Muss unter der Schreibsperre von sceneLock aufgerufen werden.
+     */
+    private void evictOverdue() {
+        ShapeWindow w = window;
+        long now = w.nanos > 0 ? System.nanoTime() : 0;
+        while(w.overdue(now)) {
+            AttributedShape as = w.poll();
+            // veralteter Platz eines erneut eingetragenen Elements
+            if(as == null || !deleteShape(as)) continue;
+            refresh(as.x1, as.y1, as.x2, as.y2);
+            evicted = true;
+        }
+    }
+
+    /** Verdrängt gealterte Elemente eines Zeitfensters, vom Taktgeber
+     * aufgerufen. Ist die Szene gerade belegt, bleibt es beim nächsten Takt.
+     */
+    private void expireWindow() {
+        boolean changed = false;
+        if(!sceneLock.writeLock().tryLock()) return;
+        try {
+            if(window == null) return;
+            evictOverdue();
+            if(evicted) changed = recomputeBounds();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+    }
+
+    /** Vermerkt den aktuellen Zustand eines Zeichenelements im persistenten
+     * Vektor, sofern es Schnappschüsse gibt. Muss unter sceneLock aufgerufen werden.
+     */
+    private void record(AttributedShape as) {
+        ShapeVector h = history;
+        if(h == null) return;
+        ShapeState old = (ShapeState) h.get(as.seq);
+        long since = old != null && old.shape == as.shape ? old.since : h.generation();
+        h.set(as.seq, new ShapeState(as, since));
+    }
+
+    /** @return true, wenn die Geometrie eines Zeichenelements von keinem
+     * Schnappschuss geteilt wird und an Ort und Stelle geändert werden darf
+     */
+    private boolean ownsShape(AttributedShape as) {
+        ShapeVector h = history;
+        if(h == null) return true;
+        ShapeState st = (ShapeState) h.get(as.seq);
+        return st == null || st.shape != as.shape || st.since == h.generation();
+    }
+
+    /** Stellt den angegebenen Bereich der Zeichenfläche neu dar, sofern kein
+     * Stapel offen ist. Die Größe wird bei der Darstellung angepasst, wenn die
+     * anstehenden Änderungen übernommen werden.
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     */
+    private void refresh(double x1, double y1, double x2, double y2) {
+        quality.active();
+        if(batchDepth.get() == 0) repaintArea(x1, y1, x2, y2);
+    }
+
+    /** Stellt den Bildschirmbereich unter einem Rechteck in Zeichnungs-
+     * koordinaten neu dar.
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     */
+    private void repaintArea(double x1, double y1, double x2, double y2) {
+        View v = view;
+        if(v == null || !(x1 <= x2 && y1 <= y2)) {
+            repaintAll();
+            return;
+        }
+        double s = v.scale;
+        double dx = Math.floor((x1 - v.x) * s) - 1, dy = Math.floor((v.y - y2) * s) - 1;
+        repaintDevice((int) Math.max(dx, Integer.MIN_VALUE / 2),
+                      (int) Math.max(dy, Integer.MIN_VALUE / 2),
+                      (int) Math.min((x2 - x1) * s + 3, Integer.MAX_VALUE / 2),
+                      (int) Math.min((y2 - y1) * s + 3, Integer.MAX_VALUE / 2));
+    }
+
+    /** Stellt die ganze Zeichenfläche neu dar. */
+    private void repaintAll() {
+        repaintDevice(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2,
+                      Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** Fordert die Darstellung eines Bildschirmbereichs an. Läuft der
+     * Taktgeber, wird der Bereich nur vorgemerkt und mit allen anderen
+     * Anforderungen bis zum nächsten Takt zu einer Darstellung zusammengefasst.
+     */
+    private void repaintDevice(int x, int y, int w, int h) {
+        synchronized(frameTimerLock) {
+            if(frameTimer != null) {
+                Rectangle r = new Rectangle(x, y, w, h);
+                if(frameDamage == null) frameDamage = r;
+                else frameDamage.add(r);
+                return;
+            }
+        }
+        graphicalComponent.repaint(x, y, w, h);
+    }
+
+    /** Begrenzt die Zeichenfläche auf ein gleitendes Fenster über die zuletzt
+     * gezeichneten Elemente, etwa für Aufzeichnungen, die ohne Ende laufen.
+     * Ältere Elemente werden in konstanter Zeit verdrängt, als wären sie mit
+     * {@link #removeShape(Object)} entfernt worden, und die Ränder folgen dem
+     * Fenster, ohne die Elemente erneut zu durchlaufen. Speicher und Aufwand
+     * je Bild bleiben so gleich, egal wie lange schon gezeichnet wird. Bereits
+     * vorhandene Elemente kommen in Zeichenreihenfolge ins Fenster, mit
+     * {@link #restore(Object)} zurückgeholte als neueste. Geplottete Punkte
+     * und Linien und gestempelte Kopien werden nicht verdrängt.
+     * @param maxShapes höchste Anzahl von Elementen, 0 für unbegrenzt
+     * @param seconds größtes Alter der Elemente in Sekunden, 0 für unbegrenzt.
+     * Sind beide 0, ist die Zeichenfläche wieder unbegrenzt.
+     * @param autoScroll true, wenn der Ausschnitt bei gleichem Maßstab
+     * waagerecht dem rechten Rand der Zeichnung folgen soll
+     * @throws IllegalArgumentException wenn maxShapes oder seconds negativ ist
+     */
+    public synchronized void setWindow(int maxShapes, double seconds, boolean autoScroll) {
+        if(maxShapes < 0 || !(seconds >= 0) || seconds > Long.MAX_VALUE / 1e9) {
+            throw new IllegalArgumentException("ungültiges Fenster: " + maxShapes + ", " + seconds);
+        }
+        boolean changed;
+        sceneLock.writeLock().lock();
+        try {
+            changed = applyPending();
+            shapes.order();
+            if(maxShapes == 0 && seconds == 0) {
+                window = null;
+                extremes = new BoundsTracker();
+            } else {
+                window = new ShapeWindow(maxShapes, (long) (seconds * 1e9));
+                extremes = window;
+            }
+            for(int i = 0; i < shapes.end(); i++) {
+                AttributedShape as = shapes.get(i);
+                if(as == null) continue;
+                extremes.add(as);
+                if(window != null) evictOverdue();
+            }
+            changed |= recomputeBounds();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        this.autoScroll = autoScroll;
+        if(windowTimer != null) {
+            windowTimer.stop();
+            windowTimer = null;
+        }
+        if(seconds > 0) {
+            // etwa zwanzig Takte je Fenster
+            int delay = (int) Math.max(10, Math.min(1000, seconds * 50));
+            windowTimer = new javax.swing.Timer(delay, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    expireWindow();
+                }
+            });
+            windowTimer.start();
+        }
+        if(changed) graphicalComponent.revalidate();
+        repaintAll();
+    }
+
+    /** Gibt die Zeichenfläche frei: hält alle Taktgeber an, auch den der
+     * Steuerung der Darstellungsqualität, und schließt das Fenster, sofern
+     * eines geöffnet wurde. Ein laufendes Journal bleibt offen, siehe
+     * {@link #stopJournal()}.
+     */
+    public synchronized void dispose() {
+        quality.dispose();
+        if(windowTimer != null) {
+            windowTimer.stop();
+            windowTimer = null;
+        }
+        synchronized(frameTimerLock) {
+            if(frameTimer != null) {
+                frameTimer.stop();
+                frameTimer = null;
+                frameDamage = null;
+            }
+        }
+        if(frame != null) frame.dispose();
+    }
+
+    /** Legt eine feste Bildrate fest. Änderungen der Zeichenfläche werden
+     * dann nicht mehr sofort dargestellt, sondern je Takt gesammelt und mit
+     * einer einzigen Darstellung nachgeholt. So bleibt die Darstellung auch
+     * bei sehr vielen Änderungen pro Sekunde, etwa in Animationen mit
+     * {@link #moveShape(Object, double, double)}, flüssig.
+     * @param fps Bilder pro Sekunde, 0 schaltet zurück auf sofortige Darstellung
+     */
+    public void setFrameRate(double fps) {
+        Rectangle left = null;
+        synchronized(frameTimerLock) {
+            if(frameTimer != null) {
+                frameTimer.stop();
+                frameTimer = null;
+                left = frameDamage;
+                frameDamage = null;
+            }
+            if(fps > 0) {
+                int delay = (int) Math.max(1, Math.round(1000.0 / fps));
+                frameTimer = new javax.swing.Timer(delay, new ActionListener() {
+                    public void actionPerformed(ActionEvent e) {
+                        Rectangle r;
+                        synchronized(frameTimerLock) {
+                            r = frameDamage;
+                            frameDamage = null;
+                        }
+                        if(r != null) graphicalComponent.repaint(r.x, r.y, r.width, r.height);
+                    }
+                });
+                frameTimer.setCoalesce(true);
+                frameDamage = left;
+                left = null;
+                frameTimer.start();
+            }
+        }
+        if(left != null) graphicalComponent.repaint(left.x, left.y, left.width, left.height);
+    }
+
+    /** Liefert die Laufzeitmessung der Darstellungen, etwa um die erreichte
+     * Bildrate und die Perzentile der Darstellungsdauer abzufragen.
+     * @return laufend aktualisierte Messung
+     */
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    /** Liefert die Laufzeitmessungen dieses WhiteBoard. Sie sind zunächst
+     * ausgeschaltet und können mit {@link BoardMetrics#setEnabled(boolean)}
+     * oder der Systemeigenschaft teaching.metrics eingeschaltet und mit
+     * {@link BoardMetrics#register(String)} über JMX veröffentlicht werden.
+     * @return Messungen, immer dasselbe Objekt
+     */
+    public BoardMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Liefert die Steuerung der Darstellungsqualität. Sie ist zunächst
+     * ausgeschaltet und kann mit {@link QualityGovernor#setEnabled(boolean)}
+     * oder der Systemeigenschaft teaching.quality eingeschaltet werden.
+     * @return Steuerung, immer dasselbe Objekt
+     */
+    public QualityGovernor getQualityGovernor() {
+        return quality;
+    }
+
+    /** Rastert nach einem Wechsel der Qualität alle Kacheln neu. Bis dahin
+     * bleiben die alten Kacheln sichtbar.
+     */
+    void qualityChanged() {
+        Layer[] order = layerOrder;
+        for(int i = 0; i < order.length; i++) order[i].tiles.invalidateAll();
+        repaintAll();
+    }
+
+    /** @return Anzahl noch nicht übernommener Änderungen */
+    int pendingOperations() {
+        return pendingCount.get();
+    }
+
+    /** Entfernt ein Zeichenelement aus der Liste und dem räumlichen Index.
+     * Muss unter sceneLock aufgerufen werden.
+     * @param o Referenz auf das interne Zeichenobjekt
+     * @return true, wenn das Objekt enthalten war
+     */
+    private boolean deleteShape(Object o) {
+        if(!shapes.remove(o)) return false;
+        AttributedShape as = (AttributedShape) o;
+        as.layer.index.remove(as);
+        as.layer.size--;
+        extremes.removed();
+        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+        if(history != null) history.set(as.seq, null);
+        return true;
+    }
+
+    /** Verschiebt ein Zeichenelement, ohne es neu anzulegen. Geometrie,
+     * Farbe und Platz in der Zeichenreihenfolge bleiben erhalten.
+     * @param o Referenz auf das interne Zeichenobjekt
+     * @param dx Verschiebung in x Richtung
+     * @param dy Verschiebung in y Richtung
+     */
+    public void moveShape(Object o, double dx, double dy) {
+        if(!(o instanceof AttributedShape)) return;
+        AttributedShape as = (AttributedShape) o;
+        post(new Change(as, Change.MOVE, dx, dy, null));
+        refresh(as.x1 + Math.min(dx, 0), as.y1 + Math.min(dy, 0),
+                as.x2 + Math.max(dx, 0), as.y2 + Math.max(dy, 0));
+    }
+
+    /** Setzt die Drehung eines Zeichenelements. Gedreht wird wie beim
+     * Zeichnen um den Mittelpunkt des Elements.
+     * @param o Referenz auf das interne Zeichenobjekt
+     * @param rotation Winkel im Bogenmaß
+     */
+    public void setRotation(Object o, double rotation) {
+        if(!(o instanceof AttributedShape)) return;
+        AttributedShape as = (AttributedShape) o;
+        post(new Change(as, Change.ROTATE, rotation, 0.0, null));
+        // der neue Bereich wird bei der Übernahme dargestellt
+        refresh(as.x1, as.y1, as.x2, as.y2);
+    }
+
+    /** Setzt die Farbe eines Zeichenelements.
+     * @param o Referenz auf das interne Zeichenobjekt
+     * @param color neue Farbe
+     */
+    public void setColor(Object o, Color color) {
+        if(!(o instanceof AttributedShape)) return;
+        AttributedShape as = (AttributedShape) o;
+        post(new Change(as, Change.RECOLOR, 0.0, 0.0, color));
+        refresh(as.x1, as.y1, as.x2, as.y2);
+    }
+
+    /** Ändert ein enthaltenes Zeichenelement an Ort und Stelle und erklärt die
+     * Kacheln unter altem und neuem Bereich für ungültig. Muss unter der
+     * Schreibsperre von sceneLock aufgerufen werden.
+     * @param c anstehende Änderung
+     * @return true, wenn sich die Randkoordinaten geändert haben
+     */
+    private boolean modify(Change c) {
+        AttributedShape as = c.target;
+        if(as.slot < 0) return false;
+        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+        if(c.kind == Change.RECOLOR) {
+            as.color = c.color;
+            record(as);
+            return false;
+        }
+        as.layer.index.remove(as);
+        if(c.kind == Change.MOVE) {
+            // von Schnappschüssen geteilte Geometrie bleibt unverändert
+            as.shape = translate(ownsShape(as) ? as.shape : copy(as.shape), c.a, c.b);
+        } else {
+            as.rotation = c.a;
+        }
+        as.computeBounds();
+        as.layer.index.add(as);
+        extremes.update(as);
+        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+        refresh(as.x1, as.y1, as.x2, as.y2);
+        record(as);
+        return true;
+    }
+
+    /** Vermerkt eine übernommene Änderung im Journal */
+    private static void journal(Journal j, Change c) {
+        if(c.kind == Change.MOVE) j.move(c.target, c.a, c.b);
+        else if(c.kind == Change.ROTATE) j.rotate(c.target, c.a);
+        else j.color(c.target, c.color);
+    }
+
+    /** @return unabhängige Kopie einer Geometrie, möglichst vom selben Typ */
+    private static Shape copy(Shape s) {
+        if(s instanceof Line2D) return (Shape) ((Line2D) s).clone();
+        if(s instanceof QuadCurve2D) return (Shape) ((QuadCurve2D) s).clone();
+        if(s instanceof RectangularShape) return (Shape) ((RectangularShape) s).clone();
+        if(s instanceof Polyline) return ((Polyline) s).copy();
+        if(s instanceof Path2D) return (Shape) ((Path2D) s).clone();
+        if(s instanceof java.awt.Polygon) {
+            java.awt.Polygon p = (java.awt.Polygon) s;
+            return new java.awt.Polygon(p.xpoints, p.ypoints, p.npoints);
+        }
+        return new Path2D.Double(s);
+    }
+
+    /** Verschiebt eine Geometrie nach Möglichkeit an Ort und Stelle.
+     * @param s Geometrie
+     * @param dx Verschiebung in x Richtung
+     * @param dy Verschiebung in y Richtung
+     * @return die verschobene Geometrie, s selbst oder ein Ersatz
+     */
+    private static Shape translate(Shape s, double dx, double dy) {
+        if(s instanceof Line2D) {
+            Line2D l = (Line2D) s;
+            l.setLine(l.getX1() + dx, l.getY1() + dy, l.getX2() + dx, l.getY2() + dy);
+        } else if(s instanceof QuadCurve2D) {
+            QuadCurve2D q = (QuadCurve2D) s;
+            q.setCurve(q.getX1() + dx, q.getY1() + dy, q.getCtrlX() + dx, q.getCtrlY() + dy,
+                       q.getX2() + dx, q.getY2() + dy);
+        } else if(s instanceof RectangularShape) {
+            RectangularShape r = (RectangularShape) s;
+            r.setFrame(r.getX() + dx, r.getY() + dy, r.getWidth(), r.getHeight());
+        } else if(s instanceof Polyline) {
+            ((Polyline) s).translate(dx, dy);
+        } else if(s instanceof Path2D) {
+            ((Path2D) s).transform(AffineTransform.getTranslateInstance(dx, dy));
+        } else if(s instanceof java.awt.Polygon && dx == Math.rint(dx) && dy == Math.rint(dy)) {
+            ((java.awt.Polygon) s).translate((int) dx, (int) dy);
+        } else {
+            // einmalig durch einen Pfad ersetzen, der sich danach selbst verschiebt
+            return new Path2D.Double(s, AffineTransform.getTranslateInstance(dx, dy));
+        }
+        return s;
+    }
+
+    /** Löscht ein Objekt nur aus der internen Speicherstruktur.
+     * gObjekt wird nicht von der Zeichenfläche gelöscht, dies geschieht
+     * erst beim nächsten redraw. Dadurch wird ein Flickern beim Bewegen von
+     * Objekten vermieden.
+     * @param o Referenz auf das interne Zeichenobjekt
+     */
+    public  void removeShape(Object o) {
+        post(new Removal(o, false));
+    }
+
+    /** Löscht ein Objekt aus der internen Speicherstruktur und von
+     * der Zeichenfläche. Führt zu Bildschirmflickern, wenn diese Methode
+     * zum Bewegen von Objekten verwendet wird.
+     * @param o Referenz auf das interne Zeichenobjekt
+     */
+    public  void wipeShape(Object o) {
+        post(new Removal(o, true));
+        if(o instanceof AttributedShape) {
+            AttributedShape as = (AttributedShape) o;
+            repaintArea(as.x1, as.y1, as.x2, as.y2);
+        }
+    }
+
+    /** Hält den aktuellen Stand aller Zeichenelemente fest, in konstanter Zeit
+     * und ohne sie zu kopieren: Stand und Szene teilen sich alles, was sich
+     * seitdem nicht geändert hat. Der erste Schnappschuss eines WhiteBoard legt
+     * dafür einmalig einen persistenten Vektor über alle Zeichenelemente an.
+     * Geplottete Punkte und Linien, Ebenen und Ausschnitt gehören nicht dazu.
+     * @return Schnappschuss für {@link #restore(Object)} und {@link #changes(Object, Object)}
+     */
+    public Object snapshot() {
+        Object v;
+        boolean changed;
+        sceneLock.writeLock().lock();
+        try {
+            changed = applyPending();
+            v = versions().freeze();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+        return v;
+    }
+
+    /** Setzt alle Zeichenelemente auf den Stand eines Schnappschusses zurück.
+     * Seitdem entfernte Elemente kehren mit ihrer alten Referenz und an ihrem
+     * alten Platz in der Zeichenreihenfolge zurück, neuere werden entfernt.
+     * Der Aufwand hängt nur von der Zahl der Unterschiede ab, und nur Kacheln
+     * unter geänderten Elementen werden neu gerastert.
+     * @param snapshot Schnappschuss dieses WhiteBoard
+     * @throws IllegalArgumentException wenn snapshot nicht von diesem WhiteBoard stammt
+     * @throws IllegalStateException wenn ein Journal geführt wird, das das
+     * Zurücksetzen nicht abbilden kann
+     */
+    public void restore(Object snapshot) {
+        checkNoJournal();
+        boolean changed;
+        sceneLock.writeLock().lock();
+        try {
+            ShapeVector.Version v = version(snapshot);
+            changed = applyPending();
+            changed |= restoreLocked(v);
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+    }
+
+    /** Merkt den aktuellen Stand als Rücksprungpunkt für {@link #undo()} vor
+     * und verwirft alle mit {@link #redo()} wiederholbaren Stände.
+     */
+    public void checkpoint() {
+        boolean changed;
+        sceneLock.writeLock().lock();
+        try {
+            changed = applyPending();
+            undoStack.add(versions().freeze());
+            redoStack.clear();
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+    }
+
+    /** Kehrt zum zuletzt mit {@link #checkpoint()} vorgemerkten Stand zurück.
+     * Der aktuelle Stand kann mit {@link #redo()} wiederhergestellt werden.
+     * @return false, wenn kein Stand vorgemerkt ist
+     * @throws IllegalStateException wenn ein Journal geführt wird
+     */
+    public boolean undo() {
+        return step(undoStack, redoStack);
+    }
+
+    /** Stellt den zuletzt mit {@link #undo()} verlassenen Stand wieder her.
+     * @return false, wenn es keinen solchen Stand gibt
+     * @throws IllegalStateException wenn ein Journal geführt wird
+     */
+    public boolean redo() {
+        return step(redoStack, undoStack);
+    }
+
+    /** Liefert die Zeichenelemente, die sich zwischen zwei Schnappschüssen
+     * unterscheiden: hinzugekommen, entfernt oder verschoben, gedreht oder
+     * umgefärbt. Der Aufwand hängt nur von der Zahl der Unterschiede ab.
+     * @param from älterer Schnappschuss
+     * @param to neuerer Schnappschuss
+     * @return Referenzen auf die Zeichenobjekte in Zeichenreihenfolge
+     * @throws IllegalArgumentException wenn ein Schnappschuss nicht von diesem WhiteBoard stammt
+     */
+    public Object[] changes(Object from, Object to) {
+        ShapeVector.Version a, b;
+        sceneLock.readLock().lock();
+        try {
+            a = version(from);
+            b = version(to);
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+        final ArrayList found = new ArrayList();
+        ShapeVector.diff(a, b, new ShapeVector.Visitor() {
+            public void changed(long seq, Object x, Object y) {
+                found.add(((ShapeState) (x != null ? x : y)).target);
+            }
+        });
+        return found.toArray();
+    }
+
+    /** Wechselt zwischen den Ständen von undo und redo */
+    private boolean step(ArrayList from, ArrayList to) {
+        checkNoJournal();
+        boolean changed, done = false;
+        sceneLock.writeLock().lock();
+        try {
+            changed = applyPending();
+            if(!from.isEmpty()) {
+                to.add(history.freeze());
+                changed |= restoreLocked((ShapeVector.Version) from.remove(from.size() - 1));
+                done = true;
+            }
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+        return done;
+    }
+
+    private void checkNoJournal() {
+        if(journal != null) throw new IllegalStateException("Journal läuft, Zurücksetzen wird nicht vermerkt");
+    }
+
+    /** Prüft einen Schnappschuss. Muss unter sceneLock aufgerufen werden. */
+    private ShapeVector.Version version(Object snapshot) {
+        if(!(snapshot instanceof ShapeVector.Version)
+           || history == null || ((ShapeVector.Version) snapshot).owner != history) {
+            throw new IllegalArgumentException("kein Schnappschuss dieser Zeichenfläche: " + snapshot);
+        }
+        return (ShapeVector.Version) snapshot;
+    }
+
+    /** @return persistenter Vektor der Zustände, beim ersten Aufruf aus allen
+     * enthaltenen Zeichenelementen angelegt. Muss unter der Schreibsperre von
+     * sceneLock aufgerufen werden.
+     */
+    private ShapeVector versions() {
+        if(history == null) {
+            ShapeVector h = new ShapeVector();
+            for(int i = 0; i < shapes.end(); i++) {
+                AttributedShape as = shapes.get(i);
+                if(as != null) h.set(as.seq, new ShapeState(as, h.generation()));
+            }
+            history = h;
+        }
+        return history;
+    }
+
+    /** Gleicht die Szene an eine Version an, nur für die Unterschiede zur
+     * aktuellen. Muss unter der Schreibsperre von sceneLock aufgerufen werden.
+     * @return gibt an, ob sich die Größe geändert hat
+     */
+    private boolean restoreLocked(ShapeVector.Version target) {
+        final ShapeVector h = history;
+        final boolean[] result = new boolean[2];
+        ShapeVector.Version current = h.freeze();
+        // die Zustände stehen schon in target, nichts neu vermerken
+        history = null;
+        // erst danach verdrängen, damit es im Vektor vermerkt wird
+        final ShapeWindow w = window;
+        window = null;
+        try {
+            ShapeVector.diff(current, target, new ShapeVector.Visitor() {
+                public void changed(long seq, Object from, Object to) {
+                    ShapeState f = (ShapeState) from, t = (ShapeState) to;
+                    if(t == null) {
+                        refresh(f.target.x1, f.target.y1, f.target.x2, f.target.y2);
+                        deleteShape(f.target);
+                        result[1] = true;
+                        return;
+                    }
+                    AttributedShape as = t.target;
+                    if(f == null) {
+                        t.applyTo(as);
+                        result[0] |= place(as);
+                    } else {
+                        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+                        refresh(as.x1, as.y1, as.x2, as.y2);
+                        as.layer.index.remove(as);
+                        t.applyTo(as);
+                        as.layer.index.add(as);
+                        extremes.update(as);
+                        as.layer.tiles.invalidate(as.x1 - 1, as.y1 - 1, as.x2 + 1, as.y2 + 1);
+                        result[1] = true;
+                    }
+                    refresh(as.x1, as.y1, as.x2, as.y2);
+                }
+            });
+        } finally {
+            history = h;
+            h.reset(target);
+            window = w;
+        }
+        if(w != null) evictOverdue();
+        if(result[1] || evicted) result[0] |= recomputeBounds();
+        return result[0];
+    }
+
+    /** Sucht das oberste Zeichenelement an einem Punkt. Getroffen werden
+     * gefüllte Elemente in ihrer Fläche und ungefüllte auf ihrer Linie, jeweils
+     * so, wie sie gedreht dargestellt werden. Nur Elemente, deren Ränder in der
+     * Nähe liegen, werden genau geprüft. Geplottete Punkte und Linien werden
+     * nicht berücksichtigt, ebenso wenig ausgeblendete Ebenen.
+     * @param x Koordinate in Zeichnungskoordinaten, siehe {@link #toBoard(double, double)}
+     * @param y Koordinate in Zeichnungskoordinaten
+     * @param tolerance erlaubter Abstand vom Zeichenelement, nicht negativ
+     * @return das zuletzt gezeichnete getroffene Zeichenelement, null wenn keines
+     * @throws IllegalArgumentException wenn tolerance negativ oder NaN ist
+     */
+    public Object shapeAt(double x, double y, double tolerance) {
+        if(!(tolerance >= 0)) throw new IllegalArgumentException("ungültige Toleranz: " + tolerance);
+        double reach = tolerance + AttributedShape.HALF_STROKE;
+        ArrayList candidates = new ArrayList();
+        Object hit = null;
+        boolean changed = lockSettled();
+        try {
+            Layer[] order = layerOrder;
+            for(int k = order.length - 1; k >= 0 && hit == null; k--) {
+                if(!order[k].visible) continue;
+                candidates.clear();
+                order[k].index.query(x - reach, y - reach, x + reach, y + reach, candidates);
+                for(int i = candidates.size() - 1; i >= 0 && hit == null; i--) {
+                    AttributedShape as = (AttributedShape) candidates.get(i);
+                    if(as.hits(x, y, tolerance)) hit = as;
+                }
+            }
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+        return hit;
+    }
+
+    /** Sucht alle Zeichenelemente, die ein Rechteck berühren, etwa für eine
+     * Auswahl mit einem Gummiband. Berührt wird wie bei
+     * {@link #shapeAt(double, double, double)} mit der Fläche gefüllter und der
+     * Linie ungefüllter Elemente; Elemente ganz innerhalb des Rechtecks gehören
+     * immer dazu. Ausgeblendete Ebenen werden übergangen.
+     * @param area Rechteck in Zeichnungskoordinaten
+     * @return Referenzen auf die Zeichenelemente in Zeichenreihenfolge, Ebene
+     * für Ebene von unten nach oben
+     */
+    public Object[] shapesIn(Rectangle2D area) {
+        ArrayList candidates = new ArrayList();
+        ArrayList found = new ArrayList();
+        boolean changed = lockSettled();
+        try {
+            double reach = AttributedShape.HALF_STROKE;
+            Layer[] order = layerOrder;
+            for(int k = 0; k < order.length; k++) {
+                if(!order[k].visible) continue;
+                candidates.clear();
+                order[k].index.query(area.getMinX() - reach, area.getMinY() - reach,
+                                     area.getMaxX() + reach, area.getMaxY() + reach, candidates);
+                for(int i = 0; i < candidates.size(); i++) {
+                    AttributedShape as = (AttributedShape) candidates.get(i);
+                    if(as.touches(area)) found.add(as);
+                }
+            }
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+        return found.toArray();
+    }
+
+    /** Rechnet einen Punkt der Zeichenfläche im Fenster, etwa aus einem
+     * MouseEvent der {@link #getDrawingArea()}, in Zeichnungskoordinaten um.
+     * Die y-Achse zeigt im Fenster nach unten, in der Zeichnung nach oben.
+     * @param px x Koordinate in Pixeln relativ zur Zeichenfläche
+     * @param py y Koordinate in Pixeln relativ zur Zeichenfläche
+     * @return Mitte des Pixels in Zeichnungskoordinaten
+     */
+    public Point2D toBoard(double px, double py) {
+        View v = currentView();
+        return new Point2D.Double(v.x + (px + 0.5) / v.scale, v.y - (py + 0.5) / v.scale);
+    }
+
+    /** Legt den sichtbaren Ausschnitt fest. Danach folgt der Ausschnitt nicht
+     * mehr der wachsenden Zeichnung, bis {@link #fitView()} aufgerufen wird.
+     * Im Fenster verschiebt Ziehen mit der linken Maustaste den Ausschnitt,
+     * das Mausrad zoomt um den Mauszeiger, ein Doppelklick ruft fitView auf.
+     * @param x Zeichnungskoordinate x der linken oberen Ecke
+     * @param y Zeichnungskoordinate y der linken oberen Ecke
+     * @param scale Pixel je Zeichnungseinheit, wird auf 2^-30 bis 2^10 begrenzt
+     * @throws IllegalArgumentException wenn scale nicht positiv oder eine
+     * Koordinate nicht endlich ist
+     */
+    public void setView(double x, double y, double scale) {
+        if(!(scale > 0)) throw new IllegalArgumentException("Maßstab nicht positiv: " + scale);
+        if(Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y)) {
+            throw new IllegalArgumentException("Ursprung des Ausschnitts nicht endlich: " + x + ", " + y);
+        }
+        showView(new View(x, y, limitScale(scale)));
+    }
+
+    /** Vergrößert den Ausschnitt um einen Faktor. Der Punkt der Zeichnung
+     * unter (px, py) bleibt dabei an seiner Stelle.
+     * @param factor größer 1 vergrößert, kleiner 1 verkleinert
+     * @param px x Koordinate des Fixpunkts in Pixeln relativ zur Zeichenfläche
+     * @param py y Koordinate des Fixpunkts in Pixeln relativ zur Zeichenfläche
+     * @throws IllegalArgumentException wenn factor nicht positiv ist
+     */
+    public void zoom(double factor, double px, double py) {
+        if(!(factor > 0)) throw new IllegalArgumentException("Faktor nicht positiv: " + factor);
+        View v = currentView();
+        double scale = limitScale(v.scale * factor);
+        double bx = v.x + px / v.scale, by = v.y - py / v.scale;
+        showView(new View(bx - px / scale, by + py / scale, scale));
+    }
+
+    /** Verschiebt den Ausschnitt, die Zeichnung folgt der Bewegung.
+     * @param dx Verschiebung nach rechts in Pixeln
+     * @param dy Verschiebung nach unten in Pixeln
+     */
+    public void pan(double dx, double dy) {
+        View v = currentView();
+        showView(new View(v.x - dx / v.scale, v.y + dy / v.scale, v.scale));
+    }
+
+    /** Lässt den Ausschnitt wieder der Zeichnung folgen, wie zu Beginn: die
+     * linke obere Ecke der Zeichnung liegt oben links im Fenster, und ist die
+     * Zeichnung größer als das Fenster, wird sie verkleinert, bis sie passt.
+     */
+    public void fitView() {
+        followDrawing = true;
+        repaintAll();
+    }
+
+    /** @return Abbildung von Zeichnungskoordinaten auf Pixel der Zeichenfläche */
+    public AffineTransform getViewTransform() {
+        View v = currentView();
+        return new AffineTransform(v.scale, 0, 0, -v.scale, -v.x * v.scale, v.y * v.scale);
+    }
+
+    /** @return Pixel je Zeichnungseinheit im sichtbaren Ausschnitt */
+    public double getViewScale() {
+        return currentView().scale;
+    }
+
+    /** @return zuletzt dargestellter oder, davor, der zur Zeichnung passende Ausschnitt */
+    private View currentView() {
+        View v = view;
+        if(v != null) return v;
+        // noch nicht dargestellt
+        sceneLock.readLock().lock();
+        try {
+            return fittedView();
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+    }
+
+    /** @return Ausschnitt, der der Zeichnung folgt */
+    private View fittedView() {
+        double scale = 1;
+        int w = graphicalComponent.getWidth(), h = graphicalComponent.getHeight();
+        if(w > 0 && h > 0) {
+            double fit = Math.min(w / (maxX - minX + 3), h / (maxY - minY + 3));
+            // auf eine Stufe der Kacheln abgerundet, damit nicht jedes neue
+            // Zeichenelement am Rand alle Kacheln neu rastern lässt
+            if(fit < 1) scale = TileCache.scale(TileCache.level(fit));
+        }
+        return new View(leftEdge(), topEdge(), scale);
+    }
+
+    /** @return Ausschnitt im Maßstab von v, der waagerecht dem rechten Rand
+     * der Zeichnung folgt
+     */
+    private View scrolledView(View v) {
+        if(v == null) v = fittedView();
+        double s = v.scale;
+        double x = Math.max(leftEdge(), maxX + 1 - graphicalComponent.getWidth() / s);
+        // auf ganze Pixel, damit die Kacheln pixelgenau passen
+        return new View(Math.floor(x * s) / s, v.y, s);
+    }
+
+    private static double limitScale(double scale) {
+        return Math.max(TileCache.scale(TileCache.MIN_LEVEL),
+                        Math.min(TileCache.scale(TileCache.MAX_LEVEL), scale));
+    }
+
+    /** Zeigt einen vom Benutzer gewählten Ausschnitt */
+    private void showView(View v) {
+        quality.active();
+        followDrawing = false;
+        view = v;
+        repaintAll();
+    }
+
+    /** Liefert die Komponente, auf der die Zeichenfläche dargestellt wird, etwa
+     * um Maus-Listener anzumelden.
+     * @return Komponente im Fenster
+     */
+    public JComponent getDrawingArea() {
+        return graphicalComponent;
+    }
+
+    /**
+     * Methode zum @Demonstrieren und Testen der Zeichenmöglichkeiten von WhiteBoard.<br>
+     * In der Methode actionPerformed des JButton sieht man, wie ein Objekt von der
+     * Zeichenfläche wieder gelöscht wird.<br>
+     * Die übrigen Statements zeigen, wie unterschiedliche Objekte gezeichnet werden.
+     */
+    public void demo() {
+        JButton b = new JButton("weg mit der Form");
+        b.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+
+                    Object last;
+                    boolean changed;
+                    sceneLock.writeLock().lock();
+                    try {
+                        changed = applyPending();
+                        last = shapes.last();
+                    } finally {
+                        sceneLock.writeLock().unlock();
+                    }
+                    if(changed) graphicalComponent.revalidate();
+                    if(last != null)
+                        wipeShape(last);
+
+            }
+        });
+        if(this.frame != null) {
+            this.container.add(b, BorderLayout.SOUTH);
+            this.frame.validate();
+        }
+        ArrayList mainShapes = new ArrayList();
+        double[] xp = {0., 100., 150., 70.};
+        double yp[] = {160., 150., 300., -100.};
+        this.drawPolygon(xp, yp);
+        this.drawPolygon(yp, xp, Color.BLUE, true, Math.PI/2);
+        this.drawPolygon(yp, xp, Color.RED, true, Math.PI);
+        this.drawPolygon(yp, xp, Color.GREEN, true, Math.PI*3/2);
+        this.drawPolygon(yp, xp, Color.ORANGE, true, 0.);
+        this.drawLine(-400,0, 400, 0);
+        this.drawLine(0,-400, 0, 400);
+        this.drawLine(-400,-0, 0, 400);
+        this.drawLine(0,-400, 400, 0);
+        this.drawLine(-400,0, 0, -400);
+        this.drawLine(0, 400, 400, 0);
+        this.drawLine(0,0, 100,100);
+        this.drawLine(0,-400, 200,200);
+        this.drawLine(0,-400, 200,-380);
+        this.drawEllipse(0, 0, 400, 400, Color.RED, false, 0);
+        this.drawLine(0,0, 100,-100);
+        mainShapes.add(this.drawEllipse(-100, 0, 100, 100, Color.GREEN, true, 0));
+        this.drawLine(0,0, -100, 0);
+        mainShapes.add(this.drawRectangle(100, 100, 100, 100, Color.ORANGE, false, Math.PI/4));
+        mainShapes.add(this.drawArc(100, 100, 100, -100, -100, Color.BLUE, false));
+        this.drawPoint(150, 300);
+        mainShapes.add(this.drawRectangle(450, 450, 500, 500, Color.ORANGE, false, Math.PI/4));
+        mainShapes.add(this.drawRectangle(450, 450, 496, 496, Color.BLUE, true, Math.PI/4));
+        mainShapes.add(this.drawEllipse(700, 500, 500, 200, Color.GREEN, true, -Math.PI/10));
+        this.drawLine(100,0, 200,100);
+        this.drawArc(100, 100, 400, 500, 100);
+        mainShapes.add(this.drawArc(110, 100, 110, 500, 80));
+        mainShapes.add(this.drawArc(90, 500, 90, 100, 80, Color.RED, true));
+        mainShapes.add(this.drawArc(120, 500, 120, 100, -80));
+
+        mainShapes.add(this.drawArc(600, 90, 200, 90, 80));
+        mainShapes.add(this.drawArc(200, 100, 600, 100, -80));
+        mainShapes.add(this.drawArc(200, 110, 600, 110, 80));
+        mainShapes.add(this.drawArc(600, 120, 200, 120, -80));
+
+        mainShapes.add(this.drawArc(500, 200, 600, 600, -80));
+        mainShapes.add(this.drawArc(510, 210, 590, 590, 80));
+        mainShapes.add(this.drawArc(580, 580, 520, 220, -70));
+        mainShapes.add(this.drawArc(570, 570, 530, 230, 70));
+    }
+
+    /** Test- Mainmethode für Klasse WhiteBoard. Ohne Bildschirm wird die
+     * Zeichnung in die Datei whiteboard.png geschrieben.
+     * @param args Kommandozeilenparameter (ignoriert)
+     * @throws IOException wenn die Datei nicht geschrieben werden kann
+     */
+    public static void main(String[] args) throws IOException {
+        final WhiteBoard wb = new WhiteBoard();
+        wb.demo();
+        if(wb.frame == null) wb.writePNG(new File("whiteboard.png"));
+    }
+
+    /** Rastert die gesamte Zeichenfläche in ein Bild, so wie sie im Fenster
+     * erscheinen würde. Funktioniert auch ohne Bildschirm.
+     * @return neues Bild mit weißem Hintergrund
+     */
+    public BufferedImage renderImage() {
+        double x1, y1, x2, y2;
+        sceneLock.writeLock().lock();
+        try {
+            if(applyPending()) graphicalComponent.revalidate();
+            x1 = leftEdge();
+            y2 = topEdge();
+            x2 = x1 + (int) (maxX-minX+3);
+            y1 = y2 - (int) (maxY-minY+3);
+        } finally {
+            sceneLock.writeLock().unlock();
+        }
+        return renderImage(new Rectangle2D.Double(x1, y1, x2 - x1, y2 - y1));
+    }
+
+    /** Rastert einen Ausschnitt der Zeichenfläche in ein Bild. Eine
+     * Zeichnungseinheit entspricht einem Pixel, die y-Achse zeigt wie im
+     * Fenster nach oben. Funktioniert auch ohne Bildschirm.
+     * @param area Ausschnitt in Zeichnungskoordinaten, wird auf ganze
+     * Einheiten erweitert
+     * @return neues Bild mit weißem Hintergrund
+     */
+    public BufferedImage renderImage(Rectangle2D area) {
+        int xt = (int) Math.floor(area.getMinX());
+        int yt = (int) Math.ceil(area.getMaxY());
+        int w = Math.max(1, (int) Math.ceil(area.getMaxX()) - xt);
+        int h = Math.max(1, yt - (int) Math.floor(area.getMinY()));
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = img.createGraphics();
+        try {
+            g2.setPaint(Color.WHITE);
+            g2.fillRect(0, 0, w, h);
+            // dieselbe Spiegelung wie in paint
+            g2.scale(1.0, -1.0);
+            g2.translate(-xt, -yt);
+            sceneLock.writeLock().lock();
+            try {
+                if(applyPending()) graphicalComponent.revalidate();
+            } finally {
+                sceneLock.writeLock().unlock();
+            }
+            renderLayers(g2, w, h, xt, yt - h, xt + w, yt);
+        } finally {
+            g2.dispose();
+        }
+        return img;
+    }
+
+    /** Rastert die gesamte Zeichenfläche in einen RGBA-Puffer.
+     * @return Breite, Höhe und Pixel: Zeile für Zeile von oben nach unten, je
+     * Pixel vier Bytes in der Reihenfolge R, G, B, A
+     * @see #renderImage()
+     */
+    public RasterFrame renderRGBA() {
+        return new RasterFrame(renderImage());
+    }
+
+    /** Schreibt die gesamte Zeichenfläche als PNG-Datei.
+     * @param file Zieldatei
+     * @throws IOException wenn die Datei nicht geschrieben werden kann
+     */
+    public void writePNG(File file) throws IOException {
+        if(!ImageIO.write(renderImage(), "png", file)) {
+            throw new IOException("kein PNG-Encoder verfügbar");
+        }
+    }
+
+    /** Speichert die Szene mit allen Zeichenelementen samt ihren Ebenen und
+     * geplotteten Punkten und Linien in einem kompakten Binärformat. Die Datei wird über
+     * FileChannel eingeblendet geschrieben. Während des Speicherns ruhen
+     * Änderungen der Szene, zeichnende Threads werden aber nicht aufgehalten.
+     * @param file Zieldatei, wird überschrieben
+     * @throws IOException bei Schreibfehlern
+     */
+    public void saveScene(File file) throws IOException {
+        boolean changed = lockSettled();
+        try {
+            SceneFile.save(file, layerOrder, shapes, primitives, stamps);
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+        if(changed) graphicalComponent.revalidate();
+    }
+
+    /** Lädt eine mit {@link #saveScene(File)} gespeicherte Szene und fügt sie
+     * der Zeichenfläche hinzu. Fehlende Ebenen werden angelegt, vorhandene
+     * erhalten ihre gespeicherte Höhe, Sichtbarkeit und Deckkraft. Geplottete Punkte und Linien erhalten
+     * neue Indizes in der gespeicherten Reihenfolge, gelöschte bleiben gelöscht.
+     * @param file Szenendatei
+     * @return Referenzen auf die geladenen Zeichenobjekte in Zeichenreihenfolge
+     * @throws IOException bei Lesefehlern oder einer ungültigen Datei
+     */
+    public Object[] loadScene(File file) throws IOException {
+        rebuild();
+        beginBatch();
+        try {
+            return SceneFile.load(file, this);
+        } finally {
+            endBatch();
+        }
+    }
+
+    /** Nimmt geladene Zeichenelemente blockweise auf */
+    void loaded(AttributedShape[] all) {
+        for(int i = 0; i < all.length; i += SceneFile.CHUNK) {
+            int n = Math.min(SceneFile.CHUNK, all.length - i);
+            AttributedShape[] chunk = new AttributedShape[n];
+            System.arraycopy(all, i, chunk, 0, n);
+            addShapes(chunk);
+        }
+    }
+
+    /** Nimmt geladene Punkte mit ihrer Farbe auf */
+    void loadedPoints(double[] xs, double[] ys, int[] argb, int n) {
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        synchronized(primitives) {
+            Journal j = journal;
+            for(int i = 0; i < n; i++) {
+                primitives.addPoint(xs[i], ys[i], argb[i]);
+                if(j != null) j.point(xs[i], ys[i], argb[i]);
+            }
+            primitives.publish();
+        }
+        for(int i = 0; i < n; i++) {
+            x1 = Math.min(x1, xs[i]);
+            y1 = Math.min(y1, ys[i]);
+            x2 = Math.max(x2, xs[i]);
+            y2 = Math.max(y2, ys[i]);
+        }
+        if(n > 0) plotted(x1 - 1, y1 - 1, x2 + 1, y2 + 1);
+    }
+
+    /** Nimmt eine geladene Vorlage auf.
+     * @return ihre Nummer auf dieser Zeichenfläche
+     */
+    int loadedTemplate(AttributedShape prototype) {
+        synchronized(stamps) {
+            int t = stamps.addTemplate(prototype);
+            Journal j = journal;
+            if(j != null) j.template(prototype);
+            return t;
+        }
+    }
+
+    /** Nimmt geladene Kopien auf, auch gelöschte, damit die Indizes erhalten bleiben.
+     * @param templates Nummern der Vorlagen auf dieser Zeichenfläche oder StampStore.ERASED
+     */
+    void loadedStamps(double[] xs, double[] ys, int[] templates, int n) {
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        synchronized(stamps) {
+            Journal j = journal;
+            for(int i = 0; i < n; i++) {
+                stamps.addStamp(templates[i], xs[i], ys[i]);
+                if(j != null) j.stamp(templates[i], xs[i], ys[i]);
+                if(templates[i] == StampStore.ERASED) continue;
+                AttributedShape p = stamps.template(templates[i]);
+                x1 = Math.min(x1, xs[i] + p.x1 - 1);
+                y1 = Math.min(y1, ys[i] + p.y1 - 1);
+                x2 = Math.max(x2, xs[i] + p.x2 + 1);
+                y2 = Math.max(y2, ys[i] + p.y2 + 1);
+            }
+            stamps.publish();
+        }
+        if(x1 <= x2) plotted(x1, y1, x2, y2);
+    }
+
+    /** @return Anzahl der Vorlagen für gestempelte Kopien */
+    int templateCount() {
+        synchronized(stamps) {
+            return stamps.templateCount();
+        }
+    }
+
+    /** Nimmt geladene Linien mit ihrer Farbe auf */
+    void loadedSegments(double[] xs1, double[] ys1, double[] xs2, double[] ys2, int[] argb, int n) {
+        double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+        synchronized(primitives) {
+            Journal j = journal;
+            for(int i = 0; i < n; i++) {
+                primitives.addSegment(xs1[i], ys1[i], xs2[i], ys2[i], argb[i]);
+                if(j != null) j.segment(xs1[i], ys1[i], xs2[i], ys2[i], argb[i]);
+            }
+            primitives.publish();
+        }
+        for(int i = 0; i < n; i++) {
+            x1 = Math.min(x1, Math.min(xs1[i], xs2[i]));
+            y1 = Math.min(y1, Math.min(ys1[i], ys2[i]));
+            x2 = Math.max(x2, Math.max(xs1[i], xs2[i]));
+            y2 = Math.max(y2, Math.max(ys1[i], ys2[i]));
+        }
+        if(n > 0) plotted(x1, y1, x2, y2);
+    }
+
+    /** Beginnt ein Journal, an das alle folgenden Zeichenoperationen angehängt
+     * werden. Existiert die Datei bereits, wird sie zuerst auf dieser
+     * Zeichenfläche eingespielt und dann fortgesetzt; so lässt sich ein
+     * abgebrochener Zeichenlauf wiederherstellen. Das Journal sollte auf einer
+     * leeren Zeichenfläche begonnen werden, da Operationen auf Elemente, die
+     * nicht im Journal stehen, nicht vermerkt werden. Journale älterer
+     * Versionen lassen sich nur mit {@link #replayJournal(File)} einspielen.
+     * @param file Journaldatei
+     * @throws IOException bei Lese- oder Schreibfehlern
+     * @throws IllegalStateException wenn bereits ein Journal geführt wird
+     */
+    public synchronized void startJournal(File file) throws IOException {
+        if(journal != null) throw new IllegalStateException("Journal läuft bereits");
+        ArrayList handles = new ArrayList(), layerNames = new ArrayList();
+        long valid = Journal.replay(file, this, handles, layerNames, true);
+        // eingespielte Operationen nicht ein zweites Mal vermerken
+        settle();
+        synchronized(layers) {
+            journal = new Journal(file, valid, handles.size(), layerNames);
+            // auch Ebenen, die es schon vor dem Journal gab
+            journal.layers(layerOrder);
+        }
+    }
+
+    /** Übernimmt alle anstehenden Operationen, schreibt alle bisher
+     * vermerkten in die Journaldatei und wartet, bis sie auf dem Datenträger
+     * stehen.
+     * @throws IOException wenn beim Schreiben des Journals ein Fehler auftrat
+     */
+    public void syncJournal() throws IOException {
+        settle();
+        Journal j = journal;
+        if(j != null) j.sync();
+    }
+
+    /** Beendet das Journal, nachdem die anstehenden Operationen noch
+     * vermerkt wurden, und schließt die Datei.
+     * @throws IOException wenn beim Schreiben des Journals ein Fehler auftrat
+     */
+    public synchronized void stopJournal() throws IOException {
+        settle();
+        Journal j = journal;
+        journal = null;
+        if(j != null) j.close();
+    }
+
+    /** Spielt ein Journal auf dieser Zeichenfläche ein, etwa um einen
+     * Zeichenlauf für Messungen deterministisch zu wiederholen. Ein
+     * unvollständiger letzter Eintrag wird übergangen.
+     * @param file Journaldatei
+     * @return Referenzen auf die eingespielten Zeichenobjekte in der
+     * Reihenfolge ihres Eintrags
+     * @throws IOException bei Lesefehlern oder einer ungültigen Datei
+     */
+    public Object[] replayJournal(File file) throws IOException {
+        rebuild();
+        ArrayList handles = new ArrayList();
+        Journal.replay(file, this, handles, new ArrayList(), false);
+        return handles.toArray();
+    }
+
+    /** @return Zeichnungskoordinate x des linken Rands der Zeichenfläche */
+    private int leftEdge() {
+        return (int) Math.floor(minX-1);
+    }
+
+    /** @return Zeichnungskoordinate y des oberen Rands der Zeichenfläche */
+    private int topEdge() {
+        return (int) Math.ceil(maxY+1);
+    }
+
+    /** Baut Windows wieder auf, falls der Frame geschlossen wurde. */
+    private void rebuild() {
+        if(windowExited) {
+            windowExited = false;
+            initFrame();
+        }
+    }
+
+    /** Zeichnet alle sichtbaren Ebenen von unten nach oben, jeweils mit ihrer
+     * Deckkraft. Durchscheinende Ebenen werden zuerst in ein eigenes Bild
+     * gerastert, damit sich ihre Elemente nicht gegenseitig durchscheinen.
+     * @param g2 Grafikkontext in Zeichnungskoordinaten
+     * @param w Breite des Ziels in Pixeln
+     * @param h Höhe des Ziels in Pixeln
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     */
+    private void renderLayers(Graphics2D g2, int w, int h,
+                              double x1, double y1, double x2, double y2) {
+        // Bilder immer in voller Qualität
+        int degradations = quality.degradations(0);
+        Layer[] order = layerOrder;
+        for(int i = 0; i < order.length; i++) {
+            Layer l = order[i];
+            float opacity = l.opacity;
+            if(!l.visible || opacity <= 0f) continue;
+            if(opacity >= 1f) {
+                renderLayer(l, g2, x1, y1, x2, y2, degradations);
+                continue;
+            }
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D lg = img.createGraphics();
+            try {
+                lg.setTransform(g2.getTransform());
+                renderLayer(l, lg, x1, y1, x2, y2, degradations);
+            } finally {
+                lg.dispose();
+            }
+            Graphics2D cg = (Graphics2D) g2.create();
+            try {
+                cg.setTransform(new AffineTransform());
+                cg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+                cg.drawImage(img, 0, 0, null);
+            } finally {
+                cg.dispose();
+            }
+        }
+    }
+
+    /** Zeichnet alle Elemente einer Ebene, die das angegebene Rechteck
+     * berühren, in Einfügereihenfolge, auf der Grundebene darüber die
+     * gestempelten Kopien und die geplotteten Punkte und Linien. Darf von
+     * mehreren Threads gleichzeitig aufgerufen werden.
+     * @param l Ebene
+     * @param g2 Grafikkontext in Zeichnungskoordinaten
+     * @param x1 linker Rand
+     * @param y1 unterer Rand
+     * @param x2 rechter Rand
+     * @param y2 oberer Rand
+     * @param degradations Vereinfachungen nach {@link QualityGovernor}
+     */
+    private void renderLayer(Layer l, Graphics2D g2, double x1, double y1, double x2, double y2,
+                             int degradations) {
+        ArrayList visible = new ArrayList();
+        BoardEvents.Raster event = new BoardEvents.Raster();
+        event.begin();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        QualityGovernor.applyHints(g2, degradations);
+        // Elemente unter einem Pixel in beiden Richtungen
+        double pixel = QualityGovernor.has(degradations, QualityGovernor.SKIP_SUBPIXEL)
+            ? 1 / Math.abs(g2.getTransform().getScaleX()) : 0;
+        boolean boxes = QualityGovernor.has(degradations, QualityGovernor.BOUNDING_BOXES);
+        int skipped, tiny = 0;
+        sceneLock.readLock().lock();
+        try {
+            l.index.query(x1 - 1, y1 - 1, x2 + 1, y2 + 1, visible);
+            skipped = l.size - visible.size();
+            for(Iterator it = visible.iterator(); it.hasNext(); ) {
+                AttributedShape as = (AttributedShape) it.next();
+                if(as.x2 - as.x1 < pixel && as.y2 - as.y1 < pixel) {
+                    tiny++;
+                } else if(boxes && as.isComplex()) {
+                    as.drawBounds(g2);
+                } else {
+                    as.draw(g2);
+                }
+            }
+        } finally {
+            sceneLock.readLock().unlock();
+        }
+        // Kopien, Punkte und Linien können ohne Sperre gelesen werden
+        if(l == baseLayer) {
+            stamps.paint(g2, x1 - 1, y1 - 1, x2 + 1, y2 + 1);
+            primitives.paint(g2, x1 - 1, y1 - 1, x2 + 1, y2 + 1);
+        }
+        if(start != 0) metrics.rasterized(System.nanoTime() - start, visible.size() - tiny, skipped + tiny);
+        if(event.shouldCommit()) {
+            event.drawn = visible.size() - tiny;
+            event.skipped = skipped + tiny;
+            event.commit();
+        }
+    }
+
+    /** Benannte Ebene mit eigenem räumlichen Index und eigenen Kacheln. Ein-
+     * und Ausblenden oder eine andere Deckkraft ändern nur, wie die Kacheln
+     * aufeinander kopiert werden; neu gerastert wird eine Ebene nur, wenn sich
+     * ihre Zeichenelemente ändern.
+     */
+    class Layer {
+        final String name;
+        /** Höhe in der Zeichenreihenfolge, größere liegen oben */
+        int z;
+        /** Reihenfolge des Anlegens, entscheidet bei gleichem z */
+        final int created;
+        volatile boolean visible = true;
+        /** Deckkraft zwischen 0 und 1 */
+        volatile float opacity = 1f;
+        /** Räumlicher Index der Zeichenelemente, geschützt durch sceneLock */
+        final ShapeGrid index = new ShapeGrid();
+        /** Anzahl der Zeichenelemente, geschützt durch sceneLock */
+        int size = 0;
+        /** Gerasterte Kacheln dieser Ebene, ihr Speicher zählt zu tileBudget */
+        final TileCache tiles = new TileCache(new TileCache.Painter() {
+            public void render(Graphics2D g2, double x1, double y1, double x2, double y2) {
+                renderLayer(Layer.this, g2, x1, y1, x2, y2, quality.degradations(quality.getTier()));
+            }
+
+            public void tileReady(double x1, double y1, double x2, double y2) {
+                if(visible) repaintArea(x1, y1, x2, y2);
+            }
+        }, tileBudget);
+
+        Layer(String name, int z, int created) {
+            this.name = name;
+            this.z = z;
+            this.created = created;
+        }
+    }
+
+    /** Sichtbarer Ausschnitt der Zeichnung, unveränderlich */
+    private static class View {
+        /** Zeichnungskoordinaten der linken oberen Ecke */
+        final double x, y;
+        /** Pixel je Zeichnungseinheit */
+        final double scale;
+
+        View(double x, double y, double scale) {
+            this.x = x;
+            this.y = y;
+            this.scale = scale;
+        }
+
+        boolean sameAs(View v) {
+            return v != null && v.x == x && v.y == y && v.scale == scale;
+        }
+    }
+
+    /** Zustand eines Zeichenelements in einer Version der Szene, unveränderlich */
+    private static class ShapeState {
+        final AttributedShape target;
+        final Shape shape;
+        final Color color;
+        final double rotation;
+        /** Version des Vektors, seit der die Geometrie besteht. Gehört sie zu
+         * einer älteren, darf sie nicht an Ort und Stelle verändert werden.
+         */
+        final long since;
+
+        ShapeState(AttributedShape as, long since) {
+            this.target = as;
+            this.shape = as.shape;
+            this.color = as.color;
+            this.rotation = as.rotation;
+            this.since = since;
+        }
+
+        /** Überträgt den Zustand auf das Zeichenelement und berechnet dessen Ränder neu */
+        void applyTo(AttributedShape as) {
+            as.shape = shape;
+            as.color = color;
+            as.rotation = rotation;
+            as.computeBounds();
+        }
+    }
+
+    /** Anstehendes Entfernen eines Zeichenelements */
+    private static class Removal {
+        final Object target;
+        /** true, wenn danach die Ränder neu berechnet werden sollen */
+        final boolean wipe;
+
+        Removal(Object target, boolean wipe) {
+            this.target = target;
+            this.wipe = wipe;
+        }
+    }
+
+    /** Anstehende Änderung eines enthaltenen Zeichenelements */
+    private static class Change {
+        static final int MOVE = 0, ROTATE = 1, RECOLOR = 2;
+
+        final AttributedShape target;
+        final int kind;
+        /** Verschiebung dx, dy bzw. neuer Winkel in a */
+        final double a, b;
+        final Color color;
+
+        Change(AttributedShape target, int kind, double a, double b, Color color) {
+            this.target = target;
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.color = color;
+        }
+    }
+
+    /** Interne Klasse zum Abspeichern der Zeichenobjekte mit verschiedenen Eigenschaften
+     */
+    public class AttributedShape {
+        /** Höchster Abstand der angenäherten Kontur, aus der die Ränder gedrehter
+         * Elemente bestimmt werden
+         */
+        static final double FLATNESS = 0.05;
+        /** Halbe Linienbreite, um die ungefüllte Elemente über ihre Kontur
+         * hinausreichen
+         */
+        static final double HALF_STROKE = 0.5;
+        Color color;
+        double rotation;
+        Shape shape;
+        boolean isFilled;
+        /** Einfügereihenfolge, bestimmt die Zeichenreihenfolge */
+        long seq;
+        /** Platz im ShapeStore, -1 wenn nicht (mehr) enthalten */
+        int slot = -1;
+        /** Platz in der Zelle des ShapeGrid, wenn das Element nur eine Zelle
+         * belegt oder zu groß für das Raster ist
+         */
+        int gridSlot = -1;
+        /** Plätze in den Zellen des ShapeGrid in der Reihenfolge, in der
+         * ShapeGrid die Zellen durchläuft; null bei nur einer Zelle
+         */
+        int[] gridSlots;
+        /** Randkoordinaten einschließlich Drehung, für den räumlichen Index */
+        double x1, y1, x2, y2;
+        /** Nummer im Journal, -1 wenn nicht vermerkt */
+        long journalId = -1;
+        /** Ordnungszahl des aktuellen Platzes im ShapeWindow, -1 wenn keiner */
+        long windowOrdinal = -1;
+        /** Ebene, darf nach der Aufnahme nicht mehr geändert werden */
+        Layer layer = baseLayer;
+        /** Drehung um den Mittelpunkt von getBounds(), null ohne Drehung */
+        AffineTransform transform;
+        /** Geometrie mit bereits angewandter Drehung, null ohne Drehung oder
+         * wenn die Drehung beim Zeichnen angewandt wird (Linienzüge, deren
+         * Detailstufen sonst verloren gingen)
+         */
+        Shape transformed;
+
+        AttributedShape(Shape s) {
+            this(s, Color.BLACK, 0.0, false);
+        }
+
+        AttributedShape(Shape s, Color c, double rot, boolean solid) {
+            shape = s;
+            color = c;
+            rotation = rot;
+            isFilled = solid;
+            computeBounds();
+        }
+
+        /** Berechnet gedrehte Geometrie und Randkoordinaten des Zeichenelements
+         * neu. Muss nach jeder Änderung von shape oder rotation aufgerufen
+         * werden. Gedreht wird um den Mittelpunkt von getBounds(). Die Ränder
+         * gedrehter Elemente werden aus der gedrehten Kontur bestimmt, nicht
+         * aus dem gedrehten Rechteck, und sind damit bis auf FLATNESS genau.
+         */
+        void computeBounds() {
+            if(rotation == 0.0) {
+                transform = null;
+                transformed = null;
+                Rectangle2D r = shape.getBounds2D();
+                x1 = r.getMinX();
+                y1 = r.getMinY();
+                x2 = r.getMaxX();
+                y2 = r.getMaxY();
+                return;
+            }
+            Rectangle b = shape.getBounds();
+            transform = AffineTransform.getRotateInstance(rotation, b.getCenterX(), b.getCenterY());
+            PathIterator it;
+            if(shape instanceof Polyline) {
+                transformed = null;
+                it = shape.getPathIterator(transform);
+            } else {
+                transformed = new Path2D.Double(shape, transform);
+                it = transformed.getPathIterator(null, FLATNESS);
+            }
+            double[] c = new double[6];
+            x1 = y1 = Double.POSITIVE_INFINITY;
+            x2 = y2 = Double.NEGATIVE_INFINITY;
+            for(; !it.isDone(); it.next()) {
+                if(it.currentSegment(c) == PathIterator.SEG_CLOSE) continue;
+                if(c[0] < x1) x1 = c[0];
+                if(c[0] > x2) x2 = c[0];
+                if(c[1] < y1) y1 = c[1];
+                if(c[1] > y2) y2 = c[1];
+            }
+            if(x1 > x2) {
+                // leere Kontur
+                x1 = x2 = b.getCenterX();
+                y1 = y2 = b.getCenterY();
+            }
+            x1 -= FLATNESS;
+            y1 -= FLATNESS;
+            x2 += FLATNESS;
+            y2 += FLATNESS;
+        }
+
+        /** Zeichnet das Zeichenelement mit Farbe, Füllung und Drehung.
+         * @param g2 Grafikkontext in Zeichnungskoordinaten
+         */
+        void draw(Graphics2D g2) {
+            g2.setPaint(color);
+            if(transformed != null) {
+                // bereits gedreht
+                if(isFilled) g2.fill(transformed);
+                else g2.draw(transformed);
+                return;
+            }
+            AffineTransform saved = null;
+            if(transform != null) {
+                saved = g2.getTransform();
+                g2.transform(transform);
+            }
+            if(isFilled) g2.fill(shape);
+            else if(shape instanceof Polyline) ((Polyline) shape).draw(g2);
+            else g2.draw(shape);
+            if(saved != null) g2.setTransform(saved);
+        }
+
+        /** @return true für Polygone, Linienzüge, Bögen und Pfade, die beim
+         * Vereinfachen als umschließendes Rechteck gezeichnet werden
+         */
+        boolean isComplex() {
+            return !(shape instanceof Line2D || shape instanceof Rectangle2D
+                     || shape instanceof Ellipse2D);
+        }
+
+        /** Zeichnet das umschließende Rechteck des Zeichenelements einschließlich
+         * Drehung, gefüllt oder ungefüllt wie das Element selbst.
+         * @param g2 Grafikkontext in Zeichnungskoordinaten
+         */
+        void drawBounds(Graphics2D g2) {
+            g2.setPaint(color);
+            Rectangle2D r = new Rectangle2D.Double(x1, y1, x2 - x1, y2 - y1);
+            if(isFilled) g2.fill(r);
+            else g2.draw(r);
+        }
+
+        /** Prüft, ob ein Punkt das Zeichenelement so trifft, wie es dargestellt
+         * wird: gefüllte Elemente in ihrer Fläche, ungefüllte nur auf der Kontur
+         * samt halber Linienbreite, jeweils mit Drehung.
+         * @param px x Koordinate
+         * @param py y Koordinate
+         * @param tolerance zusätzlich erlaubter Abstand
+         * @return true bei einem Treffer
+         */
+        boolean hits(double px, double py, double tolerance) {
+            double reach = tolerance + (isFilled ? 0.0 : HALF_STROKE);
+            if(px < x1 - reach || px > x2 + reach || py < y1 - reach || py > y2 + reach) {
+                return false;
+            }
+            Shape s = transformed != null ? transformed : shape;
+            if(transform != null && transformed == null) {
+                // Linienzug, gedreht wird erst beim Zeichnen: Punkt
+                // zurückdrehen, die Drehung erhält alle Abstände
+                Point2D p = new Point2D.Double(px, py);
+                try {
+                    transform.inverseTransform(p, p);
+                } catch(NoninvertibleTransformException e) {
+                    return false;
+                }
+                px = p.getX();
+                py = p.getY();
+            }
+            if(isFilled && s.contains(px, py)) return true;
+            if(s instanceof Polyline) return ((Polyline) s).near(px, py, reach);
+            PathIterator it = s.getPathIterator(null, FLATNESS);
+            double[] c = new double[6];
+            double sx = 0, sy = 0, lx = 0, ly = 0, r2 = reach * reach;
+            for(; !it.isDone(); it.next()) {
+                switch(it.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        sx = lx = c[0];
+                        sy = ly = c[1];
+                        if(Point2D.distanceSq(lx, ly, px, py) <= r2) return true;
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        // Linie zurück zum Anfang
+                        if(Line2D.ptSegDistSq(lx, ly, sx, sy, px, py) <= r2) return true;
+                        lx = sx;
+                        ly = sy;
+                        break;
+                    default:
+                        if(Line2D.ptSegDistSq(lx, ly, c[0], c[1], px, py) <= r2) return true;
+                        lx = c[0];
+                        ly = c[1];
+                }
+            }
+            return false;
+        }
+
+        /** Prüft, ob das Zeichenelement, so wie es dargestellt wird, ein
+         * Rechteck berührt: gefüllte Elemente mit ihrer Fläche, ungefüllte nur
+         * mit der Kontur samt halber Linienbreite, jeweils mit Drehung.
+         * @param r Rechteck
+         * @return true bei einer Berührung
+         */
+        boolean touches(Rectangle2D r) {
+            if(x2 < r.getMinX() || x1 > r.getMaxX() || y2 < r.getMinY() || y1 > r.getMaxY()) {
+                return false;
+            }
+            if(x1 >= r.getMinX() && x2 <= r.getMaxX() && y1 >= r.getMinY() && y2 <= r.getMaxY()) {
+                // ganz enthalten
+                return true;
+            }
+            if(isFilled) {
+                if(transform != null && transformed == null) {
+                    return new Path2D.Double(shape, transform).intersects(r);
+                }
+                return (transformed != null ? transformed : shape).intersects(r);
+            }
+            Rectangle2D e = new Rectangle2D.Double(r.getX() - HALF_STROKE, r.getY() - HALF_STROKE,
+                                                   r.getWidth() + 2 * HALF_STROKE,
+                                                   r.getHeight() + 2 * HALF_STROKE);
+            PathIterator it;
+            if(transform != null && transformed == null) {
+                it = shape.getPathIterator(transform);
+            } else if(shape instanceof Polyline) {
+                return ((Polyline) shape).touches(e);
+            } else {
+                it = (transformed != null ? transformed : shape).getPathIterator(null, FLATNESS);
+            }
+            double[] c = new double[6];
+            double sx = 0, sy = 0, lx = 0, ly = 0;
+            for(; !it.isDone(); it.next()) {
+                switch(it.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        sx = lx = c[0];
+                        sy = ly = c[1];
+                        if(e.contains(lx, ly)) return true;
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        // Linie zurück zum Anfang
+                        if(e.intersectsLine(lx, ly, sx, sy)) return true;
+                        lx = sx;
+                        ly = sy;
+                        break;
+                    default:
+                        if(e.intersectsLine(lx, ly, c[0], c[1])) return true;
+                        lx = c[0];
+                        ly = c[1];
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Innere Klasse stellt die aktuelle Zeichenfläche zur Verfügung. */
+    private class DrawingArea extends JComponent {
+
+    /** Legt die Zeichenfläche an, Ziehen verschiebt und das Mausrad zoomt den Ausschnitt */
+    DrawingArea() {
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        MouseAdapter navigation = new MouseAdapter() {
+            /** letzte Position beim Ziehen, sonst null */
+            private Point last;
+
+            public void mousePressed(MouseEvent e) {
+                if(SwingUtilities.isLeftMouseButton(e)) last = e.getPoint();
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                if(last == null) return;
+                pan(e.getX() - last.x, e.getY() - last.y);
+                last = e.getPoint();
+            }
+
+            public void mouseReleased(MouseEvent e) {
+                last = null;
+            }
+
+            public void mouseClicked(MouseEvent e) {
+                if(SwingUtilities.isLeftMouseButton(e) && e.getClickCount() == 2) fitView();
+            }
+
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                // eine Raste entspricht einer Stufe der Kacheln
+                zoom(Math.pow(2, -e.getPreciseWheelRotation() / TileCache.STEPS_PER_OCTAVE),
+                     e.getX(), e.getY());
+            }
+        };
+        addMouseListener(navigation);
+        addMouseMotionListener(navigation);
+        addMouseWheelListener(navigation);
+    }
+
+    /** stellt die Zeichenfläche mit allen enthaltenen grafischen
+     * Objekten neu dar. Wird automatisch aufgerufen, wenn das
+     * Window neu gezeichnet werden muß. Wird auch indirekt über repaint() oder
+     * revalidate aufgerufen.
+     * Anstehende Änderungen werden übernommen, dann werden die gerasterten
+     * Kacheln kopiert. Ungültige Kacheln werden im Hintergrund neu gerastert
+     * und fordern anschließend selbst eine neue Darstellung an; fehlt eine
+     * Kachel im Maßstab des Ausschnitts, wird vorläufig eine gröbere oder
+     * feinere skaliert gezeigt.
+     * @param g neues, vom Windowsystem bereitgestelltes Grafics-Objekt, auf dem das Whiteboard
+     * neu aufgebaut wird.
+     */
+    public void paint(Graphics g) {
+        BoardEvents.Paint event = new BoardEvents.Paint();
+        event.begin();
+        long start = System.nanoTime();
+        int tier = quality.getTier();
+        Rectangle clip = g.getClipBounds();
+        if(clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        boolean changed = false;
+        // rastern gerade Kacheln, bleiben die Änderungen bis zur nächsten
+        // Darstellung stehen, statt den Event-Dispatch-Thread aufzuhalten
+        if(sceneLock.writeLock().tryLock()) {
+            try {
+                changed = applyPending();
+            } finally {
+                sceneLock.writeLock().unlock();
+            }
+        }
+        if(changed) revalidate();
+        View v = view;
+        if(autoScroll) {
+            View f = scrolledView(v);
+            if(!f.sameAs(v)) {
+                quality.active();
+                view = v = f;
+                repaint();
+            }
+        } else if(followDrawing) {
+            // ganzzahliger Ursprung, damit die Kacheln pixelgenau passen
+            View f = fittedView();
+            if(!f.sameAs(v)) {
+                // alles verschiebt sich, nicht nur der Clip
+                quality.active();
+                view = v = f;
+                repaint();
+            }
+        } else if(v == null) {
+            view = v = fittedView();
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        Layer[] order = layerOrder;
+        tileBudget.nextFrame();
+        for(int i = 0; i < order.length; i++) {
+            Layer l = order[i];
+            float opacity = l.opacity;
+            if(!l.visible || opacity <= 0f) continue;
+            if(opacity >= 1f) {
+                l.tiles.paint(g, clip, v.x, v.y, v.scale);
+                continue;
+            }
+            Graphics2D lg = (Graphics2D) g.create();
+            try {
+                lg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+                l.tiles.paint(lg, clip, v.x, v.y, v.scale);
+            } finally {
+                lg.dispose();
+            }
+        }
+        // erst nach allen Ebenen, damit keine im selben Bild gebrauchte Kachel fällt
+        tileBudget.evict();
+        long duration = System.nanoTime() - start;
+        frameStats.record(start, duration);
+        // nur das Rastern hängt von der Qualität ab, Kopieren nicht
+        long raster = tileBudget.frameRaster();
+        if(raster > 0) quality.sample(tier, raster);
+        if(metrics.isEnabled()) metrics.painted(duration);
+        if(event.shouldCommit()) {
+            event.width = clip.width;
+            event.height = clip.height;
+            event.commit();
+        }
+    }
+
+    /** Passt die Größe im Fenster an und zählt die Anpassung. */
+    public void revalidate() {
+        if(metrics.isEnabled()) metrics.revalidated();
+        BoardEvents.Revalidate event = new BoardEvents.Revalidate();
+        if(event.isEnabled()) event.commit();
+        super.revalidate();
     }
 
-    /** gibt gewünschte Größe in Bildschirmeinheiten an. Wird von ScrollPane benutzt, um
-     * Rollbalken zu berechnen.
+    /** gibt gewünschte Größe in Bildschirmeinheiten an, die ganze Zeichnung
+     * im aktuellen Maßstab.
      * @return Größe der Zeichenfläche.
      */
     public Dimension getPreferredSize() {
-        return new Dimension((int) (maxX-minX+3), (int) (maxY-minY+3));
+        View v = view;
+        double s = v == null ? 1 : v.scale;
+        return new Dimension((int) Math.min((maxX-minX+3) * s, Short.MAX_VALUE),
+                             (int) Math.min((maxY-minY+3) * s, Short.MAX_VALUE));
     }
 
 